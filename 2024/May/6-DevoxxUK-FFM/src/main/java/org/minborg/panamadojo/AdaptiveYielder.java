@@ -0,0 +1,59 @@
+package org.minborg.panamadojo;
+
+import java.util.function.LongConsumer;
+
+/**
+ * A yielder that first spins, then yields and then parks for exponentially
+ * longer periods until it is {@linkplain #reset() reset}.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class AdaptiveYielder implements Yielder {
+
+    private final int spins;
+    private final int yields;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+    private final LongConsumer parker;
+
+    private int count;
+    private long parkNanos;
+
+    AdaptiveYielder(int spins,
+                    int yields,
+                    long minParkNanos,
+                    long maxParkNanos,
+                    LongConsumer parker) {
+        if (spins < 0 || yields < 0 || minParkNanos <= 0 || maxParkNanos < minParkNanos) {
+            throw new IllegalArgumentException(
+                    "Invalid: " + spins + ", " + yields + ", " + minParkNanos + ", " + maxParkNanos);
+        }
+        this.spins = spins;
+        this.yields = yields;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+        this.parker = parker;
+        reset();
+    }
+
+    @Override
+    public void yield() {
+        if (count < spins) {
+            count++;
+            Thread.onSpinWait();
+        } else if (count < spins + yields) {
+            count++;
+            Thread.yield();
+        } else {
+            parker.accept(parkNanos);
+            parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+        }
+    }
+
+    @Override
+    public void reset() {
+        count = 0;
+        parkNanos = minParkNanos;
+    }
+
+}
@@ -0,0 +1,323 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.MemoryLayout.paddingLayout;
+import static java.lang.foreign.MemoryLayout.structLayout;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Aggregates the {@link MarketInfo} elements of a queue to open, high, low and close
+ * (OHLC) bars per symbol and interval (e.g. 1 s, 1 min and 5 min) which are appended
+ * to one queue per interval:
+ * <pre>{@code
+ * try (var aggregator = BarAggregator.of(
+ *         QueueConsumer.of(MARKET_INFO_RECORD_MAPPER, QUEUE_PATH, "bars"),
+ *         1024,
+ *         Map.of(Duration.ofSeconds(1), QueueProducer.of(BarAggregator.BAR_MAPPER, BARS_1S_PATH),
+ *                Duration.ofMinutes(1), QueueProducer.of(BarAggregator.BAR_MAPPER, BARS_1M_PATH),
+ *                Duration.ofMinutes(5), QueueProducer.of(BarAggregator.BAR_MAPPER, BARS_5M_PATH)))) {
+ *     for (;;) {
+ *         aggregator.aggregate(64);
+ *         ...
+ *     }
+ * }
+ * }</pre>
+ * Elements are read via a {@link MarketInfoFlyweight} and the open bars are kept in
+ * off-heap columns indexed by the dense id of each symbol in a {@link SymbolRegistry}.
+ * Bars are written to a scratch segment and appended as raw bytes. So, nothing is
+ * allocated per element.
+ * <p>
+ * A bar is appended once the first element of a later interval arrives for its
+ * symbol. The elements must be in time order. As {@code MarketInfo} has no traded
+ * quantity, the volume of a bar is its number of elements.
+ * <p>
+ * The aggregator owns the source consumer and the destination producers and closes
+ * them when it is closed. Instances are not thread safe.
+ */
+public interface BarAggregator extends AutoCloseable {
+
+    /**
+     * An OHLC bar where {@code time} is the start of its interval in the same
+     * {@code yyMMddHHmmss} form as {@link MarketInfo#time()}.
+     */
+    record Bar(long time, int symbol, int open, int high, int low, int close, long volume) {
+
+        @Override
+        public String toString() {
+            return "Bar{" +
+                    "time = " + time +
+                    ", symbol = " + Util.symbolAsString(symbol) +
+                    ", open = " + open +
+                    ", high = " + high +
+                    ", low = " + low +
+                    ", close = " + close +
+                    ", volume = " + volume +
+                    "}";
+        }
+    }
+
+    StructLayout BAR = structLayout(
+            Util.JAVA_LONG_LE.withName("time"),
+            Util.JAVA_INT_LE.withName("symbol"),
+            Util.JAVA_INT_LE.withName("open"),
+            Util.JAVA_INT_LE.withName("high"),
+            Util.JAVA_INT_LE.withName("low"),
+            Util.JAVA_INT_LE.withName("close"),
+            paddingLayout(Integer.BYTES),
+            Util.JAVA_LONG_LE.withName("volume")
+    ).withName("Bar");
+
+    RecordMapper<Bar> BAR_MAPPER = RecordMapper.of(Bar.class, BAR);
+
+    /**
+     * Aggregates the completed elements of the source, up to {@code max} elements.
+     *
+     * @param max number of elements to aggregate
+     * @return the number of elements read from the source
+     * @throws IllegalStateException if the registry of symbols is full
+     */
+    int aggregate(int max);
+
+    /**
+     * Appends all open bars, even though their intervals might not have ended.
+     */
+    void flush();
+
+    /**
+     * {@return the registry of the ids of the symbols}
+     */
+    SymbolRegistry symbols();
+
+    /**
+     * {@return the yielder of the source consumer}
+     *
+     * @see QueueConsumer#yielder()
+     */
+    Yielder yielder();
+
+    /**
+     * Closes the source and the destinations. Open bars are not appended, see {@link #flush()}.
+     */
+    @Override
+    void close();
+
+    /**
+     * {@return a new aggregator of the elements of the provided {@code source}}
+     *
+     * @param source       to aggregate elements from
+     * @param capacity     the maximum number of symbols
+     * @param destinations the producer to append the bars of each interval to
+     * @throws IllegalArgumentException if the capacity is not positive, if there are no
+     *                                  destinations or if an interval is not a whole
+     *                                  number of seconds that evenly divides a day
+     */
+    static BarAggregator of(QueueConsumer<? extends MarketInfo> source,
+                            int capacity,
+                            Map<Duration, ? extends QueueProducer<Bar>> destinations) {
+        return of(source, SymbolRegistry.of(capacity), destinations);
+    }
+
+    /**
+     * {@return a new aggregator of the elements of the provided {@code source} where
+     *          the open bars are indexed by the ids of the provided {@code symbols}}
+     * <p>
+     * The registry may be shared with other components, for example so they can look
+     * up the bars of a symbol id.
+     *
+     * @param source       to aggregate elements from
+     * @param symbols      to get the id of each symbol from
+     * @param destinations the producer to append the bars of each interval to
+     * @throws IllegalArgumentException if there are no destinations or if an interval
+     *                                  is not a whole number of seconds that evenly
+     *                                  divides a day
+     */
+    static BarAggregator of(QueueConsumer<? extends MarketInfo> source,
+                            SymbolRegistry symbols,
+                            Map<Duration, ? extends QueueProducer<Bar>> destinations) {
+        return new Impl(source, symbols, destinations);
+    }
+
+    final class Impl implements BarAggregator {
+
+        private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+        // The open, high, low and close of a bar are adjacent
+        private static final int OPEN = 0;
+        private static final int HIGH = 1;
+        private static final int LOW = 2;
+        private static final int CLOSE = 3;
+        private static final int PRICES = 4;
+
+        // https://bugs.openjdk.org/browse/JDK-8331734
+
+        private static final VarHandle LONG = Util.JAVA_LONG_LE.varHandle();
+        private static final VarHandle INT = Util.JAVA_INT_LE.varHandle();
+        private static final long TIME_OFFSET = BAR.byteOffset(groupElement("time"));
+        private static final long SYMBOL_OFFSET = BAR.byteOffset(groupElement("symbol"));
+        private static final long OPEN_OFFSET = BAR.byteOffset(groupElement("open"));
+        private static final long HIGH_OFFSET = BAR.byteOffset(groupElement("high"));
+        private static final long LOW_OFFSET = BAR.byteOffset(groupElement("low"));
+        private static final long CLOSE_OFFSET = BAR.byteOffset(groupElement("close"));
+        private static final long VOLUME_OFFSET = BAR.byteOffset(groupElement("volume"));
+
+        private final QueueConsumer<? extends MarketInfo> source;
+        private final SymbolRegistry symbols;
+        private final int[] seconds;                    // Per interval
+        private final List<QueueProducer<Bar>> destinations; // Per interval
+        private final Arena arena;
+        private final MemorySegment[] starts;           // Per interval and id, see toSeconds(long)
+        private final MemorySegment[] prices;           // Per interval and id, PRICES ints
+        private final MemorySegment[] volumes;          // Per interval and id, 0 if no open bar
+        private final MemorySegment bar;                // Scratch
+        private final MarketInfoFlyweight flyweight = new MarketInfoFlyweight();
+        private final Consumer<MarketInfoFlyweight> action = this::aggregate;
+
+        public Impl(QueueConsumer<? extends MarketInfo> source,
+                    SymbolRegistry symbols,
+                    Map<Duration, ? extends QueueProducer<Bar>> destinations) {
+            if (destinations.isEmpty()) {
+                throw new IllegalArgumentException("No destinations");
+            }
+            this.source = source;
+            this.symbols = symbols;
+            this.seconds = new int[destinations.size()];
+            this.destinations = new ArrayList<>(destinations.size());
+            int i = 0;
+            for (var e : destinations.entrySet()) {
+                Duration interval = e.getKey();
+                if (interval.getNano() != 0 || interval.getSeconds() <= 0 ||
+                        SECONDS_PER_DAY % interval.getSeconds() != 0) {
+                    throw new IllegalArgumentException("Invalid interval: " + interval);
+                }
+                this.seconds[i++] = (int) interval.getSeconds();
+                this.destinations.add(e.getValue());
+            }
+            int capacity = symbols.capacity();
+            this.arena = Arena.ofShared();
+            this.starts = new MemorySegment[seconds.length];
+            this.prices = new MemorySegment[seconds.length];
+            this.volumes = new MemorySegment[seconds.length];
+            for (int j = 0; j < seconds.length; j++) {
+                starts[j] = arena.allocate(JAVA_LONG, capacity);
+                prices[j] = arena.allocate(JAVA_INT, (long) capacity * PRICES);
+                volumes[j] = arena.allocate(JAVA_LONG, capacity);
+            }
+            this.bar = arena.allocate(BAR);
+        }
+
+        @Override
+        public int aggregate(int max) {
+            return source.drainTo(flyweight, action, max);
+        }
+
+        @Override
+        public void flush() {
+            for (int i = 0; i < seconds.length; i++) {
+                for (int id = 0, size = symbols.size(); id < size; id++) {
+                    if (volumes[i].getAtIndex(JAVA_LONG, id) != 0) {
+                        append(i, id);
+                        volumes[i].setAtIndex(JAVA_LONG, id, 0);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public SymbolRegistry symbols() {
+            return symbols;
+        }
+
+        @Override
+        public Yielder yielder() {
+            return source.yielder();
+        }
+
+        @Override
+        public void close() {
+            try {
+                source.close();
+                // Several intervals may share a destination
+                Set<QueueProducer<Bar>> producers = Collections.newSetFromMap(new IdentityHashMap<>());
+                producers.addAll(destinations);
+                producers.forEach(QueueProducer::close);
+            } finally {
+                arena.close();
+            }
+        }
+
+        private void aggregate(MarketInfo element) {
+            long time = toSeconds(element.time());
+            int id = symbols.id(Integer.toUnsignedLong(element.symbol()));
+            int high = element.high();
+            int last = element.last();
+            int low = element.low();
+            for (int i = 0; i < seconds.length; i++) {
+                long start = time - time % seconds[i];
+                MemorySegment prices = this.prices[i];
+                long volume = volumes[i].getAtIndex(JAVA_LONG, id);
+                long p = (long) id * PRICES;
+                if (volume != 0 && starts[i].getAtIndex(JAVA_LONG, id) == start) {
+                    prices.setAtIndex(JAVA_INT, p + HIGH, Math.max(prices.getAtIndex(JAVA_INT, p + HIGH), high));
+                    prices.setAtIndex(JAVA_INT, p + LOW, Math.min(prices.getAtIndex(JAVA_INT, p + LOW), low));
+                    prices.setAtIndex(JAVA_INT, p + CLOSE, last);
+                    volumes[i].setAtIndex(JAVA_LONG, id, volume + 1);
+                } else {
+                    if (volume != 0) {
+                        append(i, id);
+                    }
+                    starts[i].setAtIndex(JAVA_LONG, id, start);
+                    prices.setAtIndex(JAVA_INT, p + OPEN, last);
+                    prices.setAtIndex(JAVA_INT, p + HIGH, high);
+                    prices.setAtIndex(JAVA_INT, p + LOW, low);
+                    prices.setAtIndex(JAVA_INT, p + CLOSE, last);
+                    volumes[i].setAtIndex(JAVA_LONG, id, 1L);
+                }
+            }
+        }
+
+        private void append(int interval, int id) {
+            MemorySegment prices = this.prices[interval];
+            long p = (long) id * PRICES;
+            LONG.set(bar, TIME_OFFSET, toTime(starts[interval].getAtIndex(JAVA_LONG, id)));
+            INT.set(bar, SYMBOL_OFFSET, (int) symbols.symbol(id));
+            INT.set(bar, OPEN_OFFSET, prices.getAtIndex(JAVA_INT, p + OPEN));
+            INT.set(bar, HIGH_OFFSET, prices.getAtIndex(JAVA_INT, p + HIGH));
+            INT.set(bar, LOW_OFFSET, prices.getAtIndex(JAVA_INT, p + LOW));
+            INT.set(bar, CLOSE_OFFSET, prices.getAtIndex(JAVA_INT, p + CLOSE));
+            LONG.set(bar, VOLUME_OFFSET, volumes[interval].getAtIndex(JAVA_LONG, id));
+            destinations.get(interval).append(bar, 0);
+        }
+
+        // The yyMMddHHmmss time as yyMMdd days and seconds of the day so the start of
+        // an interval is a single remainder as intervals evenly divide a day
+        static long toSeconds(long time) {
+            long day = time / 1_00_00_00;
+            int hh = (int) (time / 1_00_00 % 100);
+            int mm = (int) (time / 1_00 % 100);
+            int ss = (int) (time % 100);
+            return day * SECONDS_PER_DAY + hh * 3600 + mm * 60 + ss;
+        }
+
+        static long toTime(long seconds) {
+            long day = seconds / SECONDS_PER_DAY;
+            int s = (int) (seconds % SECONDS_PER_DAY);
+            return day * 1_00_00_00 + (s / 3600) * 1_00_00 + (s / 60 % 60) * 1_00 + s % 60;
+        }
+
+    }
+
+}
@@ -0,0 +1,132 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.PaddingLayout;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Converts elements between the byte order declared by a layout and the opposite
+ * order, for example to replay a file written by a host of the other endianness.
+ * <p>
+ * Reading such elements through var handles of the opposite order swaps each field
+ * on every access. Converting a batch of elements up front instead uses swapping
+ * copies, one per element for each run of consecutive members of the same size
+ * (e.g. one for the time and one for the four ints of {@link Util#MARKET_INFO}),
+ * after which the elements can be read with the regular accessors. Only elements
+ * whose members all have the same size are converted with a single bulk copy.
+ */
+final class ByteSwapper {
+
+    private final MemoryLayout layout;
+    private final Run[] runs;
+
+    // count members of the same size starting at offset
+    private record Run(long offset, ValueLayout from, ValueLayout to, long count) {}
+
+    private ByteSwapper(MemoryLayout layout, Run[] runs) {
+        this.layout = layout;
+        this.runs = runs;
+    }
+
+    /**
+     * {@return the layout of the elements}
+     */
+    MemoryLayout layout() {
+        return layout;
+    }
+
+    /**
+     * Converts {@code count} consecutive elements at {@code sourceOffset} in the
+     * {@code source} to the opposite byte order at {@code targetOffset} in the
+     * {@code target}. Converting twice yields the original elements so the same
+     * method converts both from and to the declared order.
+     * <p>
+     * The source and the target must not overlap.
+     *
+     * @param source       to read elements from
+     * @param sourceOffset of the first element in the source
+     * @param target       to write elements to
+     * @param targetOffset of the first element in the target
+     * @param count        number of elements
+     */
+    void swap(MemorySegment source, long sourceOffset,
+              MemorySegment target, long targetOffset,
+              long count) {
+        if (runs.length == 1) {
+            // Every member has the same size so the elements are a single run
+            Run run = runs[0];
+            MemorySegment.copy(source, run.from, sourceOffset, target, run.to, targetOffset, run.count * count);
+            return;
+        }
+        long size = layout.byteSize();
+        for (long i = 0; i < count; i++) {
+            for (Run run : runs) {
+                MemorySegment.copy(source, run.from, sourceOffset + run.offset,
+                        target, run.to, targetOffset + run.offset, run.count);
+            }
+            sourceOffset += size;
+            targetOffset += size;
+        }
+    }
+
+    /**
+     * {@return a new swapper of the elements of the provided {@code layout}}
+     *
+     * @param layout of the elements
+     * @throws IllegalArgumentException if the layout has members other than values and padding
+     */
+    static ByteSwapper of(StructLayout layout) {
+        List<Run> runs = new ArrayList<>();
+        long offset = 0;
+        for (MemoryLayout member : layout.memberLayouts()) {
+            ValueLayout to = switch (member) {
+                case PaddingLayout _ -> null;
+                case ValueLayout v -> integral(v);
+                default -> throw new IllegalArgumentException("Unsupported member: " + member);
+            };
+            if (to == null) {
+                // Padding is copied as it is
+                runs.add(new Run(offset, JAVA_BYTE, JAVA_BYTE, member.byteSize()));
+            } else {
+                ValueLayout from = to.withOrder(opposite(to.order()));
+                Run last = runs.isEmpty() ? null : runs.getLast();
+                if (last != null && last.to.equals(to)) {
+                    runs.set(runs.size() - 1, new Run(last.offset, from, to, last.count + 1));
+                } else {
+                    runs.add(new Run(offset, from, to, 1));
+                }
+            }
+            offset += member.byteSize();
+        }
+        return new ByteSwapper(layout, runs.toArray(new Run[0]));
+    }
+
+    // Floating point values are swapped as integers of the same size
+    private static ValueLayout integral(ValueLayout value) {
+        ValueLayout integral = switch ((int) value.byteSize()) {
+            case 1 -> JAVA_BYTE;
+            case 2 -> JAVA_SHORT;
+            case 4 -> JAVA_INT;
+            case 8 -> JAVA_LONG;
+            default -> throw new IllegalArgumentException("Unsupported member: " + value);
+        };
+        return integral.withOrder(value.order()).withByteAlignment(1);
+    }
+
+    /**
+     * {@return the other byte order than the provided {@code order}}
+     *
+     * @param order to get the opposite of
+     */
+    static ByteOrder opposite(ByteOrder order) {
+        return order == ByteOrder.LITTLE_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    }
+
+}
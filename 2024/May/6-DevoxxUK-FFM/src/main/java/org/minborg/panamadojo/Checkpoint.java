@@ -0,0 +1,145 @@
+package org.minborg.panamadojo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SequenceLayout;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.MemoryLayout.sequenceLayout;
+import static java.lang.foreign.MemoryLayout.structLayout;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The durable read position of a named consumer.
+ * <p>
+ * Checkpoints are kept in a small mapped table next to the queue file(s) so that
+ * they survive restarts and can be shared by consumers in different JVMs. As the
+ * table is mapped, storing a checkpoint is just a release store and the OS
+ * writes it back to the file.
+ */
+final class Checkpoint implements AutoCloseable {
+
+    // CHECKPOINT FILE:
+    // CHECKPOINT, CHECKPOINT, ... (MAX_CHECKPOINTS times)
+
+    static final int MAX_NAME_LENGTH = 56;
+    static final int MAX_CHECKPOINTS = 64;
+
+    static final StructLayout CHECKPOINT = structLayout(
+            Util.JAVA_LONG_LE.withName("index"), // Next index to read, 0 if free or -pid while claimed
+            sequenceLayout(MAX_NAME_LENGTH, JAVA_BYTE).withName("name") // UTF-8, zero padded
+    ).withName("Checkpoint"); // A cache line so consumers do not disturb each other
+
+    static final SequenceLayout TABLE = sequenceLayout(MAX_CHECKPOINTS, CHECKPOINT);
+
+    private static final long FREE = 0;
+
+    // https://bugs.openjdk.org/browse/JDK-8331734
+
+    private static final VarHandle LONG = Util.JAVA_LONG_LE.varHandle();
+    private static final long INDEX_OFFSET = CHECKPOINT.byteOffset(groupElement("index"));
+    private static final long NAME_OFFSET = CHECKPOINT.byteOffset(groupElement("name"));
+
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final long offset;
+
+    private Checkpoint(Arena arena, MemorySegment segment, long offset) {
+        this.arena = arena;
+        this.segment = segment;
+        this.offset = offset;
+    }
+
+    /**
+     * {@return the index of the next element the consumer shall read or 1 if the
+     *          consumer has never stored a checkpoint}
+     */
+    long index() {
+        return Math.max(1, (long) LONG.getAcquire(segment, offset + INDEX_OFFSET));
+    }
+
+    /**
+     * Stores the index of the next element the consumer shall read.
+     *
+     * @param index to store
+     */
+    void store(long index) {
+        LONG.setRelease(segment, offset + INDEX_OFFSET, index);
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    /**
+     * {@return the checkpoint with the provided {@code name} in the provided
+     *          {@code file}, which is created if it does not exist}
+     * <p>
+     * An entry is claimed with the negated pid of the claiming process while its name
+     * is written. Entries left claimed by a process that is no longer alive are taken
+     * over.
+     *
+     * @param file holding the checkpoints
+     * @param name of the consumer
+     * @throws IllegalArgumentException if the name is empty or too long
+     * @throws IllegalStateException    if the table is full
+     */
+    static Checkpoint of(Path file, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0 || bytes.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Invalid name: " + name);
+        }
+        Arena arena = Arena.ofShared();
+        MemorySegment table;
+        try (var fc = FileChannel.open(file, CREATE, SPARSE, READ, WRITE)) {
+            table = fc.map(READ_WRITE, 0, TABLE.byteSize(), arena);
+        } catch (IOException e) {
+            arena.close();
+            throw new UncheckedIOException(e);
+        }
+        long claimed = -ProcessHandle.current().pid();
+        for (long i = 0; i < MAX_CHECKPOINTS; i++) {
+            long offset = i * CHECKPOINT.byteSize();
+            long index;
+            while ((index = (long) LONG.getAcquire(table, offset + INDEX_OFFSET)) < 0 &&
+                    ProcessHandle.of(-index).map(ProcessHandle::isAlive).orElse(false)) {
+                // Another consumer is about to write its name
+                Thread.onSpinWait();
+            }
+            if (index <= FREE && LONG.compareAndSet(table, offset + INDEX_OFFSET, index, claimed)) {
+                // A process that died while claiming the entry might have left a partial name
+                table.asSlice(offset + NAME_OFFSET, MAX_NAME_LENGTH).fill((byte) 0);
+                MemorySegment.copy(bytes, 0, table, JAVA_BYTE, offset + NAME_OFFSET, bytes.length);
+                LONG.setRelease(table, offset + INDEX_OFFSET, 1L); // Publishes the name
+                return new Checkpoint(arena, table, offset);
+            }
+            if (index > FREE && hasName(table, offset, bytes)) {
+                return new Checkpoint(arena, table, offset);
+            }
+            // Lost the race for a free or abandoned entry so check it again
+            if (index <= FREE) {
+                i--;
+            }
+        }
+        arena.close();
+        throw new IllegalStateException("No free checkpoint for " + name + " in " + file);
+    }
+
+    private static boolean hasName(MemorySegment table, long offset, byte[] bytes) {
+        MemorySegment name = table.asSlice(offset + NAME_OFFSET, MAX_NAME_LENGTH);
+        return (bytes.length == MAX_NAME_LENGTH || name.get(JAVA_BYTE, bytes.length) == 0) &&
+                MemorySegment.mismatch(name, 0, bytes.length,
+                        MemorySegment.ofArray(bytes), 0, bytes.length) == -1;
+    }
+
+}
@@ -0,0 +1,346 @@
+package org.minborg.panamadojo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.constant.ConstantDescs;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal class file writer for the generated classes in this package.
+ * <p>
+ * Generated methods have no branches so no stack map frames are needed and the
+ * class file is written directly rather than via a bytecode library.
+ */
+final class ClassFile {
+
+    static final int VERSION = 61; // Java 17
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+    static final int ACC_SYNTHETIC = 0x1000;
+
+    // Opcodes
+    static final int ICONST_0 = 0x03;
+    static final int LCONST_0 = 0x09;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ILOAD_1 = 0x1b;
+    static final int LLOAD_1 = 0x1f;
+    static final int LLOAD_2 = 0x20;
+    static final int FLOAD_1 = 0x23;
+    static final int DLOAD_1 = 0x27;
+    static final int ALOAD = 0x19;
+    static final int ALOAD_0 = 0x2a;
+    static final int ALOAD_1 = 0x2b;
+    static final int ASTORE = 0x3a;
+    static final int ASTORE_0 = 0x4b;
+    static final int DUP = 0x59;
+    static final int IRETURN = 0xac;
+    static final int LRETURN = 0xad;
+    static final int FRETURN = 0xae;
+    static final int DRETURN = 0xaf;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int NEW = 0xbb;
+    static final int CHECKCAST = 0xc0;
+
+    static final String OBJECT = "java/lang/Object";
+
+    private final ConstantPool cp = new ConstantPool();
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final int code;
+    private final List<Member> fields = new ArrayList<>();
+    private final List<Method> methods = new ArrayList<>();
+
+    /**
+     * Creates a new class file for a final class extending {@code Object}.
+     *
+     * @param name       internal name of the class (e.g. "a/b/C")
+     * @param interfaces internal names of the implemented interfaces
+     */
+    ClassFile(String name, String... interfaces) {
+        this.thisClass = cp.classInfo(name);
+        this.superClass = cp.classInfo(OBJECT);
+        this.interfaces = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            this.interfaces[i] = cp.classInfo(interfaces[i]);
+        }
+        this.code = cp.utf8("Code");
+    }
+
+    ConstantPool constants() {
+        return cp;
+    }
+
+    int superClass() {
+        return superClass;
+    }
+
+    /**
+     * Adds a field and {@return a field reference to it}
+     */
+    int field(int access, String name, String descriptor) {
+        fields.add(new Member(access, cp.utf8(name), cp.utf8(descriptor)));
+        return cp.fieldRef(thisClass, name, descriptor);
+    }
+
+    /**
+     * Adds a method and {@return the method for its code to be appended to}
+     */
+    Method method(int access, String name, String descriptor, int maxStack, int maxLocals) {
+        Method method = new Method(new Member(access, cp.utf8(name), cp.utf8(descriptor)), maxStack, maxLocals);
+        methods.add(method);
+        return method;
+    }
+
+    /**
+     * Adds a static initializer that sets each of the provided static fields to the
+     * class data element with the same index.
+     *
+     * @param fields references to the fields
+     * @param types  internal names of the types of the fields
+     */
+    void classDataInitializer(int[] fields, String[] types) {
+        String lookup = "java/lang/invoke/MethodHandles$Lookup";
+        int methodHandles = cp.classInfo("java/lang/invoke/MethodHandles");
+        int classDataAt = cp.methodRef(methodHandles, "classDataAt",
+                "(L" + lookup + ";Ljava/lang/String;Ljava/lang/Class;I)Ljava/lang/Object;");
+        Method clinit = method(ACC_STATIC, "<clinit>", "()V", 4, 1);
+        clinit.op(INVOKESTATIC).u2(cp.methodRef(methodHandles, "lookup", "()L" + lookup + ";"))
+                .op(ASTORE_0);
+        for (int i = 0; i < fields.length; i++) {
+            int type = cp.classInfo(types[i]);
+            clinit.op(ALOAD_0)
+                    .op(LDC_W).u2(cp.string(ConstantDescs.DEFAULT_NAME))
+                    .op(LDC_W).u2(type)
+                    .pushInt(i)
+                    .op(INVOKESTATIC).u2(classDataAt)
+                    .op(CHECKCAST).u2(type)
+                    .op(PUTSTATIC).u2(fields[i]);
+        }
+        clinit.op(RETURN);
+    }
+
+    byte[] toByteArray() {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            cp.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int i : interfaces) {
+                out.writeShort(i);
+            }
+            out.writeShort(fields.size());
+            for (Member field : fields) {
+                field.writeTo(out);
+                out.writeShort(0); // Attributes
+            }
+            out.writeShort(methods.size());
+            for (Method method : methods) {
+                method.writeTo(out, code);
+            }
+            out.writeShort(0); // Attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static String internalName(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    static int slots(Class<?> type) {
+        return type == long.class || type == double.class ? 2 : 1;
+    }
+
+    // The load opcode for the first parameter of the provided type
+    static int load1(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return ALOAD_1;
+        }
+        return type == long.class ? LLOAD_1
+                : type == float.class ? FLOAD_1
+                : type == double.class ? DLOAD_1
+                : ILOAD_1;
+    }
+
+    static int returnOf(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return ARETURN;
+        }
+        return type == void.class ? RETURN
+                : type == long.class ? LRETURN
+                : type == float.class ? FRETURN
+                : type == double.class ? DRETURN
+                : IRETURN;
+    }
+
+    private record Member(int access, int name, int descriptor) {
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+        }
+    }
+
+    static final class Method {
+
+        private final Member member;
+        private final int maxStack;
+        private final int maxLocals;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        private Method(Member member, int maxStack, int maxLocals) {
+            this.member = member;
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        Method op(int opcode) {
+            code.write(opcode);
+            return this;
+        }
+
+        Method u2(int value) {
+            code.write(value >>> 8);
+            code.write(value);
+            return this;
+        }
+
+        Method pushInt(int value) {
+            if (value <= 5) {
+                return op(ICONST_0 + value);
+            }
+            if (value <= Byte.MAX_VALUE) {
+                return op(BIPUSH).op(value);
+            }
+            return op(SIPUSH).u2(value);
+        }
+
+        private void writeTo(DataOutputStream out, int codeAttribute) throws IOException {
+            member.writeTo(out);
+            out.writeShort(1); // Attributes
+            out.writeShort(codeAttribute);
+            out.writeInt(2 + 2 + 4 + code.size() + 2 + 2);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.size());
+            code.writeTo(out);
+            out.writeShort(0); // Exception table
+            out.writeShort(0); // Attributes
+        }
+
+    }
+
+    static final class ConstantPool {
+
+        private static final int UTF8 = 1;
+        private static final int CLASS = 7;
+        private static final int STRING = 8;
+        private static final int FIELD_REF = 9;
+        private static final int METHOD_REF = 10;
+        private static final int NAME_AND_TYPE = 12;
+
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, () -> {
+                out.writeByte(UTF8);
+                out.writeUTF(value);
+            });
+        }
+
+        int classInfo(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, () -> {
+                out.writeByte(CLASS);
+                out.writeShort(name);
+            });
+        }
+
+        int string(String value) {
+            int utf8 = utf8(value);
+            return entry("S" + value, () -> {
+                out.writeByte(STRING);
+                out.writeShort(utf8);
+            });
+        }
+
+        int fieldRef(int owner, String name, String descriptor) {
+            return ref(FIELD_REF, owner, name, descriptor);
+        }
+
+        int methodRef(int owner, String name, String descriptor) {
+            return ref(METHOD_REF, owner, name, descriptor);
+        }
+
+        private void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+
+        private int ref(int tag, int owner, String name, String descriptor) {
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + ":" + descriptor, () -> {
+                out.writeByte(NAME_AND_TYPE);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry("R" + tag + ":" + owner + ":" + nameAndType, () -> {
+                out.writeByte(tag);
+                out.writeShort(owner);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private int entry(String key, Writer writer) {
+            Integer index = indices.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            indices.put(key, count);
+            return count++;
+        }
+
+        @FunctionalInterface
+        private interface Writer {
+            void write() throws IOException;
+        }
+
+    }
+
+}
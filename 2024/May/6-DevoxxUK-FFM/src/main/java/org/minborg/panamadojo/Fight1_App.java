@@ -1,5 +1,9 @@
 package org.minborg.panamadojo;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -11,8 +15,16 @@ import static org.minborg.panamadojo.Kata2_RecordMapper.MARKET_INFO_RECORD_MAPPE
 
 public class Fight1_App {
 
-    private static final Path QUEUE_PATH =
-            Paths.get("market-info", "20240508.queue");
+    // Created when the app is run. The checked-in market-info/20240508.queue predates
+    // the FILE_HEADER (see the hexdumps below) and is not a valid queue file anymore
+    static final Path QUEUE_PATH =
+            Paths.get("market-info-queue", "20240508.queue");
+
+    private static final Path ORCL_QUEUE_PATH =
+            Paths.get("market-info", "ORCL.queue");
+
+    private static final Path AUDIT_PATH =
+            Paths.get("market-info", "audit.log");
 
     private static final int ORCL = Util.symbolAsInt("ORCL");
     private static final int AAPL = Util.symbolAsInt("AAPL");
@@ -37,6 +49,11 @@ public class Fight1_App {
                 new MarketInfoRecord(24_05_08__11_15_27L, MSFT, 313, 310, 311)
         );
 
+        try {
+            Files.createDirectories(QUEUE_PATH.getParent());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         try (var producer = QueueProducer.of(MARKET_INFO_RECORD_MAPPER, QUEUE_PATH)) {
             for (var mi : events) {
                 producer.append(mi);
@@ -46,11 +63,17 @@ public class Fight1_App {
     }
 
     static void consumer() {
-        Yielder yielder = Yielder.ofSleep(TimeUnit.MICROSECONDS.toNanos(5)); // 5 us
-        try (var consumer = QueueConsumer.of(MARKET_INFO_RECORD_MAPPER, QUEUE_PATH)) {
+        // Resumes where the consumer with the same name stopped
+        String name = Thread.currentThread().getName();
+        try (var consumer = QueueConsumer.of(MARKET_INFO_RECORD_MAPPER, QUEUE_PATH, name)) {
+            // Spins, yields and then parks until the producer appends
+            Yielder yielder = consumer.yielder();
             for (;;) {
                 consumer.next() // Optional<MarketInfoRecord>
-                        .ifPresentOrElse(Fight1_App::onRead, yielder::yield);
+                        .ifPresentOrElse(mi -> {
+                            onRead(mi);
+                            yielder.reset();
+                        }, yielder::yield);
             }
         }
 
@@ -59,13 +82,66 @@ public class Fight1_App {
     static void onRead(MarketInfo event) {
         System.out.println(Thread.currentThread().getName() + " : " + event);
 
-        // MAP.merge(event.symbol(), event, (e, n) -> n.time() > e.time() ? n : e);
+        // See latest() for keeping the latest event per symbol without boxing,
+        // router() for republishing events without deserializing them
+        // and audit() for logging events without allocating
+    }
 
-        /*
-        if (event.symbol() == Util.symbolAsInt("ORCL")) {
-            outQueue.append(event);
+    static void latest() {
+        // Keeps the latest event per symbol off-heap for other threads to read
+        try (var arena = Arena.ofShared();
+             var consumer = QueueConsumer.of(MARKET_INFO_RECORD_MAPPER, QUEUE_PATH, "latest")) {
+            var latest = LatestValueCache.of(MARKET_INFO_RECORD_MAPPER, "symbol", 1024, arena);
+            Thread.ofVirtual().name("reader").start(() -> {
+                for (;;) {
+                    latest.get(ORCL).ifPresent(mi -> System.out.println("Latest ORCL : " + mi));
+                    LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                }
+            });
+            Yielder yielder = consumer.yielder();
+            for (;;) {
+                if (latest.update(consumer, 64) > 0) {
+                    yielder.reset();
+                } else {
+                    yielder.yield();
+                }
+            }
+        }
+    }
+
+    static void audit() {
+        // Renders the raw slots as text that is written to a file in the background.
+        // Elements are checkpointed before they are written so the log is at-most-once
+        try (var log = LogSink.of(AUDIT_PATH);
+             var consumer = QueueConsumer.of(MARKET_INFO_RECORD_MAPPER, QUEUE_PATH, "audit")) {
+            Yielder yielder = consumer.yielder();
+            for (;;) {
+                if (log.log(consumer, 64) > 0) {
+                    yielder.reset();
+                } else {
+                    yielder.yield();
+                }
+            }
+        }
+    }
+
+    static void router() {
+        // Copies the raw ORCL slots to another queue and drops the others
+        try (var router = QueueRouter.of(MARKET_INFO_RECORD_MAPPER,
+                QueueConsumer.of(MARKET_INFO_RECORD_MAPPER, QUEUE_PATH, "router"),
+                "symbol",
+                symbol -> symbol == ORCL
+                        ? QueueProducer.of(MARKET_INFO_RECORD_MAPPER, ORCL_QUEUE_PATH)
+                        : null)) {
+            Yielder yielder = router.yielder();
+            for (;;) {
+                if (router.route(64) > 0) {
+                    yielder.reset();
+                } else {
+                    yielder.yield();
+                }
+            }
         }
-         */
     }
 
   /*
@@ -94,6 +170,26 @@ public class Fight1_App {
 *
 00100000
 
+
+  Now, the file starts with a FILE_HEADER (magic, version 3, slot size, base index,
+  tail, limit, end and sequence) and the flags of each slot are tagged with its owner
+
+  hexdump -C market-info-queue/20240508.queue
+
+00000000  50 41 4e 41 4d 41 2d 51  03 00 00 00 20 00 00 00  |PANAMA-Q.... ...|
+00000010  00 00 00 00 00 00 00 00  60 00 00 00 00 00 00 00  |........`.......|
+00000020  c0 ff ff ff ff ff 00 00  ff ff ff ff ff ff ff ff  |................|
+00000030  03 00 00 00 00 00 00 00  00 00 00 00 00 00 00 00  |................|
+00000040  c0 01 01 00 01 00 00 00  a3 8a 66 ff 37 00 00 00  |..........f.7...|
+00000050  4f 52 43 4c 6b 00 00 00  6a 00 00 00 68 00 00 00  |ORCLk...j...h...|
+00000060  c0 01 01 00 02 00 00 00  a5 8a 66 ff 37 00 00 00  |..........f.7...|
+00000070  41 41 50 4c ac 00 00 00  aa 00 00 00 a9 00 00 00  |AAPL............|
+00000080  c0 01 01 00 03 00 00 00  a7 8a 66 ff 37 00 00 00  |..........f.7...|
+00000090  4d 53 46 54 39 01 00 00  36 01 00 00 37 01 00 00  |MSFT9...6...7...|
+000000a0  00 00 00 00 00 00 00 00  00 00 00 00 00 00 00 00  |................|
+*
+02010000
+
   */
 
 }
@@ -0,0 +1,84 @@
+package org.minborg.panamadojo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static org.minborg.panamadojo.Kata2_RecordMapper.MARKET_INFO_RECORD_MAPPER;
+
+public class Fight3_Replication {
+
+    private static final Path REPLICA_PATH =
+            Paths.get("market-info-replica", "20240508.queue");
+
+    private static final SocketAddress ADDRESS =
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 7070);
+
+    // Run with "leader" next to Fight1_App and with "follower" in another JVM
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("follower")) {
+            follower();
+        } else {
+            leader();
+        }
+    }
+
+    static void leader() {
+        try (var replicator = QueueReplicator.of(Fight1_App.QUEUE_PATH, ADDRESS)) {
+            Yielder yielder = Yielder.ofAdaptive();
+            long reportAt = System.nanoTime();
+            for (;;) {
+                if (replicator.poll() > 0) {
+                    yielder.reset();
+                } else {
+                    yielder.yield();
+                }
+                if (System.nanoTime() - reportAt > 0) {
+                    System.out.println("lag = " + replicator.lagBytes() + " bytes, " +
+                            TimeUnit.NANOSECONDS.toMicros(replicator.lagNanos()) + " us");
+                    reportAt += TimeUnit.SECONDS.toNanos(1);
+                }
+            }
+        }
+    }
+
+    static void follower() {
+        try {
+            Files.createDirectories(REPLICA_PATH.getParent());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try (var follower = QueueFollower.of(REPLICA_PATH, ADDRESS)) {
+            Thread consumer = null;
+            Yielder yielder = Yielder.ofAdaptive();
+            for (;;) {
+                if (follower.poll() > 0) {
+                    yielder.reset();
+                } else {
+                    yielder.yield();
+                }
+                if (consumer == null && Files.exists(REPLICA_PATH)) {
+                    // The replica is read like any other queue
+                    consumer = Thread.ofVirtual().name("replica consumer").start(() -> {
+                        try (var c = QueueConsumer.of(MARKET_INFO_RECORD_MAPPER, REPLICA_PATH)) {
+                            Yielder y = c.yielder();
+                            for (;;) {
+                                c.next().ifPresentOrElse(mi -> {
+                                    Fight1_App.onRead(mi);
+                                    y.reset();
+                                }, y::yield);
+                            }
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,238 @@
+package org.minborg.panamadojo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.MemoryLayout.paddingLayout;
+import static java.lang.foreign.MemoryLayout.structLayout;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The header at the start of each queue file.
+ * <p>
+ * Producers claim space for their entries by atomically adding to the {@code tail}
+ * so that appending is a single {@code getAndAdd} regardless of the number of
+ * producers (threads or JVMs).
+ */
+final class FileHeader {
+
+    private FileHeader() {}
+
+    // QUEUE FILE:
+    // FILE_HEADER, HEADER, PAYLOAD, HEADER, PAYLOAD, ...
+
+    static final StructLayout FILE_HEADER = structLayout(
+            Util.JAVA_LONG_LE.withName("magic"),
+            Util.JAVA_INT_LE.withName("version"),
+            Util.JAVA_INT_LE.withName("slotSize"),  // HEADER + payload
+            Util.JAVA_LONG_LE.withName("baseIndex"), // Number of entries in previous files
+            Util.JAVA_LONG_LE.withName("tail"),      // Claimed bytes after the FILE_HEADER
+            Util.JAVA_LONG_LE.withName("limit"),     // Claims beyond the limit go to the next file
+            Util.JAVA_LONG_LE.withName("end"),       // Position of the ROLLED slot or -1
+            Util.JAVA_LONG_LE.withName("sequence"),  // Bumped by producers after publishing
+            paddingLayout(8)                          // Keep entries off the tail's cache line
+    ).withName("FileHeader");
+
+    static final long MAGIC = 0x512D_414D_414E_4150L; // "PANAMA-Q" in little endian
+    // Bumped whenever the FILE_HEADER or the slot layout changes:
+    // 1: magic, version, slotSize, baseIndex, tail
+    // 2: limit and end for rolling files
+    // 3: sequence for waiting consumers
+    static final int VERSION = 3;
+
+    static final long SIZE = FILE_HEADER.byteSize();
+
+    private static final VarHandle VERSION_HANDLE = handle("version");
+    private static final VarHandle SLOT_SIZE_HANDLE = handle("slotSize");
+    private static final VarHandle BASE_INDEX_HANDLE = handle("baseIndex");
+    private static final VarHandle LIMIT_HANDLE = handle("limit");
+
+    // https://bugs.openjdk.org/browse/JDK-8331734
+
+    private static final VarHandle LONG = Util.JAVA_LONG_LE.varHandle();
+    private static final long MAGIC_OFFSET = FILE_HEADER.byteOffset(groupElement("magic"));
+    private static final long TAIL_OFFSET = FILE_HEADER.byteOffset(groupElement("tail"));
+    private static final long END_OFFSET = FILE_HEADER.byteOffset(groupElement("end"));
+    private static final long SEQUENCE_OFFSET = FILE_HEADER.byteOffset(groupElement("sequence"));
+
+    /**
+     * Initializes the provided {@code header} unless it already is initialized.
+     *
+     * @param header    to initialize
+     * @param slotSize  of the entries in the file
+     * @param baseIndex the number of entries in previous files
+     * @param limit     the number of bytes after the header that can be claimed
+     * @throws IllegalStateException if the header belongs to another kind of file
+     */
+    static void init(MemorySegment header, int slotSize, long baseIndex, long limit) {
+        if ((long) LONG.getVolatile(header, MAGIC_OFFSET) == 0) {
+            VERSION_HANDLE.set(header, 0L, VERSION);
+            SLOT_SIZE_HANDLE.set(header, 0L, slotSize);
+            BASE_INDEX_HANDLE.set(header, 0L, baseIndex);
+            LIMIT_HANDLE.set(header, 0L, limit);
+            LONG.set(header, END_OFFSET, -1L);
+            // Publishes the fields above. Losing the race is fine as all write the same
+            LONG.compareAndSet(header, MAGIC_OFFSET, 0L, MAGIC);
+        }
+        check(header, slotSize);
+    }
+
+    /**
+     * {@return if the provided {@code header} is initialized}
+     *
+     * @param header   to check
+     * @param slotSize of the entries in the file
+     * @throws IllegalStateException if the header belongs to another kind of file or
+     *                               to another version of queue files
+     */
+    static boolean check(MemorySegment header, int slotSize) {
+        long magic = (long) LONG.getVolatile(header, MAGIC_OFFSET);
+        if (magic == 0) {
+            return false;
+        }
+        if (magic != MAGIC) {
+            throw new IllegalStateException("Not a queue file: " + Util.toHex(header));
+        }
+        if ((int) VERSION_HANDLE.get(header, 0L) != VERSION) {
+            throw new IllegalStateException("Unsupported queue file version: " +
+                    VERSION_HANDLE.get(header, 0L) + " != " + VERSION);
+        }
+        if ((int) SLOT_SIZE_HANDLE.get(header, 0L) != slotSize) {
+            throw new IllegalStateException("Slot size mismatch: " +
+                    SLOT_SIZE_HANDLE.get(header, 0L) + " != " + slotSize);
+        }
+        return true;
+    }
+
+    static boolean isInitialized(MemorySegment header) {
+        return (long) LONG.getVolatile(header, MAGIC_OFFSET) != 0;
+    }
+
+    static int slotSize(MemorySegment header) {
+        return (int) SLOT_SIZE_HANDLE.get(header, 0L);
+    }
+
+    static long baseIndex(MemorySegment header) {
+        return (long) BASE_INDEX_HANDLE.get(header, 0L);
+    }
+
+    static long limit(MemorySegment header) {
+        return (long) LIMIT_HANDLE.get(header, 0L);
+    }
+
+    /**
+     * {@return the position (relative to the end of the header) of {@code size}
+     *          newly claimed bytes}
+     *
+     * @param header to claim from
+     * @param size   to claim
+     */
+    static long claim(MemorySegment header, long size) {
+        // Works across all threads/JVMs on the same machine
+        return (long) LONG.getAndAdd(header, TAIL_OFFSET, size);
+    }
+
+    static long tail(MemorySegment header) {
+        return (long) LONG.getVolatile(header, TAIL_OFFSET);
+    }
+
+    /**
+     * Records that the file ends at the provided {@code claim}. Must be called by the
+     * producer making the claim that crosses the limit before anything else.
+     *
+     * @param header to update
+     * @param claim  that crossed the limit
+     */
+    static void end(MemorySegment header, long claim) {
+        LONG.setRelease(header, END_OFFSET, claim);
+    }
+
+    /**
+     * {@return the position (relative to the end of the header) after the last
+     *          claimed entry, which is also where the ROLLED slot is if the file has ended}
+     *
+     * @param header to read
+     */
+    static long end(MemorySegment header) {
+        long tail = tail(header);
+        if (tail <= limit(header)) {
+            return tail;
+        }
+        long end;
+        while ((end = (long) LONG.getAcquire(header, END_OFFSET)) < 0) {
+            // The producer that ended the file has not recorded it yet
+            Thread.onSpinWait();
+        }
+        return end;
+    }
+
+    /**
+     * {@return the position recorded by {@link #end(MemorySegment, long)} or -1 if
+     *          the file has not ended}
+     *
+     * @param header to read
+     */
+    static long recordedEnd(MemorySegment header) {
+        return (long) LONG.getAcquire(header, END_OFFSET);
+    }
+
+    /**
+     * Bumps the sequence of the provided {@code header} so that consumers about to
+     * wait can see that something was published.
+     * <p>
+     * The tail is on the same cache line, so this is cheap for producers that just
+     * claimed. Being a full fence, it also orders the preceding publication before
+     * any subsequent check for waiting consumers.
+     *
+     * @param header to signal
+     */
+    static void signal(MemorySegment header) {
+        LONG.getAndAdd(header, SEQUENCE_OFFSET, 1L);
+    }
+
+    static long sequence(MemorySegment header) {
+        return (long) LONG.getVolatile(header, SEQUENCE_OFFSET);
+    }
+
+    /**
+     * Atomically creates a new queue file with an initialized header so that no
+     * producer can ever see the file before its {@code baseIndex} is set.
+     *
+     * @param path      of the new file
+     * @param slotSize  of the entries in the file
+     * @param baseIndex the number of entries in previous files
+     * @param limit     the number of bytes after the header that can be claimed
+     */
+    static void create(Path path, int slotSize, long baseIndex, long limit) {
+        if (Files.exists(path)) {
+            return;
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var fc = FileChannel.open(tmp, CREATE, SPARSE, READ, WRITE);
+             var arena = Arena.ofConfined()) {
+            init(fc.map(READ_WRITE, 0L, SIZE, arena), slotSize, baseIndex, limit);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(tmp, path, ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static VarHandle handle(String name) {
+        return FILE_HEADER.varHandle(groupElement(name));
+    }
+
+}
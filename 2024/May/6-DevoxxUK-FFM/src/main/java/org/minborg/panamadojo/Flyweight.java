@@ -0,0 +1,82 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.util.function.Supplier;
+
+/**
+ * A reusable view of some memory described by a layout.
+ * <p>
+ * A flyweight can be repositioned over new memory at any time so a single instance
+ * can be used to read an unbounded number of elements without allocating.
+ * <p>
+ * Instead of writing a flyweight like {@link MarketInfoFlyweight} by hand, declare an
+ * interface with the getters and setters and let one be generated:
+ * <pre>{@code
+ * interface MarketInfoView extends MarketInfo, MarketInfoUpdater, Flyweight {}
+ *
+ * MarketInfoView view = Flyweight.of(MarketInfoView.class, Util.MARKET_INFO);
+ * long sum = 0;
+ * for (long offset = 0; offset < segment.byteSize(); offset += view.layout().byteSize()) {
+ *     view.rebase(segment, offset);
+ *     sum += view.last();
+ * }
+ * }</pre>
+ */
+public interface Flyweight {
+
+    /**
+     * {@return the layout of the memory viewed}
+     */
+    MemoryLayout layout();
+
+    /**
+     * Repositions this flyweight so that it views the provided {@code segment}
+     * starting at the provided {@code offset}.
+     *
+     * @param segment to view
+     * @param offset  in the segment
+     */
+    void rebase(MemorySegment segment, long offset);
+
+    /**
+     * {@return a new flyweight implementing the provided interface over memory with the
+     *          provided {@code layout}}
+     * <p>
+     * The flyweight initially views {@link MemorySegment#NULL} and must be
+     * {@linkplain #rebase(MemorySegment, long) rebased} before it is used. Use
+     * {@link #factory(Class, MemoryLayout)} to create several flyweights of the same
+     * class.
+     *
+     * @param type   an interface with getters {@code x()} and setters {@code x(value)} for
+     *               elements named "x" in the layout
+     * @param layout of the memory
+     * @param <T>    flyweight type
+     * @throws IllegalArgumentException if a method has no element of the same name and type
+     */
+    static <T extends Flyweight> T of(Class<T> type, MemoryLayout layout) {
+        return factory(type, layout).get();
+    }
+
+    /**
+     * {@return a factory of new flyweights implementing the provided interface over
+     *          memory with the provided {@code layout}}
+     * <p>
+     * The flyweights are instances of a hidden class generated once by this method.
+     * Each getter and setter reads and writes its element via a {@code static final}
+     * var handle at the current offset. So, the JIT compiles it to the same code as a
+     * hand-written flyweight like {@link MarketInfoFlyweight}. The generated class
+     * does not override {@code equals}, {@code hashCode} or {@code toString}.
+     *
+     * @param type   an interface with getters {@code x()} and setters {@code x(value)} for
+     *               elements named "x" in the layout
+     * @param layout of the memory
+     * @param <T>    flyweight type
+     * @throws IllegalArgumentException if a method has no element of the same name and type
+     * @see #of(Class, MemoryLayout)
+     */
+    static <T extends Flyweight> Supplier<T> factory(Class<T> type, MemoryLayout layout) {
+        return FlyweightGenerator.generate(type, layout);
+    }
+
+}
@@ -0,0 +1,217 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.GroupLayout;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.invoke.MethodHandles.Lookup.ClassOption.NESTMATE;
+import static org.minborg.panamadojo.ClassFile.*;
+
+/**
+ * Generates {@link Flyweight} implementations of interfaces as hidden classes.
+ * <p>
+ * For an interface {@code V extends Flyweight} with a getter {@code long a()} and a
+ * setter {@code void a(long a)}, the generated class is equivalent to:
+ * <pre>{@code
+ * final class V$Flyweight implements V {
+ *     static final VarHandle H0 = ...; // layout.varHandle(groupElement("a"))
+ *     static final MemoryLayout LAYOUT = ...;
+ *
+ *     private MemorySegment segment = MemorySegment.NULL;
+ *     private long offset;
+ *
+ *     public long a() {
+ *         return (long) H0.get(segment, offset);
+ *     }
+ *
+ *     public void a(long a) {
+ *         H0.set(segment, offset, a);
+ *     }
+ *
+ *     public void rebase(MemorySegment segment, long offset) {
+ *         this.segment = segment;
+ *         this.offset = offset;
+ *     }
+ *
+ *     public MemoryLayout layout() {
+ *         return LAYOUT;
+ *     }
+ * }
+ * }</pre>
+ * which is what {@link MarketInfoFlyweight} looks like. As for {@link MapperGenerator},
+ * the var handles are passed as class data so the JIT sees them as constants.
+ */
+final class FlyweightGenerator {
+
+    private FlyweightGenerator() {}
+
+    private static final String VAR_HANDLE = "java/lang/invoke/VarHandle";
+    private static final String SEGMENT = MemorySegment.class.descriptorString();
+    private static final String LAYOUT = MemoryLayout.class.descriptorString();
+
+    static <T extends Flyweight> Supplier<T> generate(Class<T> type, MemoryLayout layout) {
+        if (!type.isInterface()) {
+            throw new IllegalArgumentException("Not an interface: " + type);
+        }
+        if (!(layout instanceof GroupLayout group)) {
+            throw new IllegalArgumentException("Not a group: " + layout);
+        }
+        // Element name -> index of its var handle
+        Map<String, Integer> elements = new LinkedHashMap<>();
+        List<Method> accessors = new ArrayList<>();
+        for (Method method : accessors(type)) {
+            String name = method.getName();
+            Class<?> carrier = method.getParameterCount() == 0 ? method.getReturnType() : method.getParameterTypes()[0];
+            boolean getter = method.getParameterCount() == 0 && carrier != void.class;
+            boolean setter = method.getParameterCount() == 1 && method.getReturnType() == void.class;
+            if (!(getter || setter)) {
+                throw new IllegalArgumentException("Not a getter or a setter: " + method);
+            }
+            MemoryLayout element = group.memberLayouts().stream()
+                    .filter(m -> m.name().orElse("").equals(name))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException(
+                            "No element named " + name + " in " + layout + " for " + method));
+            if (!(element instanceof ValueLayout value) || value.carrier() != carrier) {
+                throw new IllegalArgumentException("Type mismatch: " + method + " and " + element);
+            }
+            elements.putIfAbsent(name, elements.size());
+            accessors.add(method);
+        }
+        List<Object> classData = new ArrayList<>();
+        for (String name : elements.keySet()) {
+            classData.add(group.varHandle(groupElement(name)));
+        }
+        classData.add(layout);
+        MethodHandles.Lookup lookup;
+        try {
+            // Interfaces are often package private or nested
+            lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to access " + type, e);
+        }
+        MethodHandle constructor;
+        try {
+            MethodHandles.Lookup hidden = lookup.defineHiddenClassWithClassData(
+                    classFile(type, accessors, elements), List.copyOf(classData), true, NESTMATE);
+            constructor = hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Flyweight.class));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Unable to generate a flyweight for " + type, t);
+        }
+        return () -> {
+            try {
+                return type.cast((Flyweight) constructor.invokeExact());
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        };
+    }
+
+    // The abstract methods to implement except those of Flyweight and Object
+    private static List<Method> accessors(Class<?> type) {
+        Map<String, Method> methods = new LinkedHashMap<>();
+        for (Method method : type.getMethods()) {
+            if (!Modifier.isAbstract(method.getModifiers()) || isImplemented(method)) {
+                continue;
+            }
+            methods.putIfAbsent(method.getName() + MethodType.methodType(method.getReturnType(),
+                    method.getParameterTypes()).toMethodDescriptorString(), method);
+        }
+        return List.copyOf(methods.values());
+    }
+
+    private static boolean isImplemented(Method method) {
+        for (Class<?> type : List.of(Flyweight.class, Object.class)) {
+            try {
+                type.getMethod(method.getName(), method.getParameterTypes());
+                return true;
+            } catch (NoSuchMethodException ignored) {
+                // Try the next type
+            }
+        }
+        return false;
+    }
+
+    private static byte[] classFile(Class<?> type, List<Method> accessors, Map<String, Integer> elements) {
+        ClassFile classFile = new ClassFile(internalName(type) + "$Flyweight", internalName(type));
+        ClassFile.ConstantPool cp = classFile.constants();
+
+        // Fields
+        int[] fields = new int[elements.size() + 1];
+        String[] types = new String[fields.length];
+        for (int i = 0; i < elements.size(); i++) {
+            fields[i] = classFile.field(ACC_STATIC | ACC_FINAL, "H" + i, "L" + VAR_HANDLE + ";");
+            types[i] = VAR_HANDLE;
+        }
+        int layout = classFile.field(ACC_STATIC | ACC_FINAL, "LAYOUT", LAYOUT);
+        fields[elements.size()] = layout;
+        types[elements.size()] = internalName(MemoryLayout.class);
+        int segment = classFile.field(ACC_PRIVATE, "segment", SEGMENT);
+        int offset = classFile.field(ACC_PRIVATE, "offset", "J");
+
+        // <clinit>()V
+        classFile.classDataInitializer(fields, types);
+
+        // <init>()V
+        classFile.method(ACC_PUBLIC, "<init>", "()V", 2, 1)
+                .op(ALOAD_0).op(INVOKESPECIAL).u2(cp.methodRef(classFile.superClass(), "<init>", "()V"))
+                .op(ALOAD_0)
+                .op(GETSTATIC).u2(cp.fieldRef(cp.classInfo(internalName(MemorySegment.class)), "NULL", SEGMENT))
+                .op(PUTFIELD).u2(segment)
+                .op(RETURN);
+
+        // rebase(MemorySegment, long)V
+        classFile.method(ACC_PUBLIC | ACC_FINAL, "rebase", "(" + SEGMENT + "J)V", 3, 4)
+                .op(ALOAD_0).op(ALOAD_1).op(PUTFIELD).u2(segment)
+                .op(ALOAD_0).op(LLOAD_2).op(PUTFIELD).u2(offset)
+                .op(RETURN);
+
+        // layout()MemoryLayout
+        classFile.method(ACC_PUBLIC | ACC_FINAL, "layout", "()" + LAYOUT, 1, 1)
+                .op(GETSTATIC).u2(layout).op(ARETURN);
+
+        // Getters and setters
+        for (Method accessor : accessors) {
+            String descriptor = MethodType.methodType(accessor.getReturnType(), accessor.getParameterTypes())
+                    .toMethodDescriptorString();
+            boolean getter = accessor.getParameterCount() == 0;
+            Class<?> carrier = getter ? accessor.getReturnType() : accessor.getParameterTypes()[0];
+            int handle = fields[elements.get(accessor.getName())];
+            ClassFile.Method method = classFile.method(ACC_PUBLIC | ACC_FINAL, accessor.getName(), descriptor,
+                    4 + slots(carrier), 1 + (getter ? 0 : slots(carrier)));
+            method.op(GETSTATIC).u2(handle)
+                    .op(ALOAD_0).op(GETFIELD).u2(segment)
+                    .op(ALOAD_0).op(GETFIELD).u2(offset);
+            if (getter) {
+                method.op(INVOKEVIRTUAL).u2(cp.methodRef(cp.classInfo(VAR_HANDLE), "get",
+                                "(" + SEGMENT + "J)" + carrier.descriptorString()))
+                        .op(returnOf(carrier));
+            } else {
+                method.op(load1(carrier))
+                        .op(INVOKEVIRTUAL).u2(cp.methodRef(cp.classInfo(VAR_HANDLE), "set",
+                                "(" + SEGMENT + "J" + carrier.descriptorString() + ")V"))
+                        .op(RETURN);
+            }
+        }
+
+        return classFile.toByteArray();
+    }
+
+}
@@ -0,0 +1,262 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntPredicate;
+
+import static org.minborg.panamadojo.Kata5_AtomicOperations.*;
+
+/**
+ * A consumer of the frames appended by a {@link FrameProducer}.
+ * <p>
+ * Frames of types that are of no interest can be skipped using only the length
+ * in their header, without touching the payload.
+ */
+public interface FrameConsumer extends AutoCloseable {
+
+    @FunctionalInterface
+    interface Handler {
+
+        /**
+         * Handles a frame. The provided {@code payload} must only be used during
+         * the call and must be copied if it is to be retained.
+         *
+         * @param type    of the frame
+         * @param payload of the frame
+         */
+        void onFrame(int type, MemorySegment payload);
+    }
+
+    /**
+     * {@return the type of the next frame or -1 if there is no next frame (yet)}
+     */
+    int peekType();
+
+    /**
+     * Moves past the next frame, if any, without reading its payload.
+     *
+     * @return if a frame was skipped
+     */
+    boolean skip();
+
+    /**
+     * Passes the next frame, if any, to the provided {@code handler}.
+     *
+     * @param handler of the frame
+     * @return if a frame was read
+     */
+    boolean next(Handler handler);
+
+    /**
+     * Passes every completed frame with a type accepted by the provided
+     * {@code types} to the provided {@code handler} in order and skips the others.
+     * At most {@code max} frames, including skipped ones, are visited.
+     *
+     * @param types   to pass to the handler
+     * @param handler of the frames
+     * @param max     number of frames to visit
+     * @return the number of frames passed to the handler
+     */
+    int drainTo(IntPredicate types, Handler handler, int max);
+
+    /**
+     * Positions this consumer at the end of the queue so that only frames appended
+     * after this call will be read.
+     */
+    void seekToEnd();
+
+    /**
+     * {@return a new adaptive yielder for this consumer that, once done spinning and
+     *          yielding, parks until a producer in this JVM appends a frame}
+     *
+     * @see QueueConsumer#yielder()
+     */
+    Yielder yielder();
+
+    @Override
+    void close();
+
+    static FrameConsumer of(Path path) {
+        return new Impl(QueueFiles.of(path));
+    }
+
+    /**
+     * {@return a new consumer that reads all the files in the provided {@code directory}
+     *          written by a {@linkplain FrameProducer#ofRolling rolling producer},
+     *          starting with the oldest file}
+     *
+     * @param directory holding the files
+     * @param cycle     used by the producer
+     */
+    static FrameConsumer ofRolling(Path directory, RollCycle cycle) {
+        return new Impl(QueueFiles.ofRolling(directory, cycle, Long.MAX_VALUE));
+    }
+
+    final class Impl implements FrameConsumer {
+
+        private final QueueFiles files;
+        private final Notifier notifier;
+        private MappedFile file;     // mmap:ed in chunks
+        private MemorySegment chunk; // Holds the latest frame
+        private MemorySegment head;  // The FILE_HEADER of the file or null if not checked
+        private long position;
+
+        public Impl(QueueFiles files) {
+            this.files = files;
+            this.notifier = Notifier.of(files.location());
+            open(files.first());
+        }
+
+        @Override
+        public int peekType() {
+            long offset = peek();
+            return offset < 0
+                    ? -1
+                    : FrameHeader.type(chunk, offset);
+        }
+
+        @Override
+        public boolean skip() {
+            long offset = peek();
+            if (offset < 0) {
+                return false;
+            }
+            position += FrameHeader.frameSize(FrameHeader.length(chunk, offset));
+            return true;
+        }
+
+        @Override
+        public boolean next(Handler handler) {
+            long offset = peek();
+            if (offset < 0) {
+                return false;
+            }
+            handle(offset, handler);
+            return true;
+        }
+
+        @Override
+        public int drainTo(IntPredicate types, Handler handler, int max) {
+            int count = 0;
+            long offset;
+            for (int i = 0; i < max && (offset = peek()) >= 0; i++) {
+                if (types.test(FrameHeader.type(chunk, offset))) {
+                    handle(offset, handler);
+                    count++;
+                } else {
+                    position += FrameHeader.frameSize(FrameHeader.length(chunk, offset));
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public void seekToEnd() {
+            List<Path> all = files.all();
+            if (!all.isEmpty()) {
+                open(all.getLast());
+                if (check()) {
+                    position = FileHeader.SIZE + FileHeader.end(head);
+                }
+            }
+        }
+
+        @Override
+        public Yielder yielder() {
+            return new AdaptiveYielder(1_000, 100,
+                    TimeUnit.MICROSECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(10),
+                    this::await);
+        }
+
+        @Override
+        public void close() {
+            file.close();
+        }
+
+        private void handle(long offset, Handler handler) {
+            int length = FrameHeader.length(chunk, offset);
+            long size = FrameHeader.frameSize(length);
+            // The chunk is only guaranteed to cover the frame header
+            MemorySegment frameChunk = file.chunkAt(position, size);
+            position += size;
+            handler.onFrame(FrameHeader.type(frameChunk, offset),
+                    frameChunk.asSlice(offset + FrameHeader.SIZE, length));
+        }
+
+        // Returns the offset in chunk of the next completed frame or else -1
+        private long peek() {
+            for (;;) {
+                if (head == null && !check()) {
+                    return -1; // The producer has not initialized the file yet
+                }
+                MemorySegment chunk = file.chunkAt(position, FrameHeader.SIZE);
+                if (chunk == null) {
+                    return -1; // The producer has not reached this far
+                }
+                long offset = MappedFile.offsetInChunk(position);
+                int flags = Header.flags(chunk, offset); // HB
+                if ((flags & Header.COMPLETED) != 0) {
+                    this.chunk = chunk;
+                    return offset;
+                }
+                if ((flags & Header.ABORTED) != 0) {
+                    // Abandoned by its producer
+                    position += FrameHeader.frameSize(FrameHeader.length(chunk, offset));
+                    continue;
+                }
+                if ((flags & Header.ROLLED) == 0) {
+                    return -1;
+                }
+                // Continue with the next file once it is there
+                Optional<Path> following = files.following(file.path());
+                if (following.isEmpty()) {
+                    return -1;
+                }
+                open(following.get());
+            }
+        }
+
+        private void await(long nanos) {
+            MemorySegment head = this.head;
+            if (head == null) {
+                // No sequence to wait for until the file is initialized
+                LockSupport.parkNanos(nanos);
+                return;
+            }
+            long observed = FileHeader.sequence(head);
+            MemorySegment chunk = file.chunkAt(position, FrameHeader.SIZE);
+            boolean available = chunk != null &&
+                    (Header.flags(chunk, MappedFile.offsetInChunk(position)) &
+                            (Header.COMPLETED | Header.ROLLED | Header.ABORTED)) != 0;
+            if (!available) {
+                notifier.await(() -> FileHeader.sequence(head), observed, nanos);
+            }
+        }
+
+        private void open(Path path) {
+            if (file != null) {
+                file.close();
+            }
+            file = MappedFile.ofReadOnly(path);
+            head = null;
+            position = 0;
+        }
+
+        // Positions the consumer at the first frame if the FILE_HEADER is initialized
+        private boolean check() {
+            MemorySegment candidate = file.prefix(FileHeader.SIZE);
+            if (candidate == null || !FileHeader.check(candidate, QueueAppender.VARIABLE)) {
+                return false;
+            }
+            head = candidate;
+            position = FileHeader.SIZE;
+            return true;
+        }
+
+    }
+
+}
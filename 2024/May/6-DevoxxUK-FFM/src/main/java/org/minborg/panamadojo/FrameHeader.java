@@ -0,0 +1,68 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.MemoryLayout.paddingLayout;
+import static java.lang.foreign.MemoryLayout.structLayout;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * The header in front of each entry in a queue file with variable-length entries.
+ * <p>
+ * The {@code flags} are the same as in the fixed size {@code HEADER} so frames are
+ * acquired, completed and rolled in the same way. The {@code length} allows readers
+ * to skip frames of types they are not interested in without reading the payload.
+ */
+final class FrameHeader {
+
+    private FrameHeader() {}
+
+    // VARIABLE QUEUE FILE:
+    // FILE_HEADER, FRAME_HEADER, PAYLOAD, (padding), FRAME_HEADER, PAYLOAD, (padding), ...
+
+    static final StructLayout FRAME_HEADER = structLayout(
+            Util.JAVA_INT_LE.withName("flags"),  // As in HEADER
+            Util.JAVA_INT_LE.withName("type"),   // Chosen by the producer, >= 0
+            Util.JAVA_INT_LE.withName("length"), // Payload bytes, excluding padding
+            paddingLayout(4)
+    ).withName("FrameHeader").withByteAlignment(JAVA_LONG.byteAlignment());
+
+    static final long SIZE = FRAME_HEADER.byteSize();
+    static final long ALIGNMENT = JAVA_LONG.byteSize(); // Frames start 8-byte aligned
+
+    static final long MAX_LENGTH = MappedFile.OVERLAP - SIZE;
+
+    // https://bugs.openjdk.org/browse/JDK-8331734
+
+    private static final VarHandle INT = Util.JAVA_INT_LE.varHandle();
+    private static final long TYPE_OFFSET = FRAME_HEADER.byteOffset(groupElement("type"));
+    private static final long LENGTH_OFFSET = FRAME_HEADER.byteOffset(groupElement("length"));
+
+    /**
+     * {@return the number of bytes occupied by a frame with a payload of the
+     *          provided {@code length}, including the header and padding}
+     *
+     * @param length of the payload
+     */
+    static long frameSize(long length) {
+        return (SIZE + length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    static int type(MemorySegment segment, long offset) {
+        return (int) INT.get(segment, offset + TYPE_OFFSET);
+    }
+
+    static int length(MemorySegment segment, long offset) {
+        return (int) INT.get(segment, offset + LENGTH_OFFSET);
+    }
+
+    // Only to be called for frames exclusively claimed by a producer
+    static void set(MemorySegment segment, long offset, int type, int length) {
+        INT.set(segment, offset + TYPE_OFFSET, type);
+        INT.set(segment, offset + LENGTH_OFFSET, length);
+    }
+
+}
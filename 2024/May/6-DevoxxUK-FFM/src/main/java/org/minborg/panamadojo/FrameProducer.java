@@ -0,0 +1,121 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import static org.minborg.panamadojo.Kata5_AtomicOperations.*;
+
+/**
+ * A producer of variable-length entries (frames), such as order book snapshots
+ * and text alerts, each tagged with a type.
+ * <p>
+ * Each frame is 8-byte aligned and preceded by a header holding its type and
+ * length. Frames are published with the same acquire/complete protocol as
+ * fixed size entries.
+ */
+public interface FrameProducer extends AutoCloseable {
+
+    /**
+     * The max length of a payload in bytes.
+     */
+    long MAX_LENGTH = FrameHeader.MAX_LENGTH;
+
+    /**
+     * Appends a frame with a copy of the provided {@code payload}.
+     *
+     * @param type    of the frame
+     * @param payload to copy
+     * @throws IllegalArgumentException if the type is negative or the payload is
+     *                                  larger than {@link #MAX_LENGTH}
+     */
+    void append(int type, MemorySegment payload);
+
+    /**
+     * Appends a frame of the provided {@code length} and lets the provided
+     * {@code writer} write the payload directly into the queue.
+     * <p>
+     * The segment passed to the writer must not be used after the writer returns.
+     *
+     * @param type   of the frame
+     * @param length of the payload
+     * @param writer of the payload
+     * @throws IllegalArgumentException if the type is negative or the length is
+     *                                  larger than {@link #MAX_LENGTH}
+     */
+    void append(int type, long length, Consumer<? super MemorySegment> writer);
+
+    @Override
+    void close();
+
+    static FrameProducer of(Path path) {
+        return new Impl(QueueFiles.of(path));
+    }
+
+    /**
+     * {@return a new producer that appends to a new file in the provided
+     *          {@code directory} for each cycle or when a file has reached
+     *          {@code maxFileSize} bytes}
+     *
+     * @param directory   to hold the files
+     * @param cycle       determining when to start a new file
+     * @param maxFileSize the size in bytes at which a new file is started
+     */
+    static FrameProducer ofRolling(Path directory,
+                                   RollCycle cycle,
+                                   long maxFileSize) {
+        return new Impl(QueueFiles.ofRolling(directory, cycle, maxFileSize));
+    }
+
+    final class Impl implements FrameProducer {
+
+        private final QueueAppender appender;
+
+        public Impl(QueueFiles files) {
+            this.appender = new QueueAppender(files, QueueAppender.VARIABLE,
+                    FrameHeader.frameSize(MAX_LENGTH));
+        }
+
+        @Override
+        public void append(int type, MemorySegment payload) {
+            append(type, payload.byteSize(), s ->
+                    MemorySegment.copy(payload, 0, s, 0, payload.byteSize()));
+        }
+
+        @Override
+        public void append(int type, long length, Consumer<? super MemorySegment> writer) {
+            if (type < 0 || length < 0 || length > MAX_LENGTH) {
+                throw new IllegalArgumentException("Invalid frame: " + type + ", " + length);
+            }
+            long size = FrameHeader.frameSize(length);
+            long position = appender.claim(size);
+            MemorySegment chunk = appender.chunkAt(position, size);
+            long offset = MappedFile.offsetInChunk(position);
+            int acquired = appender.acquired();
+            // The frame is ours alone. The length is set first so that the frame can
+            // be skipped should this producer die.
+            FrameHeader.set(chunk, offset, type, (int) length);
+            if (!Header.acquire(chunk, offset, acquired)) {
+                throw new IllegalStateException("Frame aborted at " + position);
+            }
+            try {
+                writer.accept(chunk.asSlice(offset + FrameHeader.SIZE, length));
+            } catch (RuntimeException | Error e) {
+                Header.abort(chunk, offset, acquired);
+                appender.signal();
+                throw e;
+            }
+            if (!Header.complete(chunk, offset, acquired)) { // HB
+                throw new IllegalStateException("Frame aborted at " + position);
+            }
+            appender.signal();
+        }
+
+        @Override
+        public void close() {
+            appender.close();
+        }
+
+    }
+
+}
@@ -24,27 +24,42 @@ public class Kata2_RecordMapper {
 
         @Override
         public MarketInfoRecord get(MemorySegment s) {
-            return new MarketInfoRecord(
-                    (long) Util.TIME.get(s, 0L),
-                    (int) Util.SYMBOL.get(s, 0L),
-                    (int) Util.HIGH.get(s, 0L),
-                    (int) Util.LAST.get(s, 0L),
-                    (int) Util.LOW.get(s, 0L));
+            return get(s, 0L);
         }
 
         @Override
         public void set(MemorySegment s, MarketInfoRecord v) {
-            Util.TIME.set(s, 0L, v.time());
-            Util.SYMBOL.set(s, 0L, v.symbol());
-            Util.HIGH.set(s, 0L, v.high());
-            Util.LAST.set(s, 0L, v.last());
-            Util.LOW.set(s, 0L, v.low());
+            set(s, 0L, v);
+        }
+
+        @Override
+        public MarketInfoRecord get(MemorySegment s, long o) {
+            return new MarketInfoRecord(
+                    (long) Util.TIME.get(s, o),
+                    (int) Util.SYMBOL.get(s, o),
+                    (int) Util.HIGH.get(s, o),
+                    (int) Util.LAST.get(s, o),
+                    (int) Util.LOW.get(s, o));
+        }
+
+        @Override
+        public void set(MemorySegment s, long o, MarketInfoRecord v) {
+            Util.TIME.set(s, o, v.time());
+            Util.SYMBOL.set(s, o, v.symbol());
+            Util.HIGH.set(s, o, v.high());
+            Util.LAST.set(s, o, v.last());
+            Util.LOW.set(s, o, v.low());
         }
 
         @Override
         public MemoryLayout layout() {
             return Util.MARKET_INFO;
         }
+
+        @Override
+        public Class<MarketInfoRecord> recordType() {
+            return MarketInfoRecord.class;
+        }
     };
 
     public static void main(String[] args) {
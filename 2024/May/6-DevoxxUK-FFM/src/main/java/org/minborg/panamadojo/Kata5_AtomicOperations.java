@@ -19,14 +19,18 @@ public class Kata5_AtomicOperations {
     static final StructLayout HEADER = MemoryLayout.structLayout(
             // "flags" have "mutex" bits:
             // 7 6 5 4 3 2 1 0  15 14 13 12 11 10 9 8  16 17 ...
-            // ^ ^
-            // | |
+            // ^ ^ ^ ^            |                 |  |
+            // | | | |            +-- Owner id -----+  +-- Owner generation ...
+            // | | | +-- Aborted (the owner died before completing the slot)
+            // | | +-- Rolled (the queue continues in the next file)
             // | +-- Completed
             // +-- Acquired
             //
             // A) 0 -> Free,
             // B) 0x80 -> Acquired,
             // C) 0xC0 -> Acquired and Completed
+            // D) 0xA0 -> Acquired and Rolled
+            // E) 0x90 -> Acquired and Aborted
             Util.JAVA_INT_LE.withName("flags"),
             Util.JAVA_INT_LE.withName("index")
     ).withByteAlignment(JAVA_LONG.byteAlignment()); // We want this to be long-aligned
@@ -36,6 +40,8 @@ public class Kata5_AtomicOperations {
         static final int FREE = 0;           // 0x00
         static final int ACQUIRED = 1 << 7;  // 0x80
         static final int COMPLETED = 1 << 6; // 0x40
+        static final int ROLLED = 1 << 5;    // 0x20
+        static final int ABORTED = 1 << 4;   // 0x10
 
         // https://bugs.openjdk.org/browse/JDK-8331734
 
@@ -67,6 +73,19 @@ public class Kata5_AtomicOperations {
             // FLAGS.getAndBitwiseOr(...)
         }
 
+        public boolean roll() {
+            // Marks the end of a file in a single step
+            return FLAGS.compareAndSet(segment, 0L, FREE, ACQUIRED | ROLLED);
+        }
+
+        public int flags() {
+            return (int) FLAGS.getVolatile(segment, 0L);
+        }
+
+        public boolean isRolled() {
+            return (((int) FLAGS.getVolatile(segment, 0L)) & ROLLED) != 0;
+        }
+
         public boolean isCompleted() {
             return (((int) FLAGS.getVolatile(segment, 0L)) & COMPLETED) != 0;
         }
@@ -79,6 +98,29 @@ public class Kata5_AtomicOperations {
             INDEX.set(segment, 0L, index);
         }
 
+        static int flags(MemorySegment segment, long offset) {
+            return (int) FLAGS.getVolatile(segment, offset);
+        }
+
+        // Operations for slots tagged with their owner (acquired = ACQUIRED | owner tag)
+
+        static boolean acquire(MemorySegment segment, long offset, int acquired) {
+            return FLAGS.compareAndSet(segment, offset, FREE, acquired);
+        }
+
+        static boolean complete(MemorySegment segment, long offset, int acquired) {
+            // Fails if the slot was aborted
+            return FLAGS.compareAndSet(segment, offset, acquired, acquired | COMPLETED); // HB
+        }
+
+        static boolean abort(MemorySegment segment, long offset, int expected) {
+            return FLAGS.compareAndSet(segment, offset, expected, expected | ACQUIRED | ABORTED);
+        }
+
+        static void index(MemorySegment segment, long offset, int index) {
+            INDEX.set(segment, offset, index);
+        }
+
         @Override
         public String toString() {
             return "Header{" +
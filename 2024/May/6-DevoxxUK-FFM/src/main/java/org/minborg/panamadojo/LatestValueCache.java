@@ -0,0 +1,290 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.MemoryLayout.paddingLayout;
+import static java.lang.foreign.MemoryLayout.sequenceLayout;
+import static java.lang.foreign.MemoryLayout.structLayout;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+/**
+ * The latest element per {@code int} key, for example the latest {@link MarketInfo}
+ * per symbol.
+ * <p>
+ * Elements are kept in an open-addressing table in a segment where each entry
+ * holds a sequence number, the key and a copy of the element's bytes. Updates are
+ * copies of the element's bytes (e.g. straight from a queue slot) so nothing is
+ * boxed or allocated:
+ * <pre>{@code
+ * try (var arena = Arena.ofShared();
+ *      var consumer = QueueConsumer.of(MARKET_INFO_RECORD_MAPPER, QUEUE_PATH, "latest")) {
+ *     var latest = LatestValueCache.of(MARKET_INFO_RECORD_MAPPER, "symbol", 1024, arena);
+ *     for (;;) {
+ *         latest.update(consumer, 64);
+ *         ...
+ *     }
+ * }
+ * }</pre>
+ * Each entry is a seqlock: the writer makes the sequence number odd, copies the
+ * element and makes it even again. Readers copy the element and retry if the
+ * sequence number was odd or changed meanwhile. So, readers on any number of other
+ * threads see consistent snapshots without locks and without slowing down the
+ * writer.
+ * <p>
+ * There must only be one writer at a time. Keys are never removed. See
+ * {@link SharedLatestValueCache} for a table in a mapped file that any number of
+ * writers in any number of JVMs can update.
+ *
+ * @param <T> element type
+ */
+public interface LatestValueCache<T extends Record> {
+
+    /**
+     * Stores a copy of the element at the provided {@code offset} in the provided
+     * {@code segment} as the latest element for its key.
+     *
+     * @param segment holding the element
+     * @param offset  of the element
+     * @throws IllegalStateException if the key is new and the cache is full
+     */
+    void update(MemorySegment segment, long offset);
+
+    /**
+     * Stores the provided {@code value} as the latest element for its key.
+     *
+     * @param value to store
+     * @throws IllegalStateException if the key is new and the cache is full
+     */
+    void update(T value);
+
+    /**
+     * Stores every completed element, up to {@code max} elements, of the provided
+     * {@code consumer} as the latest element for its key.
+     * <p>
+     * Elements are copied straight from the queue's slots.
+     *
+     * @param consumer to read elements from
+     * @param max      number of elements to read
+     * @return the number of elements read
+     * @throws IllegalStateException if a key is new and the cache is full
+     */
+    int update(QueueConsumer<T> consumer, int max);
+
+    /**
+     * Copies a consistent snapshot of the latest element with the provided {@code key}
+     * to the provided {@code destination} at the provided {@code offset}, if any.
+     * <p>
+     * This method may be invoked by any thread.
+     *
+     * @param key         of the element
+     * @param destination to copy the element to
+     * @param offset      in the destination
+     * @return if there was an element with the key
+     */
+    boolean copyTo(int key, MemorySegment destination, long offset);
+
+    /**
+     * {@return the latest element with the provided {@code key}, if any}
+     * <p>
+     * This method may be invoked by any thread.
+     *
+     * @param key of the element
+     */
+    Optional<T> get(int key);
+
+    /**
+     * {@return the number of keys}
+     */
+    int size();
+
+    /**
+     * {@return the maximum number of keys}
+     */
+    int capacity();
+
+    /**
+     * {@return a new empty cache of elements of the provided {@code mapper} keyed by
+     *          the {@code int} element named {@code key}, allocated in the provided
+     *          {@code arena}}
+     *
+     * @param mapper   of the elements
+     * @param key      the name of the {@code int} element of the layout to key by
+     *                 (e.g. "symbol")
+     * @param capacity the maximum number of keys
+     * @param arena    to allocate the table in
+     * @param <T>      element type
+     * @throws IllegalArgumentException if the layout has no {@code int} element named {@code key}
+     *                                  or if the capacity is not positive
+     */
+    static <T extends Record> LatestValueCache<T> of(RecordMapper<T> mapper,
+                                                     String key,
+                                                     int capacity,
+                                                     Arena arena) {
+        return new Impl<>(mapper, key, capacity, arena);
+    }
+
+    final class Impl<T extends Record> implements LatestValueCache<T> {
+
+        // https://bugs.openjdk.org/browse/JDK-8331734
+
+        private static final VarHandle LONG = Util.JAVA_LONG_LE.varHandle();
+        private static final VarHandle INT = Util.JAVA_INT_LE.varHandle();
+
+        private final RecordMapper<T> mapper;
+        private final long keyOffset;      // In an element
+        private final VarHandle keyHandle; // In the byte order of the element
+        private final long elementSize;
+        private final StructLayout entry;  // sequence, key and element
+        private final long sequenceOffset;
+        private final long entryKeyOffset;
+        private final long valueOffset;
+        private final int capacity;
+        private final int mask;
+        private final MemorySegment table;
+        private final MemorySegment scratch;                     // Only used by the writer
+        private final RawSlot slot;
+        private final Consumer<RawSlot> action = s -> update(s.segment(), s.offset());
+        private volatile int size;                               // Only updated by the writer
+
+        public Impl(RecordMapper<T> mapper, String key, int capacity, Arena arena) {
+            MemoryLayout layout = mapper.layout();
+            MemoryLayout selected;
+            try {
+                selected = layout.select(groupElement(key));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("No element named " + key + " in " + layout, e);
+            }
+            if (!(selected instanceof ValueLayout.OfInt)) {
+                throw new IllegalArgumentException("Not an int: " + selected);
+            }
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity <= 0: " + capacity);
+            }
+            this.mapper = mapper;
+            this.keyOffset = layout.byteOffset(groupElement(key));
+            this.keyHandle = ((ValueLayout.OfInt) selected).withoutName().varHandle();
+            this.elementSize = layout.byteSize();
+            long valueSize = (elementSize + Long.BYTES - 1) & -Long.BYTES;
+            this.entry = structLayout(
+                    Util.JAVA_LONG_LE.withName("sequence"), // Odd while written, 0 if free
+                    Util.JAVA_INT_LE.withName("key"),
+                    paddingLayout(Integer.BYTES),
+                    sequenceLayout(valueSize, JAVA_BYTE).withName("value")
+            ).withName("Entry");
+            this.sequenceOffset = entry.byteOffset(groupElement("sequence"));
+            this.entryKeyOffset = entry.byteOffset(groupElement("key"));
+            this.valueOffset = entry.byteOffset(groupElement("value"));
+            this.capacity = capacity;
+            // At most half full so probe sequences stay short
+            int slots = Integer.highestOneBit(Math.max(1, capacity * 2 - 1)) << 1;
+            this.mask = slots - 1;
+            this.table = arena.allocate(entry.byteSize() * slots, entry.byteAlignment());
+            this.scratch = arena.allocate(layout);
+            this.slot = new RawSlot(layout);
+        }
+
+        @Override
+        public void update(MemorySegment segment, long offset) {
+            int key = (int) keyHandle.get(segment, offset + keyOffset);
+            long entry = claim(key);
+            long sequence = (long) LONG.get(table, entry + sequenceOffset);
+            LONG.setRelease(table, entry + sequenceOffset, sequence + 1);
+            VarHandle.storeStoreFence(); // The element must not be written before the sequence
+            MemorySegment.copy(segment, offset, table, entry + valueOffset, elementSize);
+            LONG.setRelease(table, entry + sequenceOffset, sequence + 2);
+        }
+
+        @Override
+        public void update(T value) {
+            mapper.set(scratch, value);
+            update(scratch, 0);
+        }
+
+        @Override
+        public int update(QueueConsumer<T> consumer, int max) {
+            return consumer.drainTo(slot, action, max);
+        }
+
+        @Override
+        public boolean copyTo(int key, MemorySegment destination, long offset) {
+            long entry = find(key);
+            if (entry < 0) {
+                return false;
+            }
+            for (;;) {
+                long before = (long) LONG.getAcquire(table, entry + sequenceOffset);
+                if ((before & 1) == 0) {
+                    MemorySegment.copy(table, entry + valueOffset, destination, offset, elementSize);
+                    VarHandle.loadLoadFence(); // The element must be read before the sequence
+                    if ((long) LONG.getOpaque(table, entry + sequenceOffset) == before) {
+                        return true;
+                    }
+                }
+                // The writer is updating the element
+                Thread.onSpinWait();
+            }
+        }
+
+        @Override
+        public Optional<T> get(int key) {
+            // Readers cannot share the writer's scratch segment
+            MemorySegment copy = MemorySegment.ofArray(new long[(int) ((elementSize + Long.BYTES - 1) / Long.BYTES)]);
+            return copyTo(key, copy, 0)
+                    ? Optional.of(mapper.get(copy))
+                    : Optional.empty();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int capacity() {
+            return capacity;
+        }
+
+        // The offset of the entry with the key or -1
+        private long find(int key) {
+            for (int i = Util.mix(key) & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+                long entry = i * this.entry.byteSize();
+                if ((long) LONG.getAcquire(table, entry + sequenceOffset) == 0) {
+                    return -1;
+                }
+                if ((int) INT.get(table, entry + entryKeyOffset) == key) {
+                    return entry;
+                }
+            }
+            return -1;
+        }
+
+        // The offset of the entry with the key which is added if it is new
+        private long claim(int key) {
+            for (int i = Util.mix(key) & mask; ; i = (i + 1) & mask) {
+                long entry = i * this.entry.byteSize();
+                if ((long) LONG.get(table, entry + sequenceOffset) == 0) {
+                    if (size == capacity) {
+                        throw new IllegalStateException("Full: " + capacity + " keys");
+                    }
+                    // Readers see the key once the sequence is not 0
+                    INT.set(table, entry + entryKeyOffset, key);
+                    size++;
+                    return entry;
+                }
+                if ((int) INT.get(table, entry + entryKeyOffset) == key) {
+                    return entry;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,167 @@
+package org.minborg.panamadojo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.MemoryLayout.structLayout;
+
+/**
+ * Benchmarks of the cost of reading the fields of {@link Util#MARKET_INFO} elements.
+ * <ul>
+ *     <li>{@code declared}: var handles of the declared (aligned) layout.</li>
+ *     <li>{@code access}: the accessors in {@link Util}.</li>
+ *     <li>{@code unaligned}: the accessors in {@link Util} at odd offsets.</li>
+ *     <li>{@code foreign}: var handles of the opposite byte order, as when reading a
+ *     file written on a host of the other endianness, swapping on each access.</li>
+ *     <li>{@code bulkSwap}: converting such elements with a {@link ByteSwapper}
+ *     and then reading them with the accessors in {@link Util}.</li>
+ * </ul>
+ * Example: {@code java -cp ... org.minborg.panamadojo.LayoutBench}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 3)
+@State(Scope.Thread)
+public class LayoutBench {
+
+    private static final int COUNT = 1024;
+
+    private static final long SIZE = Util.MARKET_INFO.byteSize();
+
+    private static final VarHandle DECLARED_TIME = declared("time");
+    private static final VarHandle DECLARED_HIGH = declared("high");
+    private static final VarHandle DECLARED_LAST = declared("last");
+    private static final VarHandle DECLARED_LOW = declared("low");
+
+    private static final StructLayout FOREIGN = structLayout(Util.MARKET_INFO.memberLayouts().stream()
+            .map(m -> ((ValueLayout) m).withOrder(ByteSwapper.opposite(((ValueLayout) m).order())))
+            .toArray(MemoryLayout[]::new));
+
+    private static final VarHandle FOREIGN_TIME = foreign("time");
+    private static final VarHandle FOREIGN_HIGH = foreign("high");
+    private static final VarHandle FOREIGN_LAST = foreign("last");
+    private static final VarHandle FOREIGN_LOW = foreign("low");
+
+    private static final ByteSwapper SWAPPER = ByteSwapper.of(Util.MARKET_INFO);
+
+    private Arena arena;
+    private MemorySegment elements;  // In the declared order
+    private MemorySegment unaligned; // In the declared order, at odd offsets
+    private MemorySegment foreign;   // In the opposite order
+    private MemorySegment scratch;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        arena = Arena.ofConfined();
+        elements = arena.allocate(Util.MARKET_INFO, COUNT);
+        unaligned = arena.allocate(SIZE * COUNT + 1).asSlice(1);
+        foreign = arena.allocate(Util.MARKET_INFO, COUNT);
+        scratch = arena.allocate(Util.MARKET_INFO, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            long offset = i * SIZE;
+            Util.TIME.set(elements, offset, (long) i);
+            Util.SYMBOL.set(elements, offset, Util.symbolAsInt("ORCL"));
+            Util.HIGH.set(elements, offset, i + 2);
+            Util.LAST.set(elements, offset, i + 1);
+            Util.LOW.set(elements, offset, i);
+        }
+        MemorySegment.copy(elements, 0, unaligned, 0, SIZE * COUNT);
+        SWAPPER.swap(elements, 0, foreign, 0, COUNT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        arena.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long declared() {
+        long sum = 0;
+        for (long offset = 0; offset < SIZE * COUNT; offset += SIZE) {
+            sum += (long) DECLARED_TIME.get(elements, offset) +
+                    (int) DECLARED_HIGH.get(elements, offset) +
+                    (int) DECLARED_LAST.get(elements, offset) +
+                    (int) DECLARED_LOW.get(elements, offset);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long access() {
+        return sum(elements);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long unaligned() {
+        return sum(unaligned);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long foreign() {
+        long sum = 0;
+        for (long offset = 0; offset < SIZE * COUNT; offset += SIZE) {
+            sum += (long) FOREIGN_TIME.get(foreign, offset) +
+                    (int) FOREIGN_HIGH.get(foreign, offset) +
+                    (int) FOREIGN_LAST.get(foreign, offset) +
+                    (int) FOREIGN_LOW.get(foreign, offset);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long bulkSwap() {
+        SWAPPER.swap(foreign, 0, scratch, 0, COUNT);
+        return sum(scratch);
+    }
+
+    private static long sum(MemorySegment segment) {
+        long sum = 0;
+        for (long offset = 0; offset < SIZE * COUNT; offset += SIZE) {
+            sum += (long) Util.TIME.get(segment, offset) +
+                    (int) Util.HIGH.get(segment, offset) +
+                    (int) Util.LAST.get(segment, offset) +
+                    (int) Util.LOW.get(segment, offset);
+        }
+        return sum;
+    }
+
+    private static VarHandle declared(String name) {
+        return Util.MARKET_INFO.varHandle(groupElement(name));
+    }
+
+    private static VarHandle foreign(String name) {
+        return FOREIGN.varHandle(groupElement(name));
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+}
@@ -0,0 +1,265 @@
+package org.minborg.panamadojo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Appends text to a file in the background so that logging does not stall the
+ * logging thread on I/O, for example to keep an audit log of every {@link MarketInfo}:
+ * <pre>{@code
+ * try (var log = LogSink.of(AUDIT_PATH);
+ *      var consumer = QueueConsumer.of(MARKET_INFO_RECORD_MAPPER, QUEUE_PATH, "audit")) {
+ *     for (;;) {
+ *         log.log(consumer, 64);
+ *         ...
+ *     }
+ * }
+ * }</pre>
+ * Logged bytes are copied to an off-heap ring buffer. A background thread writes
+ * everything between its position and the logging thread's position to a
+ * {@link FileChannel} in one go so the file is written in large batches however
+ * fast elements are logged. Elements are rendered by {@link MarketInfoRenderer}
+ * straight into a scratch segment so logging an element allocates nothing.
+ * <p>
+ * If the ring buffer is full, logging waits for the background thread. There must
+ * only be one logging thread at a time.
+ */
+public interface LogSink extends AutoCloseable {
+
+    /**
+     * Appends {@code length} bytes at the provided {@code offset} in the provided
+     * {@code segment}.
+     *
+     * @param segment holding the bytes
+     * @param offset  of the bytes
+     * @param length  number of bytes
+     * @throws IllegalArgumentException if the length is negative or exceeds the capacity
+     * @throws UncheckedIOException     if the background thread failed to write
+     */
+    void log(MemorySegment segment, long offset, long length);
+
+    /**
+     * Appends the provided {@code info} as a line of text.
+     *
+     * @param info to log
+     * @throws UncheckedIOException if the background thread failed to write
+     */
+    void log(MarketInfo info);
+
+    /**
+     * Appends every completed element, up to {@code max} elements, of the provided
+     * {@code consumer} as a line of text each.
+     * <p>
+     * Elements are rendered straight from the queue's slots. A named consumer
+     * checkpoints the elements once they are in the ring buffer, before the background
+     * thread has written them, so the log is at-most-once: the elements of the latest
+     * batches are lost if the process dies before they are written.
+     *
+     * @param consumer to read elements from
+     * @param max      number of elements to read
+     * @return the number of elements read
+     * @throws UncheckedIOException if the background thread failed to write
+     */
+    int log(QueueConsumer<? extends MarketInfo> consumer, int max);
+
+    /**
+     * Waits until everything logged so far is written to the file.
+     *
+     * @throws UncheckedIOException if the background thread failed to write
+     */
+    void flush();
+
+    /**
+     * Writes everything logged so far and closes the file.
+     *
+     * @throws UncheckedIOException if the background thread failed to write
+     */
+    @Override
+    void close();
+
+    /**
+     * {@return a new sink appending to the provided {@code file}, which is created if
+     *          it does not exist, with a 1 MiB ring buffer}
+     *
+     * @param file to append to
+     */
+    static LogSink of(Path file) {
+        return of(file, 1 << 20);
+    }
+
+    /**
+     * {@return a new sink appending to the provided {@code file}, which is created if
+     *          it does not exist, with a ring buffer of {@code capacity} bytes}
+     *
+     * @param file     to append to
+     * @param capacity of the ring buffer, a power of two
+     * @throws IllegalArgumentException if the capacity is not a power of two or cannot
+     *                                  hold a rendered element
+     */
+    static LogSink of(Path file, int capacity) {
+        return new Impl(file, capacity);
+    }
+
+    final class Impl implements LogSink {
+
+        private final Path file;
+        private final FileChannel fc;
+        private final Arena arena;
+        private final MemorySegment ring;
+        private final long mask;
+        private final MemorySegment scratch;
+        private final RawSlot slot = new RawSlot(Util.MARKET_INFO);
+        private final Consumer<RawSlot> action = this::log;
+        private final Thread writer;
+        private final Yielder yielder = Yielder.ofAdaptive(); // Only used by the logging thread
+
+        private volatile long head;        // Written by the logging thread
+        private volatile long tail;        // Written by the writer thread
+        private long cachedTail;           // Only used by the logging thread
+        private volatile boolean closed;
+        private volatile IOException failure;
+
+        public Impl(Path file, int capacity) {
+            if (Integer.bitCount(capacity) != 1 || capacity < MarketInfoRenderer.MAX_LENGTH) {
+                throw new IllegalArgumentException("Invalid capacity: " + capacity);
+            }
+            this.file = file;
+            try {
+                this.fc = FileChannel.open(file, CREATE, WRITE, APPEND);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.arena = Arena.ofShared();
+            this.ring = arena.allocate(capacity);
+            this.mask = capacity - 1;
+            this.scratch = arena.allocate(MarketInfoRenderer.MAX_LENGTH);
+            this.writer = Thread.ofPlatform().name("log-sink " + file.getFileName()).daemon().start(this::write);
+        }
+
+        @Override
+        public void log(MemorySegment segment, long offset, long length) {
+            if (length < 0) {
+                throw new IllegalArgumentException("length < 0: " + length);
+            }
+            if (length > ring.byteSize()) {
+                throw new IllegalArgumentException("Too long: " + length);
+            }
+            long head = this.head;
+            if (head + length - cachedTail > ring.byteSize()) {
+                // Full, so wait for the writer thread
+                while (head + length - (cachedTail = tail) > ring.byteSize()) {
+                    checkFailure();
+                    yielder.yield();
+                }
+                yielder.reset();
+            }
+            long position = head & mask;
+            long first = Math.min(length, ring.byteSize() - position);
+            MemorySegment.copy(segment, offset, ring, position, first);
+            MemorySegment.copy(segment, offset + first, ring, 0, length - first);
+            this.head = head + length; // Publishes the bytes above
+        }
+
+        @Override
+        public void log(MarketInfo info) {
+            log(scratch, 0, MarketInfoRenderer.render(info, scratch, 0));
+        }
+
+        @Override
+        public int log(QueueConsumer<? extends MarketInfo> consumer, int max) {
+            return consumer.drainTo(slot, action, max);
+        }
+
+        @Override
+        public void flush() {
+            while (tail != head) {
+                checkFailure();
+                yielder.yield();
+            }
+            yielder.reset();
+            checkFailure();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // The ring must not be freed while the writer thread might access it
+            boolean interrupted = false;
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                fc.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                arena.close();
+            }
+            checkFailure();
+        }
+
+        private void log(RawSlot slot) {
+            log(scratch, 0, MarketInfoRenderer.render(slot.segment(), slot.offset(), scratch, 0));
+        }
+
+        // Runs in the writer thread until closed and all bytes are written
+        private void write() {
+            Yielder yielder = Yielder.ofAdaptive();
+            long tail = this.tail;
+            try {
+                for (;;) {
+                    boolean done = closed;
+                    long head = this.head;
+                    if (head != tail) {
+                        long position = tail & mask;
+                        long first = Math.min(head - tail, ring.byteSize() - position);
+                        write(ring.asSlice(position, first));
+                        write(ring.asSlice(0, head - tail - first));
+                        this.tail = tail = head; // Frees the bytes above
+                        yielder.reset();
+                    } else if (done) {
+                        return;
+                    } else {
+                        yielder.yield();
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        private void write(MemorySegment bytes) throws IOException {
+            ByteBuffer buffer = bytes.asByteBuffer();
+            while (buffer.hasRemaining()) {
+                fc.write(buffer);
+            }
+        }
+
+        private void checkFailure() {
+            IOException failure = this.failure;
+            if (failure != null) {
+                throw new UncheckedIOException("Unable to write to " + file, failure);
+            }
+        }
+
+    }
+
+}
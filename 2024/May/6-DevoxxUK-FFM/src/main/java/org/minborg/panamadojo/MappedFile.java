@@ -0,0 +1,220 @@
+package org.minborg.panamadojo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A file that is memory mapped one fixed-size chunk at a time.
+ * <p>
+ * Chunk {@code n} maps the region {@code [n * CHUNK_SIZE, (n + 1) * CHUNK_SIZE + OVERLAP)}
+ * so that any entry of at most {@code OVERLAP} bytes that starts in a chunk can be
+ * accessed via that single chunk. When a writable file enters a new chunk, the
+ * chunk after that is mapped in the background so the writer never waits for mmap.
+ * Read only files cannot be extended and are mapped as far as they currently reach.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class MappedFile implements AutoCloseable {
+
+    static final int CHUNK_SHIFT = 24;
+    static final long CHUNK_SIZE = 1L << CHUNK_SHIFT; // 16 MiB
+    static final long OVERLAP = 1L << 16;            // 64 KiB, the largest entry size
+
+    private static final long MAPPING_SIZE = CHUNK_SIZE + OVERLAP;
+
+    private static final Set<OpenOption> WRITE_OPTIONS =
+            Set.of(CREATE, SPARSE, READ, WRITE);
+    private static final Set<OpenOption> READ_OPTIONS =
+            Set.of(SPARSE, READ);
+
+    private static final Executor PRE_MAPPER = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("pre-mapper").daemon().factory());
+
+    private final Path path;
+    private final FileChannel fc;
+    private final boolean writable;
+
+    private Chunk prefix;                     // The start of the file or null
+    private Chunk chunk;                      // The current chunk or null
+    private CompletableFuture<Chunk> next;    // The chunk after the current one or null
+    private long nextIndex;                   // The index of the next chunk
+
+    private MappedFile(Path path, boolean writable) {
+        this.path = path;
+        this.writable = writable;
+        try {
+            this.fc = FileChannel.open(path, writable ? WRITE_OPTIONS : READ_OPTIONS);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    /**
+     * {@return the first {@code size} bytes of the file (mapped until the file is closed)
+     *          or {@code null} if the file is read only and is not (yet) that large}
+     *
+     * @param size of the region
+     */
+    MemorySegment prefix(long size) {
+        if (prefix == null || prefix.segment().byteSize() < size) {
+            Chunk candidate = map(0, size, size);
+            if (candidate == null) {
+                return null;
+            }
+            release(prefix);
+            prefix = candidate;
+        }
+        return prefix.segment();
+    }
+
+    /**
+     * {@return the chunk containing the {@code length} bytes at the provided
+     *          {@code position} or {@code null} if the file is read only and is not
+     *          (yet) large enough to hold these bytes}
+     *
+     * @param position in the file
+     * @param length   of the region, at most {@code OVERLAP}
+     */
+    MemorySegment chunkAt(long position, long length) {
+        long index = position >>> CHUNK_SHIFT;
+        long end = offsetInChunk(position) + length;
+        if (chunk != null && chunk.index() == index && end <= chunk.segment().byteSize()) {
+            return chunk.segment();
+        }
+        return switchTo(index, end);
+    }
+
+    /**
+     * {@return the offset of the provided {@code position} in the chunk holding it}
+     *
+     * @param position in the file
+     */
+    static long offsetInChunk(long position) {
+        return position & (CHUNK_SIZE - 1);
+    }
+
+    @Override
+    public void close() {
+        release(prefix);
+        prefix = null;
+        release(chunk);
+        chunk = null;
+        if (next != null) {
+            next.thenAccept(MappedFile::release);
+            next = null;
+        }
+        try {
+            fc.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedFile{path=" + path + ", chunk=" + (chunk == null ? -1 : chunk.index()) + "}";
+    }
+
+    private MemorySegment switchTo(long index, long required) {
+        Chunk candidate = null;
+        if (next != null) {
+            if (nextIndex == index) {
+                try {
+                    candidate = next.join();
+                } catch (CompletionException e) {
+                    // Pre-mapping failed. Try again below
+                }
+            } else {
+                // Not the chunk we want, release it whenever it is mapped
+                next.thenAccept(MappedFile::release);
+            }
+            next = null;
+        }
+        if (candidate == null) {
+            candidate = map(index, MAPPING_SIZE, required);
+            if (candidate == null) {
+                return null; // Not there yet
+            }
+        }
+        release(chunk); // Unmaps the previous chunk
+        chunk = candidate;
+        long following = index + 1;
+        if (writable || isAvailable(following, MAPPING_SIZE)) {
+            nextIndex = following;
+            next = CompletableFuture.supplyAsync(() -> map(following, MAPPING_SIZE, MAPPING_SIZE), PRE_MAPPER);
+        }
+        return chunk.segment();
+    }
+
+    private Chunk map(long index, long size, long required) {
+        if (!writable) {
+            // Read only files cannot be extended so map what is there
+            size = Math.min(size, size() - index * CHUNK_SIZE);
+            if (size < required) {
+                return null;
+            }
+        }
+        // Shared as chunks might be pre-mapped by another thread
+        Arena arena = Arena.ofShared();
+        try {
+            MemorySegment segment = fc.map(writable ? READ_WRITE : READ_ONLY,
+                    index * CHUNK_SIZE, size, arena);
+            return new Chunk(index, arena, segment);
+        } catch (IOException e) {
+            arena.close();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean isAvailable(long index, long required) {
+        return size() - index * CHUNK_SIZE >= required;
+    }
+
+    private long size() {
+        try {
+            return fc.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void release(Chunk chunk) {
+        if (chunk != null) {
+            chunk.close();
+        }
+    }
+
+    static MappedFile ofWritable(Path path) {
+        return new MappedFile(path, true);
+    }
+
+    static MappedFile ofReadOnly(Path path) {
+        return new MappedFile(path, false);
+    }
+
+    private record Chunk(long index, Arena arena, MemorySegment segment) implements AutoCloseable {
+        @Override
+        public void close() {
+            arena.close();
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.minborg.panamadojo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.TimeUnit;
+
+import static org.minborg.panamadojo.Kata2_RecordMapper.MARKET_INFO_RECORD_MAPPER;
+import static org.minborg.panamadojo.Kata2_RecordMapper.MarketInfoRecord;
+
+/**
+ * Benchmarks of the hand-written {@link Kata2_RecordMapper#MARKET_INFO_RECORD_MAPPER}
+ * against the same mapper created by {@link RecordMapper#of(Class, java.lang.foreign.MemoryLayout)}.
+ * <p>
+ * Both should have the same score. Run with {@code -prof perfasm} to compare the
+ * generated code.
+ * <p>
+ * Example: {@code java -cp ... org.minborg.panamadojo.MapperBench}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 3)
+@State(Scope.Thread)
+public class MapperBench {
+
+    // The same layout as the var handles of the hand-written mapper
+    private static final RecordMapper<MarketInfoRecord> GENERATED =
+            RecordMapper.of(MarketInfoRecord.class, Util.MARKET_INFO_ACCESS);
+
+    private static final MarketInfoRecord RECORD =
+            new MarketInfoRecord(24_05_08__11_15_23L, Util.symbolAsInt("ORCL"), 107, 106, 104);
+
+    private Arena arena;
+    private MemorySegment segment;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        arena = Arena.ofConfined();
+        segment = arena.allocate(Util.MARKET_INFO);
+        MARKET_INFO_RECORD_MAPPER.set(segment, RECORD);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        arena.close();
+    }
+
+    @Benchmark
+    public MarketInfoRecord getHandWritten() {
+        return MARKET_INFO_RECORD_MAPPER.get(segment);
+    }
+
+    @Benchmark
+    public MarketInfoRecord getGenerated() {
+        return GENERATED.get(segment);
+    }
+
+    // Escape analysis removes the record so only the reads remain
+    @Benchmark
+    public long sumHandWritten() {
+        MarketInfoRecord mi = MARKET_INFO_RECORD_MAPPER.get(segment);
+        return mi.time() + mi.high() + mi.last() + mi.low();
+    }
+
+    @Benchmark
+    public long sumGenerated() {
+        MarketInfoRecord mi = GENERATED.get(segment);
+        return mi.time() + mi.high() + mi.last() + mi.low();
+    }
+
+    @Benchmark
+    public void setHandWritten() {
+        MARKET_INFO_RECORD_MAPPER.set(segment, RECORD);
+    }
+
+    @Benchmark
+    public void setGenerated() {
+        GENERATED.set(segment, RECORD);
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Only runs this benchmark unless other patterns are added
+        String[] include = new String[args.length + 1];
+        include[0] = MapperBench.class.getSimpleName();
+        System.arraycopy(args, 0, include, 1, args.length);
+        org.openjdk.jmh.Main.main(include);
+    }
+
+}
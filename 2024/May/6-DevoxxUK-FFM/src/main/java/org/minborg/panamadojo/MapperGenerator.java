@@ -0,0 +1,400 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.GroupLayout;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SequenceLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.invoke.MethodHandles.Lookup.ClassOption.NESTMATE;
+import static org.minborg.panamadojo.ClassFile.*;
+
+/**
+ * Generates {@link RecordMapper} implementations as hidden classes.
+ * <p>
+ * For a record {@code R(long a, int b)}, the generated class is equivalent to:
+ * <pre>{@code
+ * final class R$Mapper implements RecordMapper<R> {
+ *     static final VarHandle H0 = ...; // layout.varHandle(groupElement("a"))
+ *     static final VarHandle H1 = ...; // layout.varHandle(groupElement("b"))
+ *     static final MemoryLayout LAYOUT = ...;
+ *
+ *     public R get(MemorySegment s, long o) {
+ *         return new R((long) H0.get(s, o), (int) H1.get(s, o));
+ *     }
+ *
+ *     public void set(MemorySegment s, long o, R v) {
+ *         H0.set(s, o, v.a());
+ *         H1.set(s, o, v.b());
+ *     }
+ *
+ *     // get(s) and set(s, v) as above with o = 0L
+ *
+ *     public Class<R> recordType() {
+ *         return R.class;
+ *     }
+ *
+ *     public MemoryLayout layout() {
+ *         return LAYOUT;
+ *     }
+ * }
+ * }</pre>
+ * which is what a hand-written mapper looks like. The var handles and the layout are
+ * passed as class data so the JIT sees them as constants.
+ * <p>
+ * A component of record type mapped to a nested group is created in place with var
+ * handles for the full path, e.g. {@code new R(new P((int) H0.get(s, o), ...), ...)}
+ * for {@code groupElement("p"), groupElement("x")}, so there are no slices. A component
+ * of array or {@code List} type mapped to a sequence is read and written by a method
+ * handle with the offset of the sequence bound (e.g. {@code (int[]) H2.invokeExact(s, o)}).
+ * <p>
+ * The class file is written by {@link ClassFile}.
+ */
+final class MapperGenerator {
+
+    private MapperGenerator() {}
+
+    private static final String VAR_HANDLE = "java/lang/invoke/VarHandle";
+    private static final String METHOD_HANDLE = "java/lang/invoke/MethodHandle";
+    private static final String SEGMENT = MemorySegment.class.descriptorString();
+    private static final String LAYOUT = MemoryLayout.class.descriptorString();
+
+    // Sequence access, see sequenceHandles()
+    private static final MethodHandle READ_VALUES;
+    private static final MethodHandle WRITE_VALUES;
+    private static final MethodHandle READ_RECORDS;
+    private static final MethodHandle WRITE_RECORDS;
+    private static final MethodHandle AS_LIST;
+    private static final MethodHandle TO_ARRAY;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            READ_VALUES = lookup.findStatic(MapperGenerator.class, "readValues",
+                    MethodType.methodType(Object.class, ValueLayout.class, int.class, long.class, MemorySegment.class, long.class));
+            WRITE_VALUES = lookup.findStatic(MapperGenerator.class, "writeValues",
+                    MethodType.methodType(void.class, ValueLayout.class, int.class, long.class, MemorySegment.class, long.class, Object.class));
+            READ_RECORDS = lookup.findStatic(MapperGenerator.class, "readRecords",
+                    MethodType.methodType(Object.class, RecordMapper.class, int.class, long.class, MemorySegment.class, long.class));
+            WRITE_RECORDS = lookup.findStatic(MapperGenerator.class, "writeRecords",
+                    MethodType.methodType(void.class, RecordMapper.class, int.class, long.class, MemorySegment.class, long.class, Object.class));
+            AS_LIST = lookup.findStatic(MapperGenerator.class, "asList",
+                    MethodType.methodType(List.class, Object.class));
+            TO_ARRAY = lookup.findStatic(MapperGenerator.class, "toArray",
+                    MethodType.methodType(Object.class, Class.class, List.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // A record component and the index of the handle of its element in the class data
+    // or, for a nested record, the elements of its own components
+    private record Element(RecordComponent component, int handle, List<Element> components) {
+
+        boolean nested() {
+            return components != null;
+        }
+    }
+
+    static <T extends Record> RecordMapper<T> generate(Class<T> recordType, MemoryLayout layout) {
+        if (!(layout instanceof GroupLayout group)) {
+            throw new IllegalArgumentException("Not a group: " + layout);
+        }
+        List<Object> classData = new ArrayList<>();
+        List<Element> elements = elements(group, List.of(), recordType, group, classData);
+        int handles = classData.size();
+        classData.add(layout);
+        MethodHandles.Lookup lookup;
+        try {
+            // Records are often local or private classes
+            lookup = MethodHandles.privateLookupIn(recordType, MethodHandles.lookup());
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to access " + recordType, e);
+        }
+        try {
+            MethodHandles.Lookup hidden = lookup.defineHiddenClassWithClassData(
+                    classFile(recordType, elements, classData.subList(0, handles)), List.copyOf(classData), true, NESTMATE);
+            @SuppressWarnings("unchecked")
+            RecordMapper<T> mapper = (RecordMapper<T>) hidden
+                    .findConstructor(hidden.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+            return mapper;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Unable to generate a mapper for " + recordType, t);
+        }
+    }
+
+    // Adds a var handle for each value and a reader and a writer for each sequence to the class data
+    private static List<Element> elements(GroupLayout root,
+                                          List<PathElement> prefix,
+                                          Class<?> recordType,
+                                          GroupLayout group,
+                                          List<Object> classData) {
+        List<Element> elements = new ArrayList<>();
+        for (RecordComponent component : recordType.getRecordComponents()) {
+            MemoryLayout member = group.memberLayouts().stream()
+                    .filter(m -> m.name().orElse("").equals(component.getName()))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException(
+                            "No element named " + component.getName() + " in " + group));
+            List<PathElement> path = new ArrayList<>(prefix);
+            path.add(groupElement(component.getName()));
+            PathElement[] elementPath = path.toArray(new PathElement[0]);
+            Class<?> type = component.getType();
+            switch (member) {
+                case ValueLayout value when value.carrier() == type -> {
+                    elements.add(new Element(component, classData.size(), null));
+                    classData.add(root.varHandle(elementPath));
+                }
+                case GroupLayout nested when type.isRecord() ->
+                        elements.add(new Element(component, -1, elements(root, path, type, nested, classData)));
+                case SequenceLayout sequence -> {
+                    elements.add(new Element(component, classData.size(), null));
+                    classData.addAll(sequenceHandles(component, sequence, root.byteOffset(elementPath)));
+                }
+                default -> throw new IllegalArgumentException("Type mismatch: " + component + " and " + member);
+            }
+        }
+        return elements;
+    }
+
+    // (MemorySegment, long)C and (MemorySegment, long, C)void for a component of type C
+    private static List<MethodHandle> sequenceHandles(RecordComponent component,
+                                                      SequenceLayout sequence,
+                                                      long offset) {
+        Class<?> type = component.getType();
+        Class<?> elementType = type.isArray()
+                ? type.getComponentType()
+                : type == List.class && component.getGenericType() instanceof ParameterizedType p
+                        && p.getActualTypeArguments()[0] instanceof Class<?> c ? c : null;
+        int length = Math.toIntExact(sequence.elementCount());
+        Class<?> arrayType; // The component type of the array that is read and written
+        MethodHandle reader;
+        MethodHandle writer;
+        switch (sequence.elementLayout()) {
+            case ValueLayout value when elementType == value.carrier() ||
+                    type == List.class && elementType == MethodType.methodType(value.carrier()).wrap().returnType() -> {
+                reader = MethodHandles.insertArguments(READ_VALUES, 0, value, length, offset);
+                writer = MethodHandles.insertArguments(WRITE_VALUES, 0, value, length, offset);
+                arrayType = value.carrier();
+            }
+            case GroupLayout group when elementType != null && elementType.isRecord() -> {
+                @SuppressWarnings("unchecked")
+                RecordMapper<?> mapper = generate((Class<? extends Record>) elementType, group);
+                reader = MethodHandles.insertArguments(READ_RECORDS, 0, mapper, length, offset);
+                writer = MethodHandles.insertArguments(WRITE_RECORDS, 0, mapper, length, offset);
+                arrayType = elementType;
+            }
+            default -> throw new IllegalArgumentException("Type mismatch: " + component + " and " + sequence);
+        }
+        if (type == List.class) {
+            reader = MethodHandles.filterReturnValue(reader, AS_LIST);
+            writer = MethodHandles.filterArguments(writer, 2, TO_ARRAY.bindTo(arrayType));
+        }
+        return List.of(
+                reader.asType(MethodType.methodType(type, MemorySegment.class, long.class)),
+                writer.asType(MethodType.methodType(void.class, MemorySegment.class, long.class, type)));
+    }
+
+    private static Object readValues(ValueLayout element, int length, long base, MemorySegment segment, long offset) {
+        Object array = Array.newInstance(element.carrier(), length);
+        MemorySegment.copy(segment, element, base + offset, array, 0, length);
+        return array;
+    }
+
+    private static void writeValues(ValueLayout element, int length, long base, MemorySegment segment, long offset, Object array) {
+        checkLength(Array.getLength(array), length);
+        MemorySegment.copy(array, 0, segment, element, base + offset, length);
+    }
+
+    private static Object readRecords(RecordMapper<?> mapper, int length, long base, MemorySegment segment, long offset) {
+        Object[] array = (Object[]) Array.newInstance(mapper.recordType(), length);
+        long size = mapper.layout().byteSize();
+        for (int i = 0; i < length; i++) {
+            array[i] = mapper.get(segment, base + offset + i * size);
+        }
+        return array;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeRecords(RecordMapper<?> mapper, int length, long base, MemorySegment segment, long offset, Object array) {
+        Record[] records = (Record[]) array;
+        checkLength(records.length, length);
+        long size = mapper.layout().byteSize();
+        for (int i = 0; i < length; i++) {
+            ((RecordMapper<Record>) mapper).set(segment, base + offset + i * size, records[i]);
+        }
+    }
+
+    private static List<?> asList(Object array) {
+        Object[] elements = new Object[Array.getLength(array)];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = Array.get(array, i);
+        }
+        return List.of(elements);
+    }
+
+    private static Object toArray(Class<?> elementType, List<?> list) {
+        Object array = Array.newInstance(elementType, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            Array.set(array, i, list.get(i));
+        }
+        return array;
+    }
+
+    private static void checkLength(int length, int expected) {
+        if (length != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " elements but got " + length);
+        }
+    }
+
+    private static byte[] classFile(Class<?> recordType, List<Element> elements, List<Object> handleData) {
+        String record = internalName(recordType);
+        ClassFile classFile = new ClassFile(record + "$Mapper", internalName(RecordMapper.class));
+        ClassFile.ConstantPool cp = classFile.constants();
+
+        // Fields
+        int[] handles = new int[handleData.size()];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = classFile.field(ACC_STATIC | ACC_FINAL, "H" + i, "L" + handleType(handleData.get(i)) + ";");
+        }
+        int layout = classFile.field(ACC_STATIC | ACC_FINAL, "LAYOUT", LAYOUT);
+
+        // <init>()V
+        classFile.method(ACC_PUBLIC, "<init>", "()V", 1, 1)
+                .op(ALOAD_0).op(INVOKESPECIAL).u2(cp.methodRef(classFile.superClass(), "<init>", "()V")).op(RETURN);
+
+        // <clinit>()V
+        int[] fields = Arrays.copyOf(handles, handles.length + 1);
+        fields[handles.length] = layout;
+        String[] types = new String[fields.length];
+        for (int i = 0; i < handles.length; i++) {
+            types[i] = handleType(handleData.get(i));
+        }
+        types[handles.length] = internalName(MemoryLayout.class);
+        classFile.classDataInitializer(fields, types);
+
+        // get(MemorySegment)Record and get(MemorySegment, long)Record
+        for (boolean withOffset : new boolean[]{false, true}) {
+            ClassFile.Method get = classFile.method(ACC_PUBLIC | ACC_FINAL, "get",
+                    "(" + SEGMENT + (withOffset ? "J" : "") + ")Ljava/lang/Record;",
+                    maxStack(elements), withOffset ? 4 : 2);
+            newRecord(get, cp, recordType, elements, handles, handleData, withOffset);
+            get.op(ARETURN);
+        }
+
+        // set(MemorySegment, Record)V and set(MemorySegment, long, Record)V
+        for (boolean withOffset : new boolean[]{false, true}) {
+            int value = withOffset ? 4 : 2; // Local variable slots
+            int checked = value + 1;
+            ClassFile.Method set = classFile.method(ACC_PUBLIC | ACC_FINAL, "set",
+                    "(" + SEGMENT + (withOffset ? "J" : "") + "Ljava/lang/Record;)V", 6, checked + 1);
+            set.op(ALOAD).op(value).op(CHECKCAST).u2(cp.classInfo(record)).op(ASTORE).op(checked);
+            setComponents(set, cp, elements, List.of(), handles, handleData, withOffset, checked);
+            set.op(RETURN);
+        }
+
+        // recordType()Class
+        classFile.method(ACC_PUBLIC | ACC_FINAL, "recordType", "()Ljava/lang/Class;", 1, 1)
+                .op(LDC_W).u2(cp.classInfo(record)).op(ARETURN);
+
+        // layout()MemoryLayout
+        classFile.method(ACC_PUBLIC | ACC_FINAL, "layout", "()" + LAYOUT, 1, 1)
+                .op(GETSTATIC).u2(layout).op(ARETURN);
+
+        return classFile.toByteArray();
+    }
+
+    // new R(..., new P(...), ...) with each value read via its handle
+    private static void newRecord(ClassFile.Method get,
+                                  ClassFile.ConstantPool cp,
+                                  Class<?> recordType,
+                                  List<Element> elements,
+                                  int[] handles,
+                                  List<Object> handleData,
+                                  boolean withOffset) {
+        String record = internalName(recordType);
+        String constructor = "(";
+        get.op(NEW).u2(cp.classInfo(record)).op(DUP);
+        for (Element element : elements) {
+            Class<?> type = element.component().getType();
+            constructor += type.descriptorString();
+            if (element.nested()) {
+                newRecord(get, cp, type, element.components(), handles, handleData, withOffset);
+                continue;
+            }
+            String handleType = handleType(handleData.get(element.handle()));
+            get.op(GETSTATIC).u2(handles[element.handle()])
+                    .op(ALOAD_1)
+                    .op(withOffset ? LLOAD_2 : LCONST_0)
+                    .op(INVOKEVIRTUAL).u2(cp.methodRef(cp.classInfo(handleType),
+                            handleType.equals(VAR_HANDLE) ? "get" : "invokeExact",
+                            "(" + SEGMENT + "J)" + type.descriptorString()));
+        }
+        constructor += ")V";
+        get.op(INVOKESPECIAL).u2(cp.methodRef(cp.classInfo(record), "<init>", constructor));
+    }
+
+    // H.set(s, o, v.p().x()) for each value and sequence
+    private static void setComponents(ClassFile.Method set,
+                                      ClassFile.ConstantPool cp,
+                                      List<Element> elements,
+                                      List<RecordComponent> accessors,
+                                      int[] handles,
+                                      List<Object> handleData,
+                                      boolean withOffset,
+                                      int checked) {
+        for (Element element : elements) {
+            List<RecordComponent> path = new ArrayList<>(accessors);
+            path.add(element.component());
+            if (element.nested()) {
+                setComponents(set, cp, element.components(), path, handles, handleData, withOffset, checked);
+                continue;
+            }
+            boolean value = handleData.get(element.handle()) instanceof VarHandle;
+            int handle = value ? element.handle() : element.handle() + 1; // The writer follows the reader
+            set.op(GETSTATIC).u2(handles[handle])
+                    .op(ALOAD_1)
+                    .op(withOffset ? LLOAD_2 : LCONST_0)
+                    .op(ALOAD).op(checked);
+            for (RecordComponent accessor : path) {
+                set.op(INVOKEVIRTUAL).u2(cp.methodRef(cp.classInfo(internalName(accessor.getDeclaringRecord())),
+                        accessor.getName(), "()" + accessor.getType().descriptorString()));
+            }
+            set.op(INVOKEVIRTUAL).u2(cp.methodRef(cp.classInfo(value ? VAR_HANDLE : METHOD_HANDLE),
+                    value ? "set" : "invokeExact",
+                    "(" + SEGMENT + "J" + element.component().getType().descriptorString() + ")V"));
+        }
+    }
+
+    // The operand stack holds NEW, DUP and the arguments so far plus the handle, segment
+    // and offset of the next value
+    private static int maxStack(List<Element> elements) {
+        int max = 0;
+        int depth = 2;
+        for (Element element : elements) {
+            max = Math.max(max, depth + (element.nested() ? maxStack(element.components()) : 4));
+            depth += slots(element.component().getType());
+        }
+        return Math.max(max, depth);
+    }
+
+    private static String handleType(Object handle) {
+        return handle instanceof VarHandle ? VAR_HANDLE : METHOD_HANDLE;
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.util.Objects;
+
+import static org.minborg.panamadojo.Kata2_RecordMapper.MarketInfoRecord;
+
+/**
+ * A {@link MarketInfo} that can be {@linkplain #rebase(MemorySegment, long) repositioned}
+ * over any memory having the {@link Util#MARKET_INFO} layout.
+ * <p>
+ * Unlike {@link Kata1_BeanWrapper.MarketInfoSegmentBean}, this class does not slice the
+ * backing segment and the same instance can be used to view any number of elements.
+ */
+public final class MarketInfoFlyweight
+        implements MarketInfo, MarketInfoUpdater, Flyweight {
+
+    private MemorySegment segment = MemorySegment.NULL;
+    private long offset;
+
+    @Override
+    public MemoryLayout layout() {
+        return Util.MARKET_INFO;
+    }
+
+    @Override
+    public void rebase(MemorySegment segment, long offset) {
+        this.segment = segment;
+        this.offset = offset;
+    }
+
+    @Override
+    public long time() {
+        return (long) Util.TIME.get(segment, offset);
+    }
+
+    @Override
+    public int symbol() {
+        return (int) Util.SYMBOL.get(segment, offset);
+    }
+
+    @Override
+    public int high() {
+        return (int) Util.HIGH.get(segment, offset);
+    }
+
+    @Override
+    public int last() {
+        return (int) Util.LAST.get(segment, offset);
+    }
+
+    @Override
+    public int low() {
+        return (int) Util.LOW.get(segment, offset);
+    }
+
+    @Override
+    public void time(long time) {
+        Util.TIME.set(segment, offset, time);
+    }
+
+    @Override
+    public void symbol(int symbol) {
+        Util.SYMBOL.set(segment, offset, symbol);
+    }
+
+    @Override
+    public void high(int high) {
+        Util.HIGH.set(segment, offset, high);
+    }
+
+    @Override
+    public void last(int last) {
+        Util.LAST.set(segment, offset, last);
+    }
+
+    @Override
+    public void low(int low) {
+        Util.LOW.set(segment, offset, low);
+    }
+
+    /**
+     * {@return a copy of the currently viewed element that can be retained after
+     *          this flyweight has been repositioned}
+     */
+    public MarketInfoRecord toRecord() {
+        return new MarketInfoRecord(time(), symbol(), high(), last(), low());
+    }
+
+    @Override
+    public String toString() {
+        return Util.toString(this);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof MarketInfo that &&
+                this.time() == that.time() &&
+                this.symbol() == that.symbol() &&
+                this.high() == that.high() &&
+                this.last() == that.last() &&
+                this.low() == that.low();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(time(), symbol(), high(), last(), low());
+    }
+
+}
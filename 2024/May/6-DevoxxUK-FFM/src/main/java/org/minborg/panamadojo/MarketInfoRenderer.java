@@ -0,0 +1,134 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+/**
+ * Renders {@link MarketInfo} elements as a line of ASCII text in the same form as
+ * {@link Util#toString(MarketInfo)}, e.g.
+ * <pre>{@code
+ * MarketInfo{time = 240508111523, symbol = ORCL, high = 107, last = 106, low = 104}
+ * }</pre>
+ * The text is written straight into a segment (which may be a heap segment over a
+ * {@code byte[]}) so, unlike {@code toString()}, nothing is allocated.
+ */
+final class MarketInfoRenderer {
+
+    private MarketInfoRenderer() {}
+
+    private static final byte[] TIME = ascii("MarketInfo{time = ");
+    private static final byte[] SYMBOL = ascii(", symbol = ");
+    private static final byte[] HIGH = ascii(", high = ");
+    private static final byte[] LAST = ascii(", last = ");
+    private static final byte[] LOW = ascii(", low = ");
+    private static final byte[] END = ascii("}\n");
+
+    private static final int MAX_LONG_LENGTH = String.valueOf(Long.MIN_VALUE).length();
+    private static final int MAX_INT_LENGTH = String.valueOf(Integer.MIN_VALUE).length();
+
+    /**
+     * The maximum number of bytes of a rendered element.
+     */
+    static final int MAX_LENGTH = TIME.length + MAX_LONG_LENGTH +
+            SYMBOL.length + Integer.BYTES +
+            HIGH.length + MAX_INT_LENGTH +
+            LAST.length + MAX_INT_LENGTH +
+            LOW.length + MAX_INT_LENGTH +
+            END.length;
+
+    /**
+     * Renders the provided {@code info} to the provided {@code destination} at the
+     * provided {@code offset} and {@return the number of bytes written}.
+     *
+     * @param info        to render
+     * @param destination to write to
+     * @param offset      in the destination
+     * @throws IndexOutOfBoundsException if there are less than {@link #MAX_LENGTH}
+     *                                   bytes left and the text does not fit
+     */
+    static int render(MarketInfo info, MemorySegment destination, long offset) {
+        return render(info.time(), info.symbol(), info.high(), info.last(), info.low(), destination, offset);
+    }
+
+    /**
+     * Renders the element with the {@link Util#MARKET_INFO} layout at the provided
+     * {@code sourceOffset} in the provided {@code source} (e.g. a queue slot) to the
+     * provided {@code destination} at the provided {@code offset} and {@return the
+     * number of bytes written}.
+     *
+     * @param source       holding the element
+     * @param sourceOffset of the element
+     * @param destination  to write to
+     * @param offset       in the destination
+     * @throws IndexOutOfBoundsException if there are less than {@link #MAX_LENGTH}
+     *                                   bytes left and the text does not fit
+     */
+    static int render(MemorySegment source, long sourceOffset, MemorySegment destination, long offset) {
+        return render(
+                (long) Util.TIME.get(source, sourceOffset),
+                (int) Util.SYMBOL.get(source, sourceOffset),
+                (int) Util.HIGH.get(source, sourceOffset),
+                (int) Util.LAST.get(source, sourceOffset),
+                (int) Util.LOW.get(source, sourceOffset),
+                destination, offset);
+    }
+
+    private static int render(long time, int symbol, int high, int last, int low,
+                              MemorySegment destination, long offset) {
+        long position = offset;
+        position = put(destination, position, TIME);
+        position = putLong(destination, position, time);
+        position = put(destination, position, SYMBOL);
+        position = putSymbol(destination, position, symbol);
+        position = put(destination, position, HIGH);
+        position = putLong(destination, position, high);
+        position = put(destination, position, LAST);
+        position = putLong(destination, position, last);
+        position = put(destination, position, LOW);
+        position = putLong(destination, position, low);
+        position = put(destination, position, END);
+        return (int) (position - offset);
+    }
+
+    private static long put(MemorySegment destination, long position, byte[] bytes) {
+        MemorySegment.copy(bytes, 0, destination, JAVA_BYTE, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    // The ASCII characters of the symbol without the zero padding
+    private static long putSymbol(MemorySegment destination, long position, int symbol) {
+        for (int i = 0; i < Integer.BYTES; i++) {
+            byte b = (byte) (symbol >>> (i * Byte.SIZE));
+            if (b == 0) {
+                break;
+            }
+            destination.set(JAVA_BYTE, position++, b);
+        }
+        return position;
+    }
+
+    private static long putLong(MemorySegment destination, long position, long value) {
+        // Works on the negative value as there is one more negative value than positive ones
+        if (value < 0) {
+            destination.set(JAVA_BYTE, position++, (byte) '-');
+        } else {
+            value = -value;
+        }
+        int digits = 1;
+        for (long q = value; q <= -10; q /= 10) {
+            digits++;
+        }
+        for (long i = position + digits - 1; i >= position; i--) {
+            destination.set(JAVA_BYTE, i, (byte) ('0' - value % 10));
+            value /= 10;
+        }
+        return position + digits;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.minborg.panamadojo;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Wakes up consumers in this JVM that are parked waiting for a queue.
+ * <p>
+ * This works like a futex: a consumer reads the mapped {@code sequence} word
+ * before it polls and, if the poll came back empty, parks only if the sequence is
+ * still the same after it has registered itself. Producers bump the sequence after
+ * publishing and then unpark any registered consumers. Consumers in other JVMs
+ * cannot be unparked and are left to their park timeout.
+ */
+final class Notifier {
+
+    private static final Map<Path, Notifier> NOTIFIERS = new ConcurrentHashMap<>();
+
+    private final Set<Thread> waiters = ConcurrentHashMap.newKeySet();
+
+    private Notifier() {}
+
+    /**
+     * Unparks all the consumers waiting for the queue. Must be called after the
+     * sequence was bumped.
+     */
+    void signal() {
+        if (!waiters.isEmpty()) {
+            for (Thread waiter : waiters) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    /**
+     * Parks the current thread for at most {@code nanos} unless the {@code sequence}
+     * has moved past the provided {@code observed} value.
+     *
+     * @param sequence the mapped sequence
+     * @param observed sequence read before the last poll
+     * @param nanos    max time to park
+     */
+    void await(LongSupplier sequence, long observed, long nanos) {
+        Thread current = Thread.currentThread();
+        waiters.add(current);
+        try {
+            // Re-read after registering so no signal is lost
+            if (sequence.getAsLong() == observed) {
+                LockSupport.parkNanos(this, nanos);
+            }
+        } finally {
+            waiters.remove(current);
+        }
+    }
+
+    static Notifier of(Path location) {
+        return NOTIFIERS.computeIfAbsent(location.toAbsolutePath().normalize(), p -> new Notifier());
+    }
+
+}
@@ -0,0 +1,181 @@
+package org.minborg.panamadojo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SequenceLayout;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.MemoryLayout.paddingLayout;
+import static java.lang.foreign.MemoryLayout.sequenceLayout;
+import static java.lang.foreign.MemoryLayout.structLayout;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The producer owning the slots it acquires.
+ * <p>
+ * Owners are kept in a small mapped table next to the queue file(s). Acquired slots
+ * are tagged with the id and generation of their owner so that a
+ * {@link StaleSlotDetector} can tell if the slot was abandoned by a producer that
+ * died before completing it.
+ */
+final class Owner implements AutoCloseable {
+
+    // OWNERS FILE:
+    // OWNER, OWNER, ... (MAX_OWNERS times, the first is never used)
+
+    static final int MAX_OWNERS = 256;
+
+    static final StructLayout OWNER = structLayout(
+            Util.JAVA_LONG_LE.withName("pid"),      // 0 if free
+            Util.JAVA_LONG_LE.withName("threadId"),
+            Util.JAVA_LONG_LE.withName("since"),    // Epoch millis of the latest claim
+            Util.JAVA_INT_LE.withName("generation"), // Bumped for each new owner of the entry
+            paddingLayout(4)
+    ).withName("Owner");
+
+    static final SequenceLayout TABLE = sequenceLayout(MAX_OWNERS, OWNER);
+
+    // https://bugs.openjdk.org/browse/JDK-8331734
+
+    private static final VarHandle LONG = Util.JAVA_LONG_LE.varHandle();
+    private static final VarHandle INT = Util.JAVA_INT_LE.varHandle();
+    private static final long PID_OFFSET = OWNER.byteOffset(groupElement("pid"));
+    private static final long THREAD_ID_OFFSET = OWNER.byteOffset(groupElement("threadId"));
+    private static final long SINCE_OFFSET = OWNER.byteOffset(groupElement("since"));
+    private static final long GENERATION_OFFSET = OWNER.byteOffset(groupElement("generation"));
+
+    private final Arena arena;
+    private final MemorySegment table;
+    private final int id;
+    private final int tag;
+
+    private Owner(Arena arena, MemorySegment table, int id, int generation) {
+        this.arena = arena;
+        this.table = table;
+        this.id = id;
+        this.tag = tag(id, generation);
+    }
+
+    /**
+     * {@return the bits identifying this owner in the flags of the slots it acquires}
+     */
+    int tag() {
+        return tag;
+    }
+
+    /**
+     * Records that this owner is about to claim a slot at the provided {@code epochMillis}.
+     *
+     * @param epochMillis the current time
+     */
+    void claiming(long epochMillis) {
+        LONG.setRelease(table, offset(id) + SINCE_OFFSET, epochMillis);
+    }
+
+    @Override
+    public void close() {
+        LONG.setRelease(table, offset(id) + PID_OFFSET, 0L);
+        arena.close();
+    }
+
+    /**
+     * {@return a new owner for the current thread in the provided {@code file},
+     *          which is created if it does not exist}
+     * <p>
+     * Entries of owners whose process is no longer alive are reused. Slots they
+     * abandoned are still recognized as their generation does not match.
+     *
+     * @param file holding the owners
+     * @throws IllegalStateException if the table is full
+     */
+    static Owner claim(Path file) {
+        Arena arena = Arena.ofShared();
+        MemorySegment table = map(file, arena);
+        long pid = ProcessHandle.current().pid();
+        for (int id = 1; id < MAX_OWNERS; id++) {
+            long offset = offset(id);
+            long current = (long) LONG.getVolatile(table, offset + PID_OFFSET);
+            if ((current == 0 || !isAlive(current)) &&
+                    LONG.compareAndSet(table, offset + PID_OFFSET, current, pid)) {
+                // The entry is ours alone
+                int generation = ((int) INT.get(table, offset + GENERATION_OFFSET) + 1) & 0xFFFF;
+                INT.set(table, offset + GENERATION_OFFSET, generation);
+                LONG.set(table, offset + THREAD_ID_OFFSET, Thread.currentThread().threadId());
+                LONG.setRelease(table, offset + SINCE_OFFSET, System.currentTimeMillis());
+                return new Owner(arena, table, id, generation);
+            }
+        }
+        arena.close();
+        throw new IllegalStateException("No free owner in " + file);
+    }
+
+    /**
+     * A view of the owners of a queue used to tell abandoned slots.
+     */
+    static final class Table implements AutoCloseable {
+
+        private final Arena arena = Arena.ofShared();
+        private final MemorySegment table;
+
+        Table(Path file) {
+            this.table = map(file, arena);
+        }
+
+        /**
+         * {@return if the owner tagged in the provided {@code flags} has died or
+         *          claimed its latest slot before {@code staleBeforeMillis}}
+         *
+         * @param flags             of an acquired slot
+         * @param staleBeforeMillis epoch millis before which claims are stale
+         */
+        boolean isAbandoned(int flags, long staleBeforeMillis) {
+            int id = (flags >>> 8) & 0xFF;
+            if (id == 0) {
+                return false; // No owner recorded
+            }
+            long offset = offset(id);
+            long pid = (long) LONG.getVolatile(table, offset + PID_OFFSET);
+            return pid == 0 ||
+                    tag(id, (int) INT.get(table, offset + GENERATION_OFFSET)) != (flags & 0xFFFF_FF00) ||
+                    (long) LONG.getAcquire(table, offset + SINCE_OFFSET) < staleBeforeMillis ||
+                    !isAlive(pid);
+        }
+
+        @Override
+        public void close() {
+            arena.close();
+        }
+    }
+
+    // Bits 8-15 hold the id and bits 16-31 hold the generation
+    private static int tag(int id, int generation) {
+        return (generation & 0xFFFF) << 16 | id << 8;
+    }
+
+    private static long offset(int id) {
+        return id * OWNER.byteSize();
+    }
+
+    private static boolean isAlive(long pid) {
+        return ProcessHandle.of(pid)
+                .map(ProcessHandle::isAlive)
+                .orElse(false);
+    }
+
+    private static MemorySegment map(Path file, Arena arena) {
+        try (var fc = FileChannel.open(file, CREATE, SPARSE, READ, WRITE)) {
+            return fc.map(READ_WRITE, 0, TABLE.byteSize(), arena);
+        } catch (IOException e) {
+            arena.close();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
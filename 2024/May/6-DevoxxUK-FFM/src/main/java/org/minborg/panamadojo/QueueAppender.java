@@ -0,0 +1,198 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.minborg.panamadojo.Kata5_AtomicOperations.*;
+
+/**
+ * Claims space at the end of a queue, rolling to new files as needed.
+ * <p>
+ * This is the part shared by all producers regardless of how they frame their
+ * entries. Files with a {@code slotSize} of {@link #VARIABLE} hold entries of
+ * varying size.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class QueueAppender implements AutoCloseable {
+
+    static final int VARIABLE = 0;
+
+    // Keeps claims far away from overflowing even for unbounded files
+    private static final long MAX_LIMIT = 1L << 48;
+
+    private final QueueFiles files;
+    private final int slotSize;
+    private final long maxEntrySize;
+    private final long maxLimit;
+    private final Notifier notifier;
+    private final Owner owner;
+    private MappedFile file;    // mmap:ed in chunks
+    private MemorySegment head; // The FILE_HEADER of the file
+    private long baseIndex;
+    private long limit;
+    private long rollAtMillis;
+
+    /**
+     * Creates a new appender.
+     *
+     * @param files        of the queue
+     * @param slotSize     of the entries or {@link #VARIABLE}
+     * @param maxEntrySize the size of the largest entry that will be claimed
+     * @throws IllegalArgumentException if entries may not fit in a chunk overlap or a file
+     */
+    QueueAppender(QueueFiles files, int slotSize, long maxEntrySize) {
+        this.files = files;
+        this.slotSize = slotSize;
+        this.maxEntrySize = maxEntrySize;
+        if (maxEntrySize > MappedFile.OVERLAP) {
+            throw new IllegalArgumentException("Entry too large: " + maxEntrySize);
+        }
+        this.maxLimit = Math.min(files.maxFileSize(), MAX_LIMIT) - FileHeader.SIZE;
+        if (maxEntrySize > maxLimit) {
+            throw new IllegalArgumentException("Entry too large for the max file size: " + maxEntrySize);
+        }
+        this.notifier = Notifier.of(files.location());
+        this.owner = Owner.claim(files.owners());
+        try {
+            open(files.current(System.currentTimeMillis()));
+        } catch (RuntimeException e) {
+            owner.close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@return the position of {@code size} newly claimed bytes}
+     * <p>
+     * The claimed bytes are always in the current file and in a single chunk.
+     *
+     * @param size to claim, at most {@link #maxClaim()}
+     */
+    long claim(long size) {
+        for (;;) {
+            long now = System.currentTimeMillis();
+            if (now >= rollAtMillis) {
+                seal();
+                continue;
+            }
+            owner.claiming(now);
+            long claim = FileHeader.claim(head, size);
+            if (claim + size <= limit) {
+                return FileHeader.SIZE + claim;
+            }
+            if (claim <= limit) {
+                // We claimed the space crossing the limit
+                roll(claim);
+            } else {
+                // Another producer has ended this file
+                open(awaitFollowing());
+            }
+        }
+    }
+
+    /**
+     * {@return the chunk of the current file holding the {@code length} bytes at
+     *          the provided {@code position}}
+     *
+     * @param position in the file
+     * @param length   of the region
+     */
+    MemorySegment chunkAt(long position, long length) {
+        return file.chunkAt(position, length);
+    }
+
+    /**
+     * {@return the index of the entry at the provided {@code position} in the
+     *          current file}
+     *
+     * @param position of a fixed size slot
+     */
+    long index(long position) {
+        return baseIndex + (position - FileHeader.SIZE) / slotSize + 1;
+    }
+
+    /**
+     * {@return the max number of bytes that can be claimed at once in the current file}
+     */
+    long maxClaim() {
+        return Math.min(MappedFile.OVERLAP, limit);
+    }
+
+    /**
+     * {@return the flags of slots acquired by this appender}
+     */
+    int acquired() {
+        return Header.ACQUIRED | owner.tag();
+    }
+
+    /**
+     * Wakes up consumers waiting for the current file.
+     */
+    void signal() {
+        FileHeader.signal(head);
+        notifier.signal();
+    }
+
+    @Override
+    public void close() {
+        file.close();
+        owner.close();
+    }
+
+    // Ends the file before its limit
+    private void seal() {
+        if (FileHeader.tail(head) <= limit) {
+            // Make all future claims exceed the limit
+            long claim = FileHeader.claim(head, limit + 1);
+            if (claim <= limit) {
+                roll(claim);
+                return;
+            }
+        }
+        open(awaitFollowing());
+    }
+
+    private void roll(long claim) {
+        FileHeader.end(head, claim);
+        long position = FileHeader.SIZE + claim;
+        Path next = files.next(file.path(), System.currentTimeMillis());
+        // Entries before the claim are all in this file
+        long nextBaseIndex = slotSize == VARIABLE ? 0 : baseIndex + claim / slotSize;
+        FileHeader.create(next, slotSize, nextBaseIndex, maxLimit);
+        Header header = new Header(file.chunkAt(position, HEADER.byteSize())
+                .asSlice(MappedFile.offsetInChunk(position), HEADER));
+        if (!header.roll()) {
+            throw new IllegalStateException("Panic! " + header);
+        }
+        signal();
+        open(next);
+    }
+
+    private void open(Path path) {
+        if (file != null) {
+            file.close();
+        }
+        file = MappedFile.ofWritable(path);
+        head = file.prefix(FileHeader.SIZE);
+        FileHeader.init(head, slotSize, 0, maxLimit);
+        // The file might have been created by another producer
+        baseIndex = FileHeader.baseIndex(head);
+        limit = Math.min(FileHeader.limit(head), MAX_LIMIT);
+        if (maxEntrySize > limit) {
+            throw new IllegalStateException("Entry too large for the file: " + path);
+        }
+        rollAtMillis = files.rollAtMillis(path);
+    }
+
+    private Path awaitFollowing() {
+        Optional<Path> following;
+        while ((following = files.following(file.path())).isEmpty()) {
+            // The producer that ended the file is about to create the next one
+            Thread.onSpinWait();
+        }
+        return following.get();
+    }
+
+}
@@ -0,0 +1,639 @@
+package org.minborg.panamadojo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.PaddingLayout;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.MemoryLayout.paddingLayout;
+import static java.lang.foreign.MemoryLayout.structLayout;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A compact, column-per-element copy of a finished queue for historical replays.
+ * <p>
+ * Queue files are mostly sparse regions and slots with an 8-byte header. An archive
+ * only holds the values of the elements, one column per element of the layout
+ * (e.g. time, symbol, high, last and low). Columns with few distinct values (like
+ * symbols) are dictionary encoded with one byte per value and the others (like
+ * times and prices) are delta encoded as zigzag varints. Columns are split in
+ * blocks that can be decoded on their own so that archives can be seeked.
+ * <p>
+ * Only layouts with {@code int} and {@code long} elements are supported. Aborted
+ * elements are left out but the others keep their index in the queue, which is kept
+ * in an extra delta encoded column. So, a consumer can continue on an archive at the
+ * index it got to in the queue.
+ * <p>
+ * Archives are read via {@link QueueConsumer#ofArchive(RecordMapper, Path)}.
+ */
+public final class QueueArchive {
+
+    private QueueArchive() {}
+
+    // ARCHIVE FILE:
+    // ARCHIVE_HEADER, COLUMN * columns, BLOCK * columns * blocks, dictionaries, column data
+    // where the last column holds the indexes of the elements in the queue
+
+    static final StructLayout ARCHIVE_HEADER = structLayout(
+            Util.JAVA_LONG_LE.withName("magic"),
+            Util.JAVA_INT_LE.withName("version"),
+            Util.JAVA_INT_LE.withName("columns"),
+            Util.JAVA_LONG_LE.withName("count"),      // Number of elements
+            Util.JAVA_LONG_LE.withName("firstIndex"), // Index of the first slot in the queue
+            Util.JAVA_LONG_LE.withName("endIndex"),   // Index following the last element in the queue
+            Util.JAVA_INT_LE.withName("blockSize"),   // Elements per block
+            Util.JAVA_INT_LE.withName("blocks")
+    ).withName("ArchiveHeader");
+
+    static final StructLayout COLUMN = structLayout(
+            Util.JAVA_INT_LE.withName("encoding"),
+            Util.JAVA_INT_LE.withName("byteSize"),        // Of the values, 4 or 8
+            Util.JAVA_INT_LE.withName("dictionarySize"),
+            paddingLayout(4),
+            Util.JAVA_LONG_LE.withName("dictionaryOffset"), // long values
+            Util.JAVA_LONG_LE.withName("dataOffset")
+    ).withName("Column");
+
+    static final StructLayout BLOCK = structLayout(
+            Util.JAVA_LONG_LE.withName("offset"), // Of the block relative to the column data
+            Util.JAVA_LONG_LE.withName("first")   // The first value of the block
+    ).withName("Block");
+
+    static final long MAGIC = 0x412D_414D_414E_4150L; // "PANAMA-A" in little endian
+    static final int VERSION = 1;
+
+    static final int DELTA = 1;      // Zigzag varint differences to the previous value
+    static final int DICTIONARY = 2; // One byte index in the dictionary
+
+    static final int BLOCK_SIZE = 4096;
+    static final int MAX_DICTIONARY_SIZE = 256;
+
+    // https://bugs.openjdk.org/browse/JDK-8331734
+
+    private static final VarHandle INT = Util.JAVA_INT_LE.varHandle();
+    private static final VarHandle LONG = Util.JAVA_LONG_LE.varHandle();
+    private static final long VERSION_OFFSET = ARCHIVE_HEADER.byteOffset(groupElement("version"));
+    private static final long COLUMNS_OFFSET = ARCHIVE_HEADER.byteOffset(groupElement("columns"));
+    private static final long COUNT_OFFSET = ARCHIVE_HEADER.byteOffset(groupElement("count"));
+    private static final long FIRST_INDEX_OFFSET = ARCHIVE_HEADER.byteOffset(groupElement("firstIndex"));
+    private static final long END_INDEX_OFFSET = ARCHIVE_HEADER.byteOffset(groupElement("endIndex"));
+    private static final long BLOCK_SIZE_OFFSET = ARCHIVE_HEADER.byteOffset(groupElement("blockSize"));
+    private static final long BLOCKS_OFFSET = ARCHIVE_HEADER.byteOffset(groupElement("blocks"));
+    private static final long ENCODING_OFFSET = COLUMN.byteOffset(groupElement("encoding"));
+    private static final long BYTE_SIZE_OFFSET = COLUMN.byteOffset(groupElement("byteSize"));
+    private static final long DICTIONARY_SIZE_OFFSET = COLUMN.byteOffset(groupElement("dictionarySize"));
+    private static final long DICTIONARY_OFFSET = COLUMN.byteOffset(groupElement("dictionaryOffset"));
+    private static final long DATA_OFFSET = COLUMN.byteOffset(groupElement("dataOffset"));
+    private static final long BLOCK_OFFSET = BLOCK.byteOffset(groupElement("offset"));
+    private static final long FIRST_OFFSET = BLOCK.byteOffset(groupElement("first"));
+
+    // The column of the indexes, which are not part of the elements
+    private static final Column INDEX = new Column(0, Long.BYTES);
+
+    /**
+     * Writes an archive of the completed elements of the provided {@code queue} file.
+     * Elements completed while the queue is archived might be left out.
+     * <p>
+     * The columns are encoded to temporary files next to the archive that are then
+     * copied into it so that the size of an archive is not bounded by the heap.
+     *
+     * @param mapper  of the elements
+     * @param queue   file to archive
+     * @param archive file to create (or replace)
+     * @param <T>     element type
+     * @return the number of elements archived
+     * @throws IllegalArgumentException if the layout has elements other than {@code int} and {@code long}
+     */
+    public static <T extends Record> long write(RecordMapper<T> mapper, Path queue, Path archive) {
+        Column[] columns = columns(mapper.layout());
+        RawSlot slot = new RawSlot(mapper.layout());
+
+        // Pass 1: Find the columns with few distinct values
+        List<Map<Long, Integer>> distinct = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            distinct.add(new HashMap<>());
+        }
+        long firstIndex;
+        long[] count = new long[1];
+        try (var consumer = QueueConsumer.of(mapper, queue)) {
+            firstIndex = consumer.index();
+            Consumer<RawSlot> collect = s -> {
+                for (int i = 0; i < columns.length; i++) {
+                    Map<Long, Integer> values = distinct.get(i);
+                    if (values.size() <= MAX_DICTIONARY_SIZE) {
+                        values.putIfAbsent(columns[i].get(s.segment(), s.offset()), values.size());
+                    }
+                }
+                count[0]++;
+            };
+            while (consumer.drainTo(slot, collect, BLOCK_SIZE) > 0) {}
+        }
+        int blocks = Math.toIntExact((count[0] + BLOCK_SIZE - 1) / BLOCK_SIZE);
+
+        // Pass 2: Encode the same elements as in pass 1
+        Encoder[] encoders = new Encoder[columns.length + 1];
+        try {
+            for (int i = 0; i < encoders.length; i++) {
+                Path tmp = archive.resolveSibling(archive.getFileName() + "." + i + ".tmp");
+                encoders[i] = i < columns.length
+                        ? new Encoder(columns[i], distinct.get(i), blocks, tmp)
+                        : new Encoder(INDEX, null, blocks, tmp);
+            }
+            Encoder indexes = encoders[columns.length];
+            long endIndex;
+            try (var consumer = QueueConsumer.of(mapper, queue)) {
+                Consumer<RawSlot> encode = s -> {
+                    for (int i = 0; i < columns.length; i++) {
+                        encoders[i].add(s.segment(), s.offset());
+                    }
+                    // The consumer has already moved past the element
+                    indexes.add(consumer.index() - 1);
+                };
+                long remaining = count[0];
+                int read;
+                while (remaining > 0 &&
+                        (read = consumer.drainTo(slot, encode, (int) Math.min(BLOCK_SIZE, remaining))) > 0) {
+                    remaining -= read;
+                }
+                endIndex = consumer.index();
+            }
+            for (Encoder encoder : encoders) {
+                encoder.flush();
+            }
+            return write(encoders, count[0], firstIndex, endIndex, blocks, archive);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (Encoder encoder : encoders) {
+                if (encoder != null) {
+                    encoder.close();
+                }
+            }
+        }
+    }
+
+    private static long write(Encoder[] encoders,
+                              long count,
+                              long firstIndex,
+                              long endIndex,
+                              int blocks,
+                              Path archive) throws IOException {
+        // Everything but the column data
+        int columns = encoders.length;
+        long size = ARCHIVE_HEADER.byteSize() +
+                COLUMN.byteSize() * columns +
+                BLOCK.byteSize() * columns * blocks;
+        for (Encoder encoder : encoders) {
+            size += (long) Long.BYTES * encoder.dictionary.length;
+        }
+        Path tmp = archive.resolveSibling(archive.getFileName() + ".tmp");
+        try (var arena = Arena.ofConfined();
+             var fc = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            MemorySegment head = arena.allocate(size, Long.BYTES);
+            LONG.set(head, 0L, MAGIC);
+            INT.set(head, VERSION_OFFSET, VERSION);
+            INT.set(head, COLUMNS_OFFSET, columns);
+            LONG.set(head, COUNT_OFFSET, count);
+            LONG.set(head, FIRST_INDEX_OFFSET, firstIndex);
+            LONG.set(head, END_INDEX_OFFSET, endIndex);
+            INT.set(head, BLOCK_SIZE_OFFSET, BLOCK_SIZE);
+            INT.set(head, BLOCKS_OFFSET, blocks);
+            long dictionaryOffset = ARCHIVE_HEADER.byteSize() +
+                    COLUMN.byteSize() * columns +
+                    BLOCK.byteSize() * columns * blocks;
+            long dataOffset = size;
+            for (int i = 0; i < columns; i++) {
+                Encoder encoder = encoders[i];
+                long column = ARCHIVE_HEADER.byteSize() + COLUMN.byteSize() * i;
+                INT.set(head, column + ENCODING_OFFSET, encoder.encoding);
+                INT.set(head, column + BYTE_SIZE_OFFSET, encoder.column.byteSize());
+                INT.set(head, column + DICTIONARY_SIZE_OFFSET, encoder.dictionary.length);
+                LONG.set(head, column + DICTIONARY_OFFSET, dictionaryOffset);
+                LONG.set(head, column + DATA_OFFSET, dataOffset);
+                for (long value : encoder.dictionary) {
+                    LONG.set(head, dictionaryOffset, value);
+                    dictionaryOffset += Long.BYTES;
+                }
+                for (int b = 0; b < blocks; b++) {
+                    long block = blockOffset(columns, b, i);
+                    LONG.set(head, block + BLOCK_OFFSET, encoder.blockOffsets[b]);
+                    LONG.set(head, block + FIRST_OFFSET, encoder.blockFirsts[b]);
+                }
+                dataOffset += encoder.size;
+            }
+            write(fc, head.asByteBuffer());
+            for (Encoder encoder : encoders) {
+                encoder.transferTo(fc);
+            }
+        }
+        Files.move(tmp, archive, ATOMIC_MOVE);
+        return count;
+    }
+
+    private static void write(FileChannel fc, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            fc.write(buffer);
+        }
+    }
+
+    private static long blockOffset(int columns, int block, int column) {
+        return ARCHIVE_HEADER.byteSize() +
+                COLUMN.byteSize() * columns +
+                BLOCK.byteSize() * ((long) block * columns + column);
+    }
+
+    // An int or long element of the layout
+    private record Column(long offset, int byteSize) {
+
+        long get(MemorySegment segment, long base) {
+            return byteSize == Long.BYTES
+                    ? (long) LONG.get(segment, base + offset)
+                    : (int) INT.get(segment, base + offset);
+        }
+
+        void set(MemorySegment segment, long base, long value) {
+            if (byteSize == Long.BYTES) {
+                LONG.set(segment, base + offset, value);
+            } else {
+                INT.set(segment, base + offset, (int) value);
+            }
+        }
+    }
+
+    private static Column[] columns(MemoryLayout layout) {
+        if (!(layout instanceof StructLayout struct)) {
+            throw new IllegalArgumentException("Not a struct: " + layout);
+        }
+        List<Column> columns = new ArrayList<>();
+        long offset = 0;
+        for (MemoryLayout member : struct.memberLayouts()) {
+            switch (member) {
+                case PaddingLayout _ -> {}
+                case ValueLayout.OfLong _ -> columns.add(new Column(offset, Long.BYTES));
+                case ValueLayout.OfInt _ -> columns.add(new Column(offset, Integer.BYTES));
+                default -> throw new IllegalArgumentException("Unsupported element: " + member);
+            }
+            offset += member.byteSize();
+        }
+        return columns.toArray(new Column[0]);
+    }
+
+    // Encodes a column to a temporary file that is deleted when closed. Columns with
+    // no distinct values (like indexes) are delta encoded
+    private static final class Encoder implements AutoCloseable {
+
+        private final Column column;
+        private final int encoding;
+        private final Map<Long, Integer> codes;
+        private final long[] dictionary;
+        private final long[] blockOffsets;
+        private final long[] blockFirsts;
+        private final FileChannel data;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private long size;
+        private long count;
+        private long previous;
+
+        Encoder(Column column, Map<Long, Integer> distinct, int blocks, Path tmp) throws IOException {
+            this.data = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, READ, WRITE, DELETE_ON_CLOSE);
+            this.column = column;
+            boolean dictionary = distinct != null && distinct.size() <= MAX_DICTIONARY_SIZE;
+            this.encoding = dictionary ? DICTIONARY : DELTA;
+            this.codes = dictionary ? distinct : Map.of();
+            this.dictionary = new long[codes.size()];
+            codes.forEach((value, code) -> this.dictionary[code] = value);
+            this.blockOffsets = new long[blocks];
+            this.blockFirsts = new long[blocks];
+        }
+
+        void add(MemorySegment segment, long base) {
+            add(column.get(segment, base));
+        }
+
+        void add(long value) {
+            boolean first = count % BLOCK_SIZE == 0;
+            if (first) {
+                int block = (int) (count / BLOCK_SIZE);
+                blockOffsets[block] = size;
+                blockFirsts[block] = value;
+            }
+            if (encoding == DICTIONARY) {
+                write(codes.get(value));
+            } else if (!first) {
+                // The first value of a block is in the BLOCK
+                writeVarLong(value - previous);
+            }
+            previous = value;
+            count++;
+        }
+
+        private void writeVarLong(long value) {
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                write((int) ((zigzag & 0x7F) | 0x80));
+                zigzag >>>= 7;
+            }
+            write((int) zigzag);
+        }
+
+        private void write(int b) {
+            if (!buffer.hasRemaining()) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            buffer.put((byte) b);
+            size++;
+        }
+
+        void flush() throws IOException {
+            QueueArchive.write(data, buffer.flip());
+            buffer.clear();
+        }
+
+        void transferTo(FileChannel target) throws IOException {
+            for (long position = 0; position < size; ) {
+                position += data.transferTo(position, size - position, target);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                data.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * A consumer of an archive that decodes one block at a time.
+     */
+    static final class Reader<T extends Record> implements QueueConsumer<T> {
+
+        private final RecordMapper<T> mapper;
+        private final Arena arena = Arena.ofShared();
+        private final MemorySegment archive;
+        private final Column[] columns;
+        private final int[] encodings;
+        private final long[] dataOffsets;
+        private final long[][] dictionaries;
+        private final long count;
+        private final long firstIndex;
+        private final long endIndex;
+        private final int blockSize;
+        private final long stride;
+        private final MemorySegment rows;    // The decoded block
+        private final MemorySegment indexes; // The indexes of the decoded block
+        private int decoded = -1;         // The decoded block or -1
+        private long ordinal;             // Of the next element
+        private long cursor;              // Used while decoding varints
+
+        Reader(RecordMapper<T> mapper, Path path) {
+            this.mapper = mapper;
+            try (var fc = FileChannel.open(path, READ)) {
+                this.archive = fc.map(READ_ONLY, 0, fc.size(), arena);
+            } catch (IOException e) {
+                arena.close();
+                throw new UncheckedIOException(e);
+            }
+            try {
+                if (archive.byteSize() < ARCHIVE_HEADER.byteSize() ||
+                        (long) LONG.get(archive, 0L) != MAGIC ||
+                        (int) INT.get(archive, VERSION_OFFSET) != VERSION) {
+                    throw new IllegalStateException("Not an archive: " + path);
+                }
+                this.columns = columns(mapper.layout());
+                int n = (int) INT.get(archive, COLUMNS_OFFSET);
+                if (n != columns.length + 1) {
+                    throw new IllegalStateException("Layout mismatch: " + mapper.layout());
+                }
+                this.encodings = new int[n];
+                this.dataOffsets = new long[n];
+                this.dictionaries = new long[n][];
+                for (int i = 0; i < n; i++) {
+                    long column = ARCHIVE_HEADER.byteSize() + COLUMN.byteSize() * i;
+                    if ((int) INT.get(archive, column + BYTE_SIZE_OFFSET) != column(i).byteSize()) {
+                        throw new IllegalStateException("Layout mismatch: " + mapper.layout());
+                    }
+                    encodings[i] = (int) INT.get(archive, column + ENCODING_OFFSET);
+                    dataOffsets[i] = (long) LONG.get(archive, column + DATA_OFFSET);
+                    long dictionaryOffset = (long) LONG.get(archive, column + DICTIONARY_OFFSET);
+                    dictionaries[i] = new long[(int) INT.get(archive, column + DICTIONARY_SIZE_OFFSET)];
+                    for (int code = 0; code < dictionaries[i].length; code++) {
+                        dictionaries[i][code] = (long) LONG.get(archive, dictionaryOffset + (long) Long.BYTES * code);
+                    }
+                }
+                this.count = (long) LONG.get(archive, COUNT_OFFSET);
+                this.firstIndex = (long) LONG.get(archive, FIRST_INDEX_OFFSET);
+                this.endIndex = (long) LONG.get(archive, END_INDEX_OFFSET);
+                this.blockSize = (int) INT.get(archive, BLOCK_SIZE_OFFSET);
+                this.stride = mapper.layout().byteSize();
+                this.rows = arena.allocate(stride * blockSize, Long.BYTES);
+                this.indexes = arena.allocate((long) Long.BYTES * blockSize, Long.BYTES);
+            } catch (RuntimeException e) {
+                arena.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public Optional<T> next() {
+            if (ordinal >= count) {
+                return Optional.empty();
+            }
+            return Optional.of(mapper.get(rows.asSlice(row(ordinal++), mapper.layout())));
+        }
+
+        @Override
+        public int drainTo(Consumer<? super T> action, int max) {
+            int n = 0;
+            for (; n < max && ordinal < count; n++) {
+                action.accept(mapper.get(rows.asSlice(row(ordinal++), mapper.layout())));
+            }
+            return n;
+        }
+
+        @Override
+        public <F extends Flyweight> boolean next(F flyweight, Consumer<? super F> action) {
+            return drainTo(flyweight, action, 1) > 0;
+        }
+
+        @Override
+        public <F extends Flyweight> int drainTo(F flyweight, Consumer<? super F> action, int max) {
+            if (flyweight.layout().byteSize() != stride) {
+                throw new IllegalArgumentException("Layout mismatch: " + flyweight.layout());
+            }
+            int n = 0;
+            for (; n < max && ordinal < count; n++) {
+                flyweight.rebase(rows, row(ordinal++));
+                action.accept(flyweight);
+            }
+            return n;
+        }
+
+        @Override
+        public long index() {
+            return ordinal < count
+                    ? value(columns.length, ordinal)
+                    : endIndex;
+        }
+
+        @Override
+        public boolean seek(long index) {
+            if (index < 1) {
+                throw new IllegalArgumentException("index < 1: " + index);
+            }
+            // Aborted elements are skipped like in the queue
+            seek(columns.length, index);
+            return index >= firstIndex && ordinal < count;
+        }
+
+        @Override
+        public void seekToEnd() {
+            ordinal = count;
+        }
+
+        @Override
+        public void seekToTime(long time) {
+            seek(timeColumn(), time);
+        }
+
+        @Override
+        public Yielder yielder() {
+            // Archives never grow
+            return Yielder.ofAdaptive();
+        }
+
+        @Override
+        public void close() {
+            arena.close();
+        }
+
+        // Moves to the first element with a value in the column not less than the
+        // provided value. The values of the column must be ascending
+        private void seek(int column, long value) {
+            int blocks = (int) INT.get(archive, BLOCKS_OFFSET);
+            // The first block starting at or after the value
+            int low = 0;
+            int high = blocks;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if ((long) LONG.get(archive, blockOffset(encodings.length, mid, column) + FIRST_OFFSET) < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            // The element might be in the block before
+            ordinal = Math.min((long) low * blockSize, count);
+            if (low > 0) {
+                long start = (long) (low - 1) * blockSize;
+                for (long o = start; o < ordinal; o++) {
+                    if (value(column, o) >= value) {
+                        ordinal = o;
+                        break;
+                    }
+                }
+            }
+        }
+
+        // Returns the value of the element in the column, decoding its block if needed
+        private long value(int column, long ordinal) {
+            long row = row(ordinal);
+            return column < columns.length
+                    ? columns[column].get(rows, row)
+                    : (long) LONG.get(indexes, (ordinal % blockSize) * Long.BYTES);
+        }
+
+        private Column column(int column) {
+            return column < columns.length ? columns[column] : INDEX;
+        }
+
+        private int timeColumn() {
+            StructLayout struct = (StructLayout) mapper.layout();
+            int column = 0;
+            for (MemoryLayout member : struct.memberLayouts()) {
+                if (member instanceof PaddingLayout) {
+                    continue;
+                }
+                if (member instanceof ValueLayout.OfLong && member.name().orElse("").equals("time")) {
+                    return column;
+                }
+                column++;
+            }
+            throw new UnsupportedOperationException("No long time element in " + mapper.layout());
+        }
+
+        // Returns the offset in rows of the element, decoding its block if needed
+        private long row(long ordinal) {
+            int block = (int) (ordinal / blockSize);
+            if (block != decoded) {
+                decode(block);
+            }
+            return (ordinal % blockSize) * stride;
+        }
+
+        private void decode(int block) {
+            int n = (int) Math.min(blockSize, count - (long) block * blockSize);
+            for (int i = 0; i < encodings.length; i++) {
+                Column column = column(i);
+                // The indexes are kept apart from the rows the elements are read from
+                MemorySegment target = i < columns.length ? rows : indexes;
+                long step = i < columns.length ? stride : Long.BYTES;
+                long entry = blockOffset(encodings.length, block, i);
+                cursor = dataOffsets[i] + (long) LONG.get(archive, entry + BLOCK_OFFSET);
+                if (encodings[i] == DICTIONARY) {
+                    long[] dictionary = dictionaries[i];
+                    for (int r = 0; r < n; r++) {
+                        column.set(target, r * step, dictionary[archive.get(JAVA_BYTE, cursor++) & 0xFF]);
+                    }
+                } else {
+                    long value = (long) LONG.get(archive, entry + FIRST_OFFSET);
+                    column.set(target, 0, value);
+                    for (int r = 1; r < n; r++) {
+                        value += readVarLong();
+                        column.set(target, r * step, value);
+                    }
+                }
+            }
+            decoded = block;
+        }
+
+        private long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = archive.get(JAVA_BYTE, cursor++);
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+    }
+
+}
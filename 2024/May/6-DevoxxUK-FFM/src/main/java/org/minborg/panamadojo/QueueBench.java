@@ -0,0 +1,263 @@
+package org.minborg.panamadojo;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.minborg.panamadojo.Kata2_RecordMapper.MARKET_INFO_RECORD_MAPPER;
+import static org.minborg.panamadojo.Kata2_RecordMapper.MarketInfoRecord;
+
+/**
+ * Benchmarks of the memory-mapped queue.
+ * <ul>
+ *     <li>{@code append} and {@code appendAll}: append throughput. Use {@code -t N}
+ *     to scale the number of producers.</li>
+ *     <li>{@code pubSub}: throughput with producers and consumers running at the
+ *     same time. Use {@code -tg P,C} to scale the number of producers and consumers.
+ *     The consumers' throughput is the {@code consumed} counter as polls that find
+ *     nothing are not elements.</li>
+ *     <li>{@code roundTrip}: the latency for an element to go to an echo thread and
+ *     back via two queues, reported with percentiles (p50, p99, p99.9, ...).</li>
+ * </ul>
+ * Benchmarks with consumers are run for each {@link Yielder} strategy.
+ * <p>
+ * Example: {@code java -cp ... org.minborg.panamadojo.QueueBench QueueBench.append -t 4}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 3)
+public class QueueBench {
+
+    private static final MarketInfoRecord RECORD =
+            new MarketInfoRecord(24_05_08__11_15_23L, Util.symbolAsInt("ORCL"), 107, 106, 104);
+
+    private static final int BATCH_SIZE = 64;
+
+    private static final List<MarketInfoRecord> BATCH = Collections.nCopies(BATCH_SIZE, RECORD);
+
+    // A new queue for each iteration so the files are kept small
+    @State(Scope.Benchmark)
+    public static class Queue {
+
+        Path directory;
+
+        @Setup(Level.Iteration)
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("queue-bench");
+            // Creates the file so consumers can open it right away
+            QueueProducer.of(MARKET_INFO_RECORD_MAPPER, path()).close();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            delete(directory);
+        }
+
+        Path path() {
+            return directory.resolve("bench.queue");
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+
+        QueueProducer<MarketInfoRecord> producer;
+
+        @Setup(Level.Iteration)
+        public void setup(Queue queue) {
+            producer = QueueProducer.of(MARKET_INFO_RECORD_MAPPER, queue.path());
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            producer.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Subscriber {
+
+        @Param({"busy", "yield", "sleep", "adaptive", "notify"})
+        public String yielder;
+
+        QueueConsumer<MarketInfoRecord> consumer;
+        Yielder strategy;
+        MarketInfoFlyweight flyweight;
+        Consumer<MarketInfoFlyweight> action;
+        long sum;
+
+        @Setup(Level.Iteration)
+        public void setup(Queue queue) {
+            consumer = QueueConsumer.of(MARKET_INFO_RECORD_MAPPER, queue.path());
+            strategy = yielder(yielder, consumer);
+            flyweight = new MarketInfoFlyweight();
+            action = f -> sum += f.last();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            consumer.close();
+        }
+    }
+
+    // Counts the elements read by a subscriber, reset for each iteration
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Consumed {
+
+        public long consumed;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            consumed = 0;
+        }
+    }
+
+    // Elements go to an echo thread via one queue and come back via another
+    @State(Scope.Benchmark)
+    public static class PingPong {
+
+        @Param({"busy", "yield", "sleep", "adaptive", "notify"})
+        public String yielder;
+
+        Path directory;
+        QueueProducer<MarketInfoRecord> ping;
+        QueueConsumer<MarketInfoRecord> pong;
+        Yielder strategy;
+        MarketInfoFlyweight flyweight;
+        Consumer<MarketInfoFlyweight> action;
+        volatile boolean running;
+        Thread echo;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("queue-bench");
+            Path pingPath = directory.resolve("ping.queue");
+            Path pongPath = directory.resolve("pong.queue");
+            ping = QueueProducer.of(MARKET_INFO_RECORD_MAPPER, pingPath);
+            var echoProducer = QueueProducer.of(MARKET_INFO_RECORD_MAPPER, pongPath);
+            var echoConsumer = QueueConsumer.of(MARKET_INFO_RECORD_MAPPER, pingPath);
+            pong = QueueConsumer.of(MARKET_INFO_RECORD_MAPPER, pongPath);
+            strategy = yielder(yielder, pong);
+            flyweight = new MarketInfoFlyweight();
+            action = f -> {};
+            running = true;
+            echo = Thread.ofPlatform().name("echo").start(() -> {
+                Yielder echoStrategy = yielder(yielder, echoConsumer);
+                try (echoProducer; echoConsumer) {
+                    while (running) {
+                        if (echoConsumer.drainTo(echoProducer::append, 16) > 0) {
+                            echoStrategy.reset();
+                        } else {
+                            echoStrategy.yield();
+                        }
+                    }
+                }
+            });
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            running = false;
+            echo.join();
+            ping.close();
+            pong.close();
+            delete(directory);
+        }
+    }
+
+    @Benchmark
+    public void append(Producer producer) {
+        producer.producer.append(RECORD);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void appendAll(Producer producer) {
+        producer.producer.appendAll(BATCH);
+    }
+
+    @Benchmark
+    @Group("pubSub")
+    @GroupThreads(1)
+    public void publish(Producer producer) {
+        producer.producer.append(RECORD);
+    }
+
+    @Benchmark
+    @Group("pubSub")
+    @GroupThreads(1)
+    public long subscribe(Subscriber subscriber, Consumed consumed) {
+        if (subscriber.consumer.next(subscriber.flyweight, subscriber.action)) {
+            consumed.consumed++;
+            subscriber.strategy.reset();
+        } else {
+            subscriber.strategy.yield();
+        }
+        return subscriber.sum;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void roundTrip(PingPong pingPong) {
+        pingPong.ping.append(RECORD);
+        while (!pingPong.pong.next(pingPong.flyweight, pingPong.action)) {
+            pingPong.strategy.yield();
+        }
+        pingPong.strategy.reset();
+    }
+
+    static Yielder yielder(String name, QueueConsumer<?> consumer) {
+        return switch (name) {
+            case "busy" -> Yielder.ofBusy();
+            case "yield" -> Yielder.ofYield();
+            case "sleep" -> Yielder.ofSleep(TimeUnit.MICROSECONDS.toNanos(5));
+            case "adaptive" -> Yielder.ofAdaptive();
+            case "notify" -> consumer.yielder();
+            default -> throw new IllegalArgumentException(name);
+        };
+    }
+
+    static void delete(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+}
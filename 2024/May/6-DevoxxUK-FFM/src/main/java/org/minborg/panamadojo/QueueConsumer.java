@@ -1,17 +1,16 @@
 package org.minborg.panamadojo;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.lang.foreign.Arena;
+import java.lang.foreign.GroupLayout;
+import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
-import java.nio.channels.FileChannel;
-import java.nio.file.OpenOption;
+import java.lang.foreign.ValueLayout;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
-import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
-import static java.nio.file.StandardOpenOption.*;
 import static org.minborg.panamadojo.Kata5_AtomicOperations.*;
 import static org.minborg.panamadojo.Kata5_AtomicOperations.HEADER;
 
@@ -19,59 +18,474 @@ public interface QueueConsumer<T extends Record> extends AutoCloseable {
 
     /**
      * {@return the next element from the queue or else returns Optional.empty()}
+     * <p>
+     * A named consumer regards the element returned by the previous call as processed
+     * and checkpoints it when this method is called again.
      */
     Optional<T> next();
 
+    /**
+     * Reads every completed element, up to {@code max} elements, from the queue
+     * and passes them to the provided {@code action} in order.
+     *
+     * @param action to perform on each element
+     * @param max    number of elements to read
+     * @return the number of elements read
+     */
+    int drainTo(Consumer<? super T> action, int max);
+
+    /**
+     * Repositions the provided {@code flyweight} over the next element, if any, and
+     * passes it to the provided {@code action}.
+     * <p>
+     * The element is neither copied nor deserialized, and no objects are allocated.
+     * The flyweight must only be used during the action. Elements that need to be
+     * retained must be copied.
+     *
+     * @param flyweight to reposition over the element
+     * @param action    to perform on the flyweight
+     * @param <F>       flyweight type
+     * @return if an element was read
+     * @throws IllegalArgumentException if the flyweight's layout does not match the queue's
+     */
+    <F extends Flyweight> boolean next(F flyweight, Consumer<? super F> action);
+
+    /**
+     * Repositions the provided {@code flyweight} over every completed element, up to
+     * {@code max} elements, and passes it to the provided {@code action} in order.
+     *
+     * @param flyweight to reposition over the elements
+     * @param action    to perform on the flyweight
+     * @param max       number of elements to read
+     * @param <F>       flyweight type
+     * @return the number of elements read
+     * @throws IllegalArgumentException if the flyweight's layout does not match the queue's
+     * @see #next(Flyweight, Consumer)
+     */
+    <F extends Flyweight> int drainTo(F flyweight, Consumer<? super F> action, int max);
+
+    /**
+     * {@return the index of the next element to be read (the first element in the
+     *          queue has index 1)}
+     */
+    long index();
+
+    /**
+     * Positions this consumer so that the next element read is the one with the
+     * provided {@code index}.
+     * <p>
+     * As all slots in a file have the same size, this is a constant time operation
+     * once the file holding the index is found. If the element is not (yet) in the
+     * queue, this consumer is positioned at the end of the queue.
+     *
+     * @param index of the next element to read
+     * @return if an element with the provided index was found
+     * @throws IllegalArgumentException if the provided {@code index} is less than one
+     */
+    boolean seek(long index);
+
+    /**
+     * Positions this consumer at the end of the queue so that only elements appended
+     * after this call will be read.
+     */
+    void seekToEnd();
+
+    /**
+     * Positions this consumer at the first element whose {@code time} is at or after
+     * the provided {@code time}.
+     * <p>
+     * The layout must have a {@code long} element named "time" and the elements must
+     * have been appended in time order. A binary search is made over the slots so
+     * this is an O(log N) operation. Aborted slots are skipped and slots that are still
+     * being written at the end of the queue are regarded as being after any time.
+     *
+     * @param time to seek
+     * @throws UnsupportedOperationException if the layout has no {@code long} "time" element
+     */
+    void seekToTime(long time);
+
+    /**
+     * {@return a new adaptive yielder for this consumer that, once done spinning and
+     *          yielding, parks until a producer in this JVM appends an element}
+     * <p>
+     * Idle consumers then cost nothing while busy consumers keep their latency.
+     * Elements appended by producers in other JVMs are noticed within 10 ms.
+     * The yielder must be {@linkplain Yielder#reset() reset} when an element is read
+     * and must only be used by the thread using this consumer.
+     */
+    Yielder yielder();
+
     @Override
     void close();
 
     static <T extends Record> QueueConsumer<T> of(RecordMapper<T> mapper,
                                                   Path path) {
-        return new Impl<>(mapper, path);
+        return new Impl<>(mapper, QueueFiles.of(path), null);
     }
 
-    final class Impl<T extends Record> implements QueueConsumer<T> {
+    /**
+     * {@return a new named consumer that resumes reading where the last consumer
+     *          with the same {@code name} stopped}
+     * <p>
+     * The index of the next element to read is stored in a checkpoint file next to
+     * the queue file (e.g. {@code 20240508.checkpoints}) once the elements are
+     * processed: after the action of each {@code drainTo} or flyweight {@code next}
+     * call, and for {@link #next()}, when it is called again. So, batches read with
+     * {@code drainTo} are checkpointed once per batch and only the element(s) being
+     * processed when a consumer dies are read again when it is restarted.
+     *
+     * @param mapper to use when reading elements
+     * @param path   of the queue file
+     * @param name   of the consumer, at most 56 bytes in UTF-8
+     */
+    static <T extends Record> QueueConsumer<T> of(RecordMapper<T> mapper,
+                                                  Path path,
+                                                  String name) {
+        QueueFiles files = QueueFiles.of(path);
+        return new Impl<>(mapper, files, Checkpoint.of(files.checkpoints(), name));
+    }
 
-        private static final Set<OpenOption> OPEN_OPTIONS =
-                Set.of(SPARSE, READ);
+    /**
+     * {@return a new consumer that reads all the files in the provided {@code directory}
+     *          written by a {@linkplain QueueProducer#ofRolling rolling producer},
+     *          starting with the oldest file}
+     *
+     * @param mapper    to use when reading elements
+     * @param directory holding the files
+     * @param cycle     used by the producer
+     */
+    static <T extends Record> QueueConsumer<T> ofRolling(RecordMapper<T> mapper,
+                                                         Path directory,
+                                                         RollCycle cycle) {
+        return new Impl<>(mapper, QueueFiles.ofRolling(directory, cycle, Long.MAX_VALUE), null);
+    }
+
+    /**
+     * {@return a new named consumer that reads all the files in the provided
+     *          {@code directory} and resumes where the last consumer with the same
+     *          {@code name} stopped}
+     *
+     * @param mapper    to use when reading elements
+     * @param directory holding the files
+     * @param cycle     used by the producer
+     * @param name      of the consumer, at most 56 bytes in UTF-8
+     * @see #of(RecordMapper, Path, String)
+     */
+    static <T extends Record> QueueConsumer<T> ofRolling(RecordMapper<T> mapper,
+                                                         Path directory,
+                                                         RollCycle cycle,
+                                                         String name) {
+        QueueFiles files = QueueFiles.ofRolling(directory, cycle, Long.MAX_VALUE);
+        return new Impl<>(mapper, files, Checkpoint.of(files.checkpoints(), name));
+    }
+
+    /**
+     * {@return a new consumer of an archive written by
+     *          {@link QueueArchive#write(RecordMapper, Path, Path)}}
+     * <p>
+     * Aborted elements are not archived so the indexes of an archive are dense and
+     * might differ from the ones of the queue after the first aborted element.
+     *
+     * @param mapper  to use when reading elements
+     * @param archive file
+     */
+    static <T extends Record> QueueConsumer<T> ofArchive(RecordMapper<T> mapper,
+                                                         Path archive) {
+        return new QueueArchive.Reader<>(mapper, archive);
+    }
+
+    final class Impl<T extends Record> implements QueueConsumer<T> {
 
         private final RecordMapper<T> mapper;
-        private final Arena arena;
-        private final MemorySegment segment;
+        private final QueueFiles files;
+        private final int slotSize;
+        private final Checkpoint checkpoint; // null for anonymous consumers
+        private final Notifier notifier;
+        private MappedFile file;     // mmap:ed in chunks
+        private MemorySegment chunk; // Holds the latest payload
+        private MemorySegment head;  // The FILE_HEADER of the file or null if not checked
         private long position;
+        private long checkpointed;   // The index last stored in the checkpoint
 
-        public Impl(RecordMapper<T> mapper, Path path) {
+        public Impl(RecordMapper<T> mapper, QueueFiles files, Checkpoint checkpoint) {
             this.mapper = mapper;
-            this.arena = Arena.ofConfined();
-            try (var fc = FileChannel.open(path, OPEN_OPTIONS)) {
-                // Map 1 MiB
-                this.segment = fc.map(READ_ONLY, 0, 1 << 20, arena);
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
+            this.files = files;
+            this.slotSize = Math.toIntExact(HEADER.byteSize() + mapper.layout().byteSize());
+            this.checkpoint = checkpoint;
+            this.notifier = Notifier.of(files.location());
+            open(files.first());
+            if (checkpoint != null && checkpoint.index() > 1) {
+                seek(checkpoint.index());
             }
         }
 
         @Override
         public Optional<T> next() {
-            Header header = headerAtPosition();
-            if (!header.isCompleted()) { // HB
-                return Optional.empty();
+            // The element returned by the previous call is processed once the caller is back
+            checkpoint();
+            return Optional.ofNullable(poll());
+        }
+
+        @Override
+        public int drainTo(Consumer<? super T> action, int max) {
+            int count = 0;
+            T element;
+            while (count < max && (element = poll()) != null) {
+                action.accept(element);
+                count++;
             }
+            if (count > 0) {
+                checkpoint();
+            }
+            return count;
+        }
 
-            MemorySegment payload =
-                    segment.asSlice(position + HEADER.byteSize(), mapper.layout());
+        @Override
+        public <F extends Flyweight> boolean next(F flyweight, Consumer<? super F> action) {
+            checkLayout(flyweight);
+            long payload = advance();
+            if (payload < 0) {
+                return false;
+            }
+            flyweight.rebase(chunk, payload);
+            action.accept(flyweight);
+            checkpoint();
+            return true;
+        }
 
-            position += HEADER.byteSize() + mapper.layout().byteSize();
-            return Optional.of(mapper.get(payload));
+        @Override
+        public <F extends Flyweight> int drainTo(F flyweight, Consumer<? super F> action, int max) {
+            checkLayout(flyweight);
+            int count = 0;
+            long payload;
+            while (count < max && (payload = advance()) >= 0) {
+                flyweight.rebase(chunk, payload);
+                action.accept(flyweight);
+                count++;
+            }
+            if (count > 0) {
+                checkpoint();
+            }
+            return count;
+        }
+
+        @Override
+        public long index() {
+            return head == null
+                    ? 1
+                    : FileHeader.baseIndex(head) + (position - FileHeader.SIZE) / slotSize + 1;
+        }
+
+        @Override
+        public boolean seek(long index) {
+            if (index < 1) {
+                throw new IllegalArgumentException("index < 1: " + index);
+            }
+            List<Path> all = files.all();
+            // The latest file starting at or before the index
+            for (int i = all.size() - 1; i >= 0; i--) {
+                if (!openChecked(all.get(i))) {
+                    continue;
+                }
+                long slot = index - 1 - FileHeader.baseIndex(head);
+                if (slot >= 0 || i == 0) {
+                    long claim = Math.max(slot, 0) * slotSize;
+                    long end = FileHeader.end(head);
+                    position = FileHeader.SIZE + Math.min(claim, end);
+                    return slot >= 0 && claim < end;
+                }
+            }
+            open(files.first());
+            return false;
+        }
+
+        @Override
+        public void seekToEnd() {
+            List<Path> all = files.all();
+            if (!all.isEmpty() && openChecked(all.getLast())) {
+                position = FileHeader.SIZE + FileHeader.end(head);
+            }
+            // Otherwise, the queue is empty or its last file is brand new
+        }
+
+        @Override
+        public void seekToTime(long time) {
+            if (!(mapper.layout() instanceof GroupLayout group) ||
+                    group.memberLayouts().stream()
+                            .noneMatch(m -> m.name().orElse("").equals("time") &&
+                                    m instanceof ValueLayout.OfLong)) {
+                throw new UnsupportedOperationException("No long time element in " + mapper.layout());
+            }
+            var timeLayout = (ValueLayout.OfLong) group.select(MemoryLayout.PathElement.groupElement("time"));
+            long timeOffset = HEADER.byteSize() +
+                    group.byteOffset(MemoryLayout.PathElement.groupElement("time"));
+
+            List<Path> all = files.all();
+            // The latest file starting before the time
+            for (int i = all.size() - 1; i >= 0; i--) {
+                if (!openChecked(all.get(i))) {
+                    continue;
+                }
+                long count = FileHeader.end(head) / slotSize;
+                if (i == 0 || (count > 0 && isBefore(0, count, timeLayout, timeOffset, time))) {
+                    // Find the first slot not before the time
+                    long low = 0;
+                    long high = count;
+                    while (low < high) {
+                        long mid = (low + high) >>> 1;
+                        if (isBefore(mid, high, timeLayout, timeOffset, time)) {
+                            low = mid + 1;
+                        } else {
+                            high = mid;
+                        }
+                    }
+                    position = FileHeader.SIZE + low * slotSize;
+                    return;
+                }
+            }
+            open(files.first());
+        }
+
+        @Override
+        public Yielder yielder() {
+            return new AdaptiveYielder(1_000, 100,
+                    TimeUnit.MICROSECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(10),
+                    this::await);
         }
 
         @Override
         public void close() {
-            arena.close();
+            file.close();
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+        }
+
+        private void checkpoint() {
+            if (checkpoint != null) {
+                long index = index();
+                if (index != checkpointed) {
+                    checkpoint.store(index);
+                    checkpointed = index;
+                }
+            }
+        }
+
+        private void await(long nanos) {
+            MemorySegment head = this.head;
+            if (head == null) {
+                // No sequence to wait for until the file is initialized
+                LockSupport.parkNanos(nanos);
+                return;
+            }
+            long observed = FileHeader.sequence(head);
+            if (!isAvailable()) {
+                notifier.await(() -> FileHeader.sequence(head), observed, nanos);
+            }
+        }
+
+        // Returns if there is a completed or rolled slot at the position
+        private boolean isAvailable() {
+            MemorySegment chunk = file.chunkAt(position, slotSize);
+            return chunk != null &&
+                    (Header.flags(chunk, MappedFile.offsetInChunk(position)) &
+                            (Header.COMPLETED | Header.ROLLED | Header.ABORTED)) != 0;
+        }
+
+        // Slots that are not completed (aborted or still being written) take the time
+        // of the first completed slot after them, so that the search stays monotone.
+        // If there is none before the limit, they are regarded as being after any time
+        private boolean isBefore(long slot,
+                                 long limit,
+                                 ValueLayout.OfLong timeLayout,
+                                 long timeOffset,
+                                 long time) {
+            for (; slot < limit; slot++) {
+                long slotPosition = FileHeader.SIZE + slot * slotSize;
+                MemorySegment slotChunk = file.chunkAt(slotPosition, slotSize);
+                if (slotChunk == null) {
+                    return false;
+                }
+                long offset = MappedFile.offsetInChunk(slotPosition);
+                if ((Header.flags(slotChunk, offset) & Header.COMPLETED) != 0) { // HB
+                    return slotChunk.get(timeLayout, offset + timeOffset) < time;
+                }
+            }
+            return false;
+        }
+
+        // Returns the next element or null
+        private T poll() {
+            long payload = advance();
+            return payload < 0
+                    ? null
+                    : mapper.get(chunk.asSlice(payload, mapper.layout()));
         }
 
-        private Header headerAtPosition() {
-            return new Header(segment.asSlice(position, HEADER));
+        // Moves past the next element, if any, and returns the offset of its payload
+        // in the chunk or else -1
+        private long advance() {
+            for (;;) {
+                if (head == null && !check()) {
+                    return -1; // The producer has not initialized the file yet
+                }
+                MemorySegment chunk = file.chunkAt(position, slotSize);
+                if (chunk == null) {
+                    return -1; // The producer has not reached this far
+                }
+                long offset = MappedFile.offsetInChunk(position);
+                int flags = Header.flags(chunk, offset); // HB
+                if ((flags & Header.COMPLETED) != 0) {
+                    this.chunk = chunk;
+                    position += slotSize;
+                    return offset + HEADER.byteSize();
+                }
+                if ((flags & Header.ABORTED) != 0) {
+                    // Abandoned by its producer
+                    position += slotSize;
+                    continue;
+                }
+                if ((flags & Header.ROLLED) == 0) {
+                    return -1;
+                }
+                // Continue with the next file once it is there
+                Optional<Path> following = files.following(file.path());
+                if (following.isEmpty()) {
+                    return -1;
+                }
+                open(following.get());
+            }
+        }
+
+        private void checkLayout(Flyweight flyweight) {
+            if (flyweight.layout().byteSize() != mapper.layout().byteSize()) {
+                throw new IllegalArgumentException("Layout mismatch: " + flyweight.layout());
+            }
+        }
+
+        private void open(Path path) {
+            if (file != null) {
+                file.close();
+            }
+            file = MappedFile.ofReadOnly(path);
+            head = null;
+            position = 0;
+        }
+
+        private boolean openChecked(Path path) {
+            open(path);
+            return check();
+        }
+
+        // Positions the consumer at the first slot if the FILE_HEADER is initialized
+        private boolean check() {
+            MemorySegment candidate = file.prefix(FileHeader.SIZE);
+            if (candidate == null || !FileHeader.check(candidate, slotSize)) {
+                return false;
+            }
+            head = candidate;
+            position = FileHeader.SIZE;
+            return true;
         }
 
     }
@@ -0,0 +1,299 @@
+package org.minborg.panamadojo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * The file(s) backing a queue.
+ */
+sealed interface QueueFiles {
+
+    String SUFFIX = ".queue";
+    String CHECKPOINTS_SUFFIX = ".checkpoints";
+    String OWNERS_SUFFIX = ".owners";
+
+    /**
+     * {@return the file a producer shall start appending to at the provided
+     *          {@code epochMillis}}
+     * <p>
+     * This is the latest file, if any, even if it belongs to an earlier cycle as that
+     * file must be properly rolled before the queue can continue in a new file.
+     *
+     * @param epochMillis the current time
+     */
+    Path current(long epochMillis);
+
+    /**
+     * {@return the file a consumer shall start reading from}
+     */
+    Path first();
+
+    /**
+     * {@return all the existing files, oldest first}
+     */
+    List<Path> all();
+
+    /**
+     * {@return the file a producer shall roll to after the provided {@code current} file}
+     *
+     * @param current     file that is rolled
+     * @param epochMillis the current time
+     */
+    Path next(Path current, long epochMillis);
+
+    /**
+     * {@return the file that was started after the provided {@code current} file, if any}
+     *
+     * @param current file
+     */
+    Optional<Path> following(Path current);
+
+    /**
+     * {@return the epoch millis at (or after) which the provided {@code file} shall be rolled}
+     *
+     * @param file to roll
+     */
+    long rollAtMillis(Path file);
+
+    /**
+     * {@return the size in bytes at which a file shall be rolled}
+     */
+    long maxFileSize();
+
+    /**
+     * {@return the file holding the checkpoints of the named consumers}
+     */
+    Path checkpoints();
+
+    /**
+     * {@return the file holding the owners of the acquired slots}
+     */
+    Path owners();
+
+    /**
+     * {@return the file or directory identifying the queue}
+     */
+    Path location();
+
+    /**
+     * {@return the file of this queue with the provided {@code fileName}}
+     * <p>
+     * Used to map the files of one queue to those of a replica.
+     *
+     * @param fileName of a file in any queue
+     */
+    Path resolve(String fileName);
+
+    static QueueFiles of(Path path) {
+        return new Single(path);
+    }
+
+    static QueueFiles ofRolling(Path directory, RollCycle cycle, long maxFileSize) {
+        if (maxFileSize < MappedFile.OVERLAP) {
+            throw new IllegalArgumentException("maxFileSize too small: " + maxFileSize);
+        }
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Rolling(directory, cycle, maxFileSize);
+    }
+
+    // A single file that grows without bounds
+    record Single(Path path) implements QueueFiles {
+
+        @Override
+        public Path current(long epochMillis) {
+            return path;
+        }
+
+        @Override
+        public Path first() {
+            return path;
+        }
+
+        @Override
+        public List<Path> all() {
+            return Files.exists(path) ? List.of(path) : List.of();
+        }
+
+        @Override
+        public Path next(Path current, long epochMillis) {
+            throw new UnsupportedOperationException("A single file queue never rolls");
+        }
+
+        @Override
+        public Optional<Path> following(Path current) {
+            return Optional.empty();
+        }
+
+        @Override
+        public long rollAtMillis(Path file) {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public long maxFileSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public Path checkpoints() {
+            return sibling(CHECKPOINTS_SUFFIX);
+        }
+
+        @Override
+        public Path owners() {
+            return sibling(OWNERS_SUFFIX);
+        }
+
+        @Override
+        public Path location() {
+            return path;
+        }
+
+        @Override
+        public Path resolve(String fileName) {
+            return path; // There is only one
+        }
+
+        private Path sibling(String suffix) {
+            String name = path.getFileName().toString();
+            if (name.endsWith(SUFFIX)) {
+                name = name.substring(0, name.length() - SUFFIX.length());
+            }
+            return path.resolveSibling(name + suffix);
+        }
+    }
+
+    // Files named "<cycle>.queue", "<cycle>_1.queue", "<cycle>_2.queue", ...
+    record Rolling(Path directory, RollCycle cycle, long maxFileSize) implements QueueFiles {
+
+        @Override
+        public Path current(long epochMillis) {
+            return names()
+                    .max(Comparator.naturalOrder())
+                    .map(this::path)
+                    .orElseGet(() -> path(new FileName(cycle.name(epochMillis), 0)));
+        }
+
+        @Override
+        public Path first() {
+            return names()
+                    .min(Comparator.naturalOrder())
+                    .map(this::path)
+                    .orElseGet(() -> current(System.currentTimeMillis()));
+        }
+
+        @Override
+        public List<Path> all() {
+            return names()
+                    .sorted()
+                    .map(this::path)
+                    .toList();
+        }
+
+        @Override
+        public Path next(Path current, long epochMillis) {
+            FileName name = FileName.of(current);
+            String now = cycle.name(epochMillis);
+            return now.compareTo(name.cycle()) > 0
+                    ? path(new FileName(now, 0))
+                    : path(new FileName(name.cycle(), name.part() + 1));
+        }
+
+        @Override
+        public Optional<Path> following(Path current) {
+            FileName name = FileName.of(current);
+            return names()
+                    .filter(n -> n.compareTo(name) > 0)
+                    .min(Comparator.naturalOrder())
+                    .map(this::path);
+        }
+
+        @Override
+        public long rollAtMillis(Path file) {
+            return cycle.endMillis(FileName.of(file).cycle());
+        }
+
+        @Override
+        public Path checkpoints() {
+            return directory.resolve("consumers" + CHECKPOINTS_SUFFIX);
+        }
+
+        @Override
+        public Path owners() {
+            return directory.resolve("producers" + OWNERS_SUFFIX);
+        }
+
+        @Override
+        public Path location() {
+            return directory;
+        }
+
+        @Override
+        public Path resolve(String fileName) {
+            return directory.resolve(Path.of(fileName).getFileName());
+        }
+
+        private Path path(FileName name) {
+            return directory.resolve(name.toString());
+        }
+
+        private Stream<FileName> names() {
+            List<Path> paths;
+            try (var files = Files.list(directory)) {
+                paths = files.toList();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return paths.stream()
+                    .map(p -> p.getFileName().toString())
+                    .filter(n -> n.endsWith(SUFFIX))
+                    .map(FileName::of)
+                    .filter(n -> cycle.isName(n.cycle()));
+        }
+    }
+
+    record FileName(String cycle, int part) implements Comparable<FileName> {
+
+        @Override
+        public int compareTo(FileName o) {
+            int c = cycle.compareTo(o.cycle);
+            return c != 0 ? c : Integer.compare(part, o.part);
+        }
+
+        @Override
+        public String toString() {
+            return part == 0
+                    ? cycle + SUFFIX
+                    : cycle + "_" + part + SUFFIX;
+        }
+
+        static FileName of(Path path) {
+            return of(path.getFileName().toString());
+        }
+
+        static FileName of(String fileName) {
+            String name = fileName.substring(0, fileName.length() - SUFFIX.length());
+            int separator = name.lastIndexOf('_');
+            if (separator < 0) {
+                return new FileName(name, 0);
+            }
+            try {
+                return new FileName(name.substring(0, separator),
+                        Integer.parseInt(name.substring(separator + 1)));
+            } catch (NumberFormatException e) {
+                return new FileName(name, 0);
+            }
+        }
+    }
+
+}
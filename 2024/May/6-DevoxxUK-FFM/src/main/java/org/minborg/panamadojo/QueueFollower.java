@@ -0,0 +1,303 @@
+package org.minborg.panamadojo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.minborg.panamadojo.Kata5_AtomicOperations.*;
+import static org.minborg.panamadojo.Replication.*;
+
+/**
+ * Keeps a copy of a queue replicated by a {@link QueueReplicator}, typically on
+ * another host.
+ * <p>
+ * The copy is a regular queue that can be read by consumers, in this JVM or in
+ * others, while it is being replicated. Entries are published to consumers in the
+ * same way as a producer would, so consumers never see partially written entries.
+ * When started, the follower resumes where its copy ends.
+ * <p>
+ * The follower is driven by {@linkplain #poll() polling} and instances are not
+ * thread safe.
+ */
+public interface QueueFollower extends AutoCloseable {
+
+    /**
+     * Writes the entries received from the replicator, if any, to the copy and
+     * acknowledges them.
+     *
+     * @return the number of entry bytes written
+     * @throws UncheckedIOException if the connection to the replicator is lost
+     */
+    int poll();
+
+    /**
+     * {@return the number of entry bytes written since the follower connected}
+     */
+    long received();
+
+    @Override
+    void close();
+
+    /**
+     * {@return a new follower that connects to the replicator at the provided
+     *          {@code address} and keeps a copy of its queue in the provided {@code path}}
+     *
+     * @param path    of the copy
+     * @param address of the replicator
+     */
+    static QueueFollower of(Path path, SocketAddress address) {
+        return new Impl(QueueFiles.of(path), address);
+    }
+
+    /**
+     * {@return a new follower that connects to the replicator at the provided
+     *          {@code address} and keeps a copy of its rolling queue in the provided
+     *          {@code directory}}
+     *
+     * @param directory holding the copy
+     * @param cycle     used by the producer of the queue
+     * @param address   of the replicator
+     */
+    static QueueFollower ofRolling(Path directory, RollCycle cycle, SocketAddress address) {
+        return new Impl(QueueFiles.ofRolling(directory, cycle, Long.MAX_VALUE), address);
+    }
+
+    final class Impl implements QueueFollower {
+
+        private static final long FLAGS_SIZE = Util.JAVA_INT_LE.byteSize();
+
+        private final QueueFiles files;
+        private final Notifier notifier;
+        private final Arena arena = Arena.ofShared();
+        private final MemorySegment in;  // Messages from the replicator
+        private final ByteBuffer inBuffer;
+        private final MemorySegment out; // Messages to the replicator
+        private final ByteBuffer outBuffer;
+        private final SocketChannel channel;
+        private MappedFile file;         // mmap:ed in chunks
+        private MemorySegment head;      // The FILE_HEADER of the file
+        private int slotSize;
+        private long position;
+        private long received;
+        private long sentNanos;
+
+        public Impl(QueueFiles files, SocketAddress address) {
+            this.files = files;
+            this.notifier = Notifier.of(files.location());
+            this.in = arena.allocate(2 * MAX_MESSAGE, Long.BYTES);
+            this.inBuffer = in.asByteBuffer();
+            this.out = arena.allocate(SUBSCRIBE_MESSAGE.byteSize() + MAX_NAME_LENGTH, Long.BYTES);
+            this.outBuffer = out.asByteBuffer();
+            try {
+                this.channel = Replication.connect(address);
+            } catch (RuntimeException e) {
+                arena.close();
+                throw e;
+            }
+            try {
+                subscribe();
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int poll() {
+            try {
+                if (channel.read(inBuffer) < 0) {
+                    throw new EOFException("The replicator disconnected");
+                }
+                long end = inBuffer.position();
+                long offset = 0;
+                int written = 0;
+                while (end - offset >= DATA_MESSAGE.byteSize()) {
+                    int size = size(in, offset);
+                    if (size < DATA_MESSAGE.byteSize() || size > MAX_MESSAGE) {
+                        throw new IOException("Bad message size: " + size);
+                    }
+                    if (end - offset < size) {
+                        break;
+                    }
+                    switch (type(in, offset)) {
+                        case FILE -> file(offset);
+                        case DATA -> written += data(offset, size);
+                        default -> throw new IOException("Unknown message type: " + type(in, offset));
+                    }
+                    offset += size;
+                }
+                // Keep what is left of a partially received message
+                MemorySegment.copy(in, offset, in, 0, end - offset);
+                inBuffer.position((int) (end - offset));
+                if (written > 0) {
+                    FileHeader.signal(head);
+                    notifier.signal();
+                    acknowledge();
+                }
+                return written;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public long received() {
+            return received;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (file != null) {
+                    file.close();
+                }
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                arena.close();
+            }
+        }
+
+        // Asks for everything after the end of the copy
+        private void subscribe() throws IOException {
+            List<Path> all = files.all();
+            int nameLength = 0;
+            long resumeAt = FileHeader.SIZE;
+            if (!all.isEmpty()) {
+                Path last = all.getLast();
+                open(last);
+                position = FileHeader.SIZE;
+                if (FileHeader.isInitialized(head)) {
+                    slotSize = FileHeader.slotSize(head);
+                    position = end();
+                    // A previous follower might have stopped after writing but before claiming
+                    advanceTail(position);
+                    nameLength = putName(out, SUBSCRIBE_MESSAGE.byteSize(), last.getFileName().toString());
+                    resumeAt = position;
+                }
+            }
+            int size = header(out, SUBSCRIBE, SUBSCRIBE_MESSAGE.byteSize() + nameLength);
+            LONG.set(out, POSITION_OFFSET, resumeAt);
+            INT.set(out, SUBSCRIBE_NAME_LENGTH_OFFSET, nameLength);
+            outBuffer.clear().limit(size);
+            writeFully(channel, outBuffer);
+        }
+
+        private void acknowledge() throws IOException {
+            int size = header(out, ACK, ACK_MESSAGE.byteSize());
+            LONG.set(out, RECEIVED_OFFSET, received);
+            LONG.set(out, SENT_NANOS_OFFSET, sentNanos);
+            outBuffer.clear().limit(size);
+            writeFully(channel, outBuffer);
+        }
+
+        private void file(long offset) {
+            int nameLength = (int) INT.get(in, offset + FILE_NAME_LENGTH_OFFSET);
+            Path path = files.resolve(getName(in, offset + FILE_MESSAGE.byteSize(), nameLength));
+            int slotSize = (int) INT.get(in, offset + SLOT_SIZE_OFFSET);
+            long baseIndex = (long) LONG.get(in, offset + BASE_INDEX_OFFSET);
+            long limit = (long) LONG.get(in, offset + LIMIT_OFFSET);
+            long rolledAt = (long) LONG.get(in, offset + ROLLED_AT_OFFSET);
+            if (rolledAt >= 0) {
+                roll(rolledAt, path, slotSize, baseIndex, limit);
+            } else {
+                FileHeader.create(path, slotSize, baseIndex, limit);
+            }
+            if (file == null || !file.path().equals(path)) {
+                open(path);
+                position = FileHeader.SIZE;
+            }
+            FileHeader.init(head, slotSize, baseIndex, limit);
+            this.slotSize = slotSize;
+        }
+
+        // Rolls the copy in the same order as the producer that rolled the queue
+        private void roll(long rolledAt, Path next, int slotSize, long baseIndex, long limit) {
+            if (rolledAt != position) {
+                throw new IllegalStateException("Out of sync: " + rolledAt + " != " + position);
+            }
+            FileHeader.end(head, rolledAt - FileHeader.SIZE);
+            // Makes all future claims exceed the limit
+            advanceTail(FileHeader.SIZE + FileHeader.limit(head) + 1);
+            FileHeader.create(next, slotSize, baseIndex, limit);
+            Header header = new Header(file.chunkAt(rolledAt, HEADER.byteSize())
+                    .asSlice(MappedFile.offsetInChunk(rolledAt), HEADER));
+            header.roll(); // Fails if already rolled before a restart
+            FileHeader.signal(head);
+            notifier.signal();
+        }
+
+        // Returns the number of entry bytes written
+        private int data(long offset, int size) throws IOException {
+            long at = (long) LONG.get(in, offset + POSITION_OFFSET);
+            if (at != position) {
+                throw new IllegalStateException("Out of sync: " + at + " != " + position);
+            }
+            sentNanos = (long) LONG.get(in, offset + SENT_NANOS_OFFSET);
+            long length = (long) LONG.get(in, offset + LENGTH_OFFSET);
+            // The entries are followed by less than 8 bytes of padding
+            long padding = size - DATA_MESSAGE.byteSize() - length;
+            if (length < 0 || padding < 0 || padding >= Long.BYTES) {
+                throw new IOException("Bad entry length: " + length + " in a message of " + size + " bytes");
+            }
+            long source = offset + DATA_MESSAGE.byteSize();
+            MemorySegment chunk = file.chunkAt(position, length);
+            long target = MappedFile.offsetInChunk(position);
+            for (long done = 0; done < length; ) {
+                long entrySize = entrySize(in, source + done, slotSize);
+                int flags = (int) Header.FLAGS.get(in, source + done);
+                // Publishes the entry like its producer did, flags last
+                MemorySegment.copy(in, source + done + FLAGS_SIZE,
+                        chunk, target + done + FLAGS_SIZE, entrySize - FLAGS_SIZE);
+                Header.FLAGS.setRelease(chunk, target + done, flags); // HB
+                done += entrySize;
+            }
+            position += length;
+            advanceTail(position);
+            received += length;
+            return (int) length;
+        }
+
+        // Returns the position after the last finished entry of the copy
+        private long end() {
+            long end = FileHeader.SIZE;
+            for (;;) {
+                MemorySegment chunk = file.chunkAt(end, FrameHeader.SIZE);
+                long offset = MappedFile.offsetInChunk(end);
+                if (!isFinished(Header.flags(chunk, offset))) {
+                    return end;
+                }
+                end += entrySize(chunk, offset, slotSize);
+            }
+        }
+
+        // The follower is the only producer of its copy
+        private void advanceTail(long position) {
+            long size = position - FileHeader.SIZE - FileHeader.tail(head);
+            if (size > 0) {
+                FileHeader.claim(head, size);
+            }
+        }
+
+        private void open(Path path) {
+            if (file != null) {
+                file.close();
+            }
+            file = MappedFile.ofWritable(path);
+            head = file.prefix(FileHeader.SIZE);
+        }
+
+    }
+
+}
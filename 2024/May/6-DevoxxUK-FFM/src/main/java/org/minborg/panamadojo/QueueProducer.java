@@ -1,17 +1,11 @@
 package org.minborg.panamadojo;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
-import java.nio.channels.FileChannel;
-import java.nio.file.OpenOption;
 import java.nio.file.Path;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 
-import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
-import static java.nio.file.StandardOpenOption.*;
-import static java.nio.file.StandardOpenOption.WRITE;
 import static org.minborg.panamadojo.Kata5_AtomicOperations.*;
 
 public interface QueueProducer<T extends Record> extends AutoCloseable {
@@ -23,64 +17,205 @@ public interface QueueProducer<T extends Record> extends AutoCloseable {
      */
     void append(T element);
 
+    /**
+     * Appends an element by copying its bytes, laid out as the mapper's layout, from
+     * the provided {@code segment} at the provided {@code offset}.
+     * <p>
+     * The element is neither deserialized nor materialized, which makes this the
+     * fastest way to move elements from one queue to another.
+     *
+     * @param segment holding the element
+     * @param offset  of the element in the segment
+     */
+    void append(MemorySegment segment, long offset);
+
+    /**
+     * Appends the provided {@code elements}, in order, at the end of the queue.
+     * <p>
+     * Space for the elements is claimed at once and consumers will see all the
+     * elements at the same time.
+     *
+     * @param elements to append
+     */
+    void appendAll(List<? extends T> elements);
+
+    /**
+     * Appends the provided {@code elements}, in order, at the end of the queue.
+     *
+     * @param elements to append
+     * @see #appendAll(List)
+     */
+    default void append(T[] elements) {
+        appendAll(Arrays.asList(elements));
+    }
+
     @Override
     void close();
 
     static <T extends Record> QueueProducer<T> of(RecordMapper<T> mapper,
                                                   Path path) {
-        return new Impl<>(mapper, path);
+        return new Impl<>(mapper, QueueFiles.of(path));
     }
 
-    final class Impl<T extends Record> implements QueueProducer<T> {
+    /**
+     * {@return a new producer that appends to a new file in the provided
+     *          {@code directory} for each cycle (e.g. {@code 20240508.queue})}
+     *
+     * @param mapper    to use when writing elements
+     * @param directory to hold the files
+     * @param cycle     determining when to start a new file
+     */
+    static <T extends Record> QueueProducer<T> ofRolling(RecordMapper<T> mapper,
+                                                         Path directory,
+                                                         RollCycle cycle) {
+        return ofRolling(mapper, directory, cycle, Long.MAX_VALUE);
+    }
 
-        private static final Set<OpenOption> OPEN_OPTIONS =
-                Set.of(CREATE, SPARSE, READ, WRITE);
+    /**
+     * {@return a new producer that appends to a new file in the provided
+     *          {@code directory} for each cycle or when a file has reached
+     *          {@code maxFileSize} bytes}
+     *
+     * @param mapper      to use when writing elements
+     * @param directory   to hold the files
+     * @param cycle       determining when to start a new file
+     * @param maxFileSize the size in bytes at which a new file is started
+     */
+    static <T extends Record> QueueProducer<T> ofRolling(RecordMapper<T> mapper,
+                                                         Path directory,
+                                                         RollCycle cycle,
+                                                         long maxFileSize) {
+        return new Impl<>(mapper, QueueFiles.ofRolling(directory, cycle, maxFileSize));
+    }
+
+    final class Impl<T extends Record> implements QueueProducer<T> {
 
         private final RecordMapper<T> mapper;
-        private final Arena arena;
-        private final MemorySegment segment; // mmap:ed
-        private long position;
+        private final int slotSize;
+        private final QueueAppender appender;
 
-        public Impl(RecordMapper<T> mapper, Path path) {
+        public Impl(RecordMapper<T> mapper, QueueFiles files) {
             this.mapper = mapper;
-            this.arena = Arena.ofConfined();
-            try (var fc = FileChannel.open(path, OPEN_OPTIONS)) {
-                // Map 1 MiB
-                this.segment = fc.map(READ_WRITE, 0, 1 << 20, arena);
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
+            this.slotSize = Math.toIntExact(HEADER.byteSize() + mapper.layout().byteSize());
+            this.appender = new QueueAppender(files, slotSize, slotSize);
         }
 
         @Override
         public void append(T element) {
-            Header header = headerAtPosition();
-            int index = header.index();
-            // Seek to the next available slot
-            while (header.isCompleted() || !header.acquire()) {
-                position += HEADER.byteSize() + mapper.layout().byteSize();
-                header = headerAtPosition();
-                int i = header.index();
-                if (i != 0) {
-                    index = header.index();
-                }
+            long position = acquire();
+            MemorySegment chunk = appender.chunkAt(position, slotSize);
+            long offset = MappedFile.offsetInChunk(position);
+            try {
+                mapper.set(chunk.asSlice(offset + HEADER.byteSize(), mapper.layout()), element);
+            } catch (RuntimeException | Error e) {
+                abort(chunk, offset);
+                throw e;
             }
-            // Now we are alone
-            MemorySegment payload =
-                    segment.asSlice(position + HEADER.byteSize(), mapper.layout());
+            complete(chunk, offset, position);
+        }
 
-            mapper.set(payload, element);
-            header.index(++index);
-            header.complete(); // HB
+        @Override
+        public void append(MemorySegment segment, long offset) {
+            long size = mapper.layout().byteSize();
+            Objects.checkFromIndexSize(offset, size, segment.byteSize());
+            long position = acquire();
+            MemorySegment chunk = appender.chunkAt(position, slotSize);
+            long slot = MappedFile.offsetInChunk(position);
+            try {
+                MemorySegment.copy(segment, offset, chunk, slot + HEADER.byteSize(), size);
+            } catch (RuntimeException | Error e) {
+                abort(chunk, slot);
+                throw e;
+            }
+            complete(chunk, slot, position);
+        }
+
+        @Override
+        public void appendAll(List<? extends T> elements) {
+            for (int from = 0; from < elements.size(); ) {
+                int maxRun = (int) (appender.maxClaim() / slotSize);
+                int run = Math.min(elements.size() - from, maxRun);
+                long size = (long) run * slotSize;
+                long position = appender.claim(size);
+                // A run is never larger than the chunk overlap so it is in a single chunk
+                MemorySegment chunk = appender.chunkAt(position, size);
+                long start = MappedFile.offsetInChunk(position);
+                int index = (int) appender.index(position);
+                int acquired = appender.acquired();
+                // Slots that are not acquired in time may be aborted by a StaleSlotDetector
+                // so every transition is a CAS and a lost CAS aborts the rest of the run
+                for (int i = 0; i < run; i++) {
+                    if (!Header.acquire(chunk, start + (long) i * slotSize, acquired)) {
+                        abortRun(chunk, start, i, run, acquired);
+                        throw new IllegalStateException("Slot aborted at " + (position + (long) i * slotSize));
+                    }
+                }
+                try {
+                    for (int i = 0; i < run; i++) {
+                        long offset = start + (long) i * slotSize;
+                        mapper.set(chunk.asSlice(offset + HEADER.byteSize(), mapper.layout()),
+                                elements.get(from + i));
+                        Header.index(chunk, offset, index++);
+                    }
+                } catch (RuntimeException | Error e) {
+                    // Let consumers skip the entire run
+                    abortRun(chunk, start, run, run, acquired);
+                    throw e;
+                }
+                // Consumers read in order and will stop at the first slot of the run
+                // until it is completed. So, the entire run is published at once.
+                for (int i = run - 1; i >= 0; i--) {
+                    if (!Header.complete(chunk, start + (long) i * slotSize, acquired)) { // HB
+                        abortRun(chunk, start, i, i, acquired);
+                        throw new IllegalStateException("Slot aborted at " + (position + (long) i * slotSize));
+                    }
+                }
+                appender.signal();
+                from += run;
+            }
         }
 
         @Override
         public void close() {
-            arena.close();
+            appender.close();
+        }
+
+        // Returns the position of a newly claimed and acquired slot
+        private long acquire() {
+            long position = appender.claim(slotSize);
+            MemorySegment chunk = appender.chunkAt(position, slotSize);
+            long offset = MappedFile.offsetInChunk(position);
+            // Fails if a StaleSlotDetector aborted the slot before it was acquired
+            if (!Header.acquire(chunk, offset, appender.acquired())) {
+                appender.signal();
+                throw new IllegalStateException("Slot aborted: " + new Header(chunk.asSlice(offset, HEADER)));
+            }
+            return position;
         }
 
-        private Header headerAtPosition() {
-            return new Header(segment.asSlice(position, HEADER));
+        private void complete(MemorySegment chunk, long offset, long position) {
+            Header.index(chunk, offset, (int) appender.index(position));
+            if (!Header.complete(chunk, offset, appender.acquired())) { // HB
+                throw new IllegalStateException("Slot aborted: " + new Header(chunk.asSlice(offset, HEADER)));
+            }
+            appender.signal();
+        }
+
+        // Lets consumers skip the slot
+        private void abort(MemorySegment chunk, long offset) {
+            // Fails if the slot already was aborted which is just as good
+            Header.abort(chunk, offset, appender.acquired());
+            appender.signal();
+        }
+
+        // Lets consumers skip the first end slots of a run where the first acquiredEnd
+        // slots are acquired by us and the others are still free. A lost CAS means
+        // that the slot already was aborted.
+        private void abortRun(MemorySegment chunk, long start, int acquiredEnd, int end, int acquired) {
+            for (int i = end - 1; i >= 0; i--) {
+                Header.abort(chunk, start + (long) i * slotSize, i < acquiredEnd ? acquired : Header.FREE);
+            }
+            appender.signal();
         }
 
     }
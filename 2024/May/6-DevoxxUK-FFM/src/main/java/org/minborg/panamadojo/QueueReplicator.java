@@ -0,0 +1,361 @@
+package org.minborg.panamadojo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.minborg.panamadojo.Kata5_AtomicOperations.*;
+import static org.minborg.panamadojo.Replication.*;
+
+/**
+ * Replicates a queue to a {@link QueueFollower} over a socket so that another host
+ * (or container) has a hot standby copy of the queue.
+ * <p>
+ * The replicator tails the queue file(s) like a consumer but ships the completed
+ * (and aborted) entries exactly as they are laid out in the file, in batches of up to
+ * 64 KiB that are written to the socket straight from the mapped file. The follower
+ * acknowledges each batch once it is written to its copy and no more than
+ * {@link #WINDOW} bytes are shipped ahead of the acknowledgements.
+ * <p>
+ * The replicator listens on the provided address (TCP or Unix domain) and serves
+ * one follower at a time. A follower that reconnects resumes where its copy ends.
+ * The replicator is driven by {@linkplain #poll() polling} and instances are not
+ * thread safe.
+ */
+public interface QueueReplicator extends AutoCloseable {
+
+    long WINDOW = 1L << 20; // 1 MiB
+
+    /**
+     * Accepts a follower if there is none, handles its acknowledgements and ships
+     * the next batch of entries, if any. A follower that disconnects is dropped.
+     *
+     * @return the number of entry bytes shipped
+     */
+    int poll();
+
+    /**
+     * {@return if a follower is connected}
+     */
+    boolean isConnected();
+
+    /**
+     * {@return the number of entry bytes the follower has acknowledged since it connected}
+     */
+    long acknowledged();
+
+    /**
+     * {@return the number of entry bytes shipped but not yet acknowledged}
+     */
+    long lagBytes();
+
+    /**
+     * {@return the time from shipping the latest acknowledged batch until it was
+     *          acknowledged or -1 if no batch was acknowledged yet}
+     */
+    long lagNanos();
+
+    @Override
+    void close();
+
+    static QueueReplicator of(Path path, SocketAddress address) {
+        return new Impl(QueueFiles.of(path), address);
+    }
+
+    static QueueReplicator ofRolling(Path directory, RollCycle cycle, SocketAddress address) {
+        return new Impl(QueueFiles.ofRolling(directory, cycle, Long.MAX_VALUE), address);
+    }
+
+    final class Impl implements QueueReplicator {
+
+        private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+        private final QueueFiles files;
+        private final SocketAddress address;
+        private final ServerSocketChannel server;
+        private final Arena arena = Arena.ofShared();
+        private final MemorySegment in;  // Messages from the follower
+        private final ByteBuffer inBuffer;
+        private final MemorySegment out; // The message being shipped, except for its entries
+        private final ByteBuffer outBuffer;
+        private final ByteBuffer padding = ByteBuffer.allocate(Long.BYTES);
+        private final ByteBuffer[] pending;
+        private SocketChannel channel;   // The follower or null
+        private Path path;               // The file being replicated or null if not subscribed
+        private MappedFile file;         // mmap:ed in chunks or null if the file does not exist (yet)
+        private MemorySegment head;      // The FILE_HEADER of the file or null if not checked
+        private int slotSize;
+        private long position;
+        private long rolledAt;
+        private long shipped;
+        private long acknowledged;
+        private long lagNanos = -1;
+
+        public Impl(QueueFiles files, SocketAddress address) {
+            this.files = files;
+            this.address = address;
+            this.in = arena.allocate(ACK_MESSAGE.byteSize() * 64 + SUBSCRIBE_MESSAGE.byteSize() + MAX_NAME_LENGTH, Long.BYTES);
+            this.inBuffer = in.asByteBuffer();
+            this.out = arena.allocate(FILE_MESSAGE.byteSize() + MAX_NAME_LENGTH, Long.BYTES);
+            this.outBuffer = out.asByteBuffer().limit(0);
+            this.pending = new ByteBuffer[]{outBuffer, EMPTY, padding.limit(0)};
+            try {
+                this.server = Replication.bind(address);
+            } catch (RuntimeException e) {
+                arena.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int poll() {
+            try {
+                if (channel == null && !accept()) {
+                    return 0;
+                }
+                receive();
+                if (!flush() || path == null || shipped - acknowledged >= WINDOW) {
+                    return 0;
+                }
+                return ship();
+            } catch (IOException e) {
+                // Wait for the follower to reconnect
+                disconnect();
+                return 0;
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return channel != null;
+        }
+
+        @Override
+        public long acknowledged() {
+            return acknowledged;
+        }
+
+        @Override
+        public long lagBytes() {
+            return shipped - acknowledged;
+        }
+
+        @Override
+        public long lagNanos() {
+            return lagNanos;
+        }
+
+        @Override
+        public void close() {
+            disconnect();
+            try {
+                server.close();
+                if (address instanceof UnixDomainSocketAddress unix) {
+                    Files.deleteIfExists(unix.getPath());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                arena.close();
+            }
+        }
+
+        private boolean accept() throws IOException {
+            SocketChannel accepted = server.accept();
+            if (accepted == null) {
+                return false;
+            }
+            channel = Replication.configure(accepted);
+            return true;
+        }
+
+        private void receive() throws IOException {
+            if (channel.read(inBuffer) < 0) {
+                throw new EOFException("The follower disconnected");
+            }
+            long end = inBuffer.position();
+            long offset = 0;
+            while (end - offset >= ACK_MESSAGE.byteSize()) {
+                int size = size(in, offset);
+                if (size < ACK_MESSAGE.byteSize() || size > in.byteSize()) {
+                    throw new IOException("Bad message size: " + size);
+                }
+                if (end - offset < size) {
+                    break;
+                }
+                switch (type(in, offset)) {
+                    case SUBSCRIBE -> subscribe(offset);
+                    case ACK -> {
+                        acknowledged = (long) LONG.get(in, offset + RECEIVED_OFFSET);
+                        lagNanos = System.nanoTime() - (long) LONG.get(in, offset + SENT_NANOS_OFFSET);
+                    }
+                    default -> throw new IOException("Unknown message type: " + type(in, offset));
+                }
+                offset += size;
+            }
+            // Keep what is left of a partially received message
+            MemorySegment.copy(in, offset, in, 0, end - offset);
+            inBuffer.position((int) (end - offset));
+        }
+
+        private void subscribe(long offset) {
+            int nameLength = (int) INT.get(in, offset + SUBSCRIBE_NAME_LENGTH_OFFSET);
+            if (nameLength == 0) {
+                open(files.first(), FileHeader.SIZE);
+            } else {
+                String name = getName(in, offset + SUBSCRIBE_MESSAGE.byteSize(), nameLength);
+                open(files.resolve(name), (long) LONG.get(in, offset + POSITION_OFFSET));
+            }
+            rolledAt = -1;
+        }
+
+        // Returns the number of entry bytes shipped
+        private int ship() throws IOException {
+            if (file == null) {
+                if (!Files.exists(path)) {
+                    return 0; // No producer has started yet
+                }
+                file = MappedFile.ofReadOnly(path);
+            }
+            if (head == null) {
+                MemorySegment candidate = file.prefix(FileHeader.SIZE);
+                if (candidate == null || !FileHeader.isInitialized(candidate)) {
+                    return 0;
+                }
+                head = candidate;
+                slotSize = FileHeader.slotSize(head);
+                // The follower must know about the file before its entries
+                announce();
+                return 0;
+            }
+            MemorySegment chunk = file.chunkAt(position, FrameHeader.SIZE);
+            if (chunk == null) {
+                return 0; // The producer has not reached this far
+            }
+            long start = MappedFile.offsetInChunk(position);
+            long length = 0;
+            while (length < MAX_BATCH && start + length + FrameHeader.SIZE <= chunk.byteSize()) {
+                long offset = start + length;
+                int flags = Header.flags(chunk, offset); // HB
+                if (!isFinished(flags)) {
+                    if ((flags & Header.ROLLED) != 0 && length == 0) {
+                        roll();
+                    }
+                    break;
+                }
+                long size = entrySize(chunk, offset, slotSize);
+                if (length + size > MAX_BATCH) {
+                    break;
+                }
+                if (offset + size > chunk.byteSize()) {
+                    if (length > 0) {
+                        break;
+                    }
+                    // The file has grown since the chunk was mapped
+                    chunk = file.chunkAt(position, size);
+                    if (chunk == null) {
+                        return 0;
+                    }
+                }
+                length += size;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            // Fixed-size slots need not be a multiple of 8 so the batch might be padded
+            int size = header(out, DATA, DATA_MESSAGE.byteSize() + length);
+            LONG.set(out, POSITION_OFFSET, position);
+            LONG.set(out, SENT_NANOS_OFFSET, System.nanoTime());
+            LONG.set(out, LENGTH_OFFSET, length);
+            outBuffer.clear().limit((int) DATA_MESSAGE.byteSize());
+            // Zero-copy from the mapped file
+            pending[1] = chunk.asSlice(start, length).asByteBuffer();
+            padding.clear().limit((int) (size - DATA_MESSAGE.byteSize() - length));
+            position += length;
+            shipped += length;
+            flush();
+            return (int) length;
+        }
+
+        // Continues with the file following the ROLLED slot at the current position
+        private void roll() {
+            Optional<Path> following = files.following(path);
+            if (following.isPresent()) {
+                rolledAt = position;
+                open(following.get(), FileHeader.SIZE);
+            }
+        }
+
+        private void announce() throws IOException {
+            int nameLength = putName(out, FILE_MESSAGE.byteSize(), path.getFileName().toString());
+            int size = header(out, FILE, FILE_MESSAGE.byteSize() + nameLength);
+            INT.set(out, SLOT_SIZE_OFFSET, slotSize);
+            INT.set(out, FILE_NAME_LENGTH_OFFSET, nameLength);
+            LONG.set(out, BASE_INDEX_OFFSET, FileHeader.baseIndex(head));
+            LONG.set(out, LIMIT_OFFSET, FileHeader.limit(head));
+            LONG.set(out, ROLLED_AT_OFFSET, rolledAt);
+            outBuffer.clear().limit(size);
+            pending[1] = EMPTY;
+            padding.limit(0);
+            flush();
+        }
+
+        // Returns if everything pending has been written
+        private boolean flush() throws IOException {
+            if (hasPending()) {
+                channel.write(pending);
+            }
+            return !hasPending();
+        }
+
+        private boolean hasPending() {
+            return outBuffer.hasRemaining() || pending[1].hasRemaining() || padding.hasRemaining();
+        }
+
+        private void open(Path path, long position) {
+            closeFile();
+            this.path = path;
+            this.position = position;
+        }
+
+        private void closeFile() {
+            // Nothing pending may refer to the file once it is closed
+            pending[1] = EMPTY;
+            padding.limit(0);
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+            head = null;
+        }
+
+        private void disconnect() {
+            closeFile();
+            outBuffer.limit(0);
+            inBuffer.clear();
+            path = null;
+            shipped = 0;
+            acknowledged = 0;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // The follower is gone anyway
+                }
+                channel = null;
+            }
+        }
+
+    }
+
+}
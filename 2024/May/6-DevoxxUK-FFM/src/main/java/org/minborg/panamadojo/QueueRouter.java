@@ -0,0 +1,197 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+
+/**
+ * Fans out the elements of a queue to other queues by an {@code int} key, for
+ * example routing a full market feed to one queue per symbol.
+ * <p>
+ * The key is read at its fixed offset in the mapped slot and the slot's bytes are
+ * copied to the destination with {@code MemorySegment.copy}. Elements are never
+ * deserialized so routing runs at close to memcpy speed.
+ * <p>
+ * The destination of each key is only asked for once. The router owns the source
+ * consumer and the destination producers and closes them when it is closed.
+ * Instances are not thread safe.
+ *
+ * @param <T> element type
+ */
+public interface QueueRouter<T extends Record> extends AutoCloseable {
+
+    /**
+     * Routes the completed elements of the source, up to {@code max} elements.
+     *
+     * @param max number of elements to route
+     * @return the number of elements read from the source, including dropped ones
+     */
+    int route(int max);
+
+    /**
+     * {@return the yielder of the source consumer}
+     *
+     * @see QueueConsumer#yielder()
+     */
+    Yielder yielder();
+
+    @Override
+    void close();
+
+    /**
+     * {@return a new router of the elements of the provided {@code source}}
+     *
+     * @param mapper       of the elements
+     * @param source       to route elements from
+     * @param key          the name of the {@code int} element of the layout to route by
+     *                     (e.g. "symbol")
+     * @param destinations returning the producer to route a key to or {@code null}
+     *                     to drop elements with the key
+     * @param <T>          element type
+     * @throws IllegalArgumentException if the layout has no {@code int} element named {@code key}
+     */
+    static <T extends Record> QueueRouter<T> of(RecordMapper<T> mapper,
+                                                QueueConsumer<T> source,
+                                                String key,
+                                                IntFunction<? extends QueueProducer<T>> destinations) {
+        return new Impl<>(mapper, source, key, destinations);
+    }
+
+    final class Impl<T extends Record> implements QueueRouter<T> {
+
+        private final QueueConsumer<T> source;
+        private final IntFunction<? extends QueueProducer<T>> destinations;
+        private final long keyOffset;
+        private final VarHandle keyHandle; // In the byte order of the element
+        private final RawSlot slot;
+        private final Consumer<RawSlot> action = this::route;
+        private final Routes<T> routes = new Routes<>();
+
+        public Impl(RecordMapper<T> mapper,
+                    QueueConsumer<T> source,
+                    String key,
+                    IntFunction<? extends QueueProducer<T>> destinations) {
+            MemoryLayout layout = mapper.layout();
+            MemoryLayout selected;
+            try {
+                selected = layout.select(groupElement(key));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("No element named " + key + " in " + layout, e);
+            }
+            if (!(selected instanceof ValueLayout.OfInt)) {
+                throw new IllegalArgumentException("Not an int: " + selected);
+            }
+            this.source = source;
+            this.destinations = destinations;
+            this.keyOffset = layout.byteOffset(groupElement(key));
+            this.keyHandle = ((ValueLayout.OfInt) selected).withoutName().varHandle();
+            this.slot = new RawSlot(layout);
+        }
+
+        @Override
+        public int route(int max) {
+            return source.drainTo(slot, action, max);
+        }
+
+        @Override
+        public Yielder yielder() {
+            return source.yielder();
+        }
+
+        @Override
+        public void close() {
+            source.close();
+            routes.producers().forEach(QueueProducer::close);
+        }
+
+        private void route(RawSlot slot) {
+            int key = (int) keyHandle.get(slot.segment(), slot.offset() + keyOffset);
+            QueueProducer<T> destination = routes.computeIfAbsent(key, destinations);
+            if (destination != null) {
+                destination.append(slot.segment(), slot.offset());
+            }
+        }
+
+        // Open addressing from keys to destinations (or null) without boxing the keys
+        private static final class Routes<T extends Record> {
+
+            private int[] keys = new int[16];
+            private Object[] values = new Object[16];
+            private boolean[] used = new boolean[16];
+            private int size;
+
+            private Routes() {}
+
+            @SuppressWarnings("unchecked")
+            QueueProducer<T> computeIfAbsent(int key, IntFunction<? extends QueueProducer<T>> function) {
+                int i = find(key);
+                if (used[i]) {
+                    return (QueueProducer<T>) values[i];
+                }
+                QueueProducer<T> value = function.apply(key);
+                put(key, value);
+                return value;
+            }
+
+            private void put(int key, QueueProducer<T> value) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                }
+                int i = find(key);
+                if (!used[i]) {
+                    used[i] = true;
+                    keys[i] = key;
+                    size++;
+                }
+                values[i] = value;
+            }
+
+            @SuppressWarnings("unchecked")
+            Set<QueueProducer<T>> producers() {
+                // Several keys may share a destination
+                Set<QueueProducer<T>> producers = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (Object value : values) {
+                    if (value != null) {
+                        producers.add((QueueProducer<T>) value);
+                    }
+                }
+                return producers;
+            }
+
+            private int find(int key) {
+                int mask = keys.length - 1;
+                int i = Util.mix(key) & mask;
+                while (used[i] && keys[i] != key) {
+                    i = (i + 1) & mask;
+                }
+                return i;
+            }
+
+            @SuppressWarnings("unchecked")
+            private void grow() {
+                int[] oldKeys = keys;
+                Object[] oldValues = values;
+                boolean[] oldUsed = used;
+                keys = new int[oldKeys.length * 2];
+                values = new Object[oldKeys.length * 2];
+                used = new boolean[oldKeys.length * 2];
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldUsed[i]) {
+                        put(oldKeys[i], (QueueProducer<T>) oldValues[i]);
+                    }
+                }
+            }
+
+        }
+
+    }
+
+}
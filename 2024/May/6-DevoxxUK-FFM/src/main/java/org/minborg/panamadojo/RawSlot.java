@@ -0,0 +1,39 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+
+/**
+ * A flyweight that only keeps track of where an element is so that its bytes can
+ * be read or copied as they are.
+ */
+final class RawSlot implements Flyweight {
+
+    private final MemoryLayout layout;
+    private MemorySegment segment = MemorySegment.NULL;
+    private long offset;
+
+    RawSlot(MemoryLayout layout) {
+        this.layout = layout;
+    }
+
+    MemorySegment segment() {
+        return segment;
+    }
+
+    long offset() {
+        return offset;
+    }
+
+    @Override
+    public MemoryLayout layout() {
+        return layout;
+    }
+
+    @Override
+    public void rebase(MemorySegment segment, long offset) {
+        this.segment = segment;
+        this.offset = offset;
+    }
+
+}
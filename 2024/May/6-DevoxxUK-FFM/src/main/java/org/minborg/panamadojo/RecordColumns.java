@@ -0,0 +1,223 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.PaddingLayout;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * A fixed number of records stored column by column (struct-of-arrays) rather than
+ * record by record (array-of-structs) in off-heap memory.
+ * <p>
+ * Each element of the layout is stored in a contiguous segment of its own, in native
+ * byte order. So, computing the average {@code last} price of a day's ticks only
+ * touches the {@code last} column and the loop over it can be vectorized by the JIT:
+ * <pre>{@code
+ * try (var arena = Arena.ofConfined()) {
+ *     var columns = RecordColumns.of(MARKET_INFO_RECORD_MAPPER, ticks.size(), arena);
+ *     for (int i = 0; i < ticks.size(); i++) {
+ *         columns.set(i, ticks.get(i));
+ *     }
+ *     double average = columns.ints("last").average().orElse(0);
+ * }
+ * }</pre>
+ * Records are assembled and taken apart by the provided mapper via a scratch element,
+ * so instances are not thread safe.
+ *
+ * @param <T> record type
+ */
+public interface RecordColumns<T extends Record> {
+
+    /**
+     * {@return the number of records}
+     */
+    long length();
+
+    /**
+     * {@return the record at the provided {@code index}}
+     *
+     * @param index of the record
+     * @throws IndexOutOfBoundsException if the index is not in [0, length())
+     */
+    T get(long index);
+
+    /**
+     * Stores the provided {@code value} at the provided {@code index}.
+     *
+     * @param index of the record
+     * @param value to store
+     * @throws IndexOutOfBoundsException if the index is not in [0, length())
+     */
+    void set(long index, T value);
+
+    /**
+     * {@return the segment holding the values of the element with the provided
+     *          {@code name}, one after the other in native byte order}
+     *
+     * @param name of the element (e.g. "last")
+     * @throws IllegalArgumentException if there is no element with the name
+     */
+    MemorySegment column(String name);
+
+    /**
+     * {@return a stream of the values of the {@code int} element with the provided
+     *          {@code name}}
+     *
+     * @param name of the element (e.g. "last")
+     * @throws IllegalArgumentException if there is no {@code int} element with the name
+     */
+    IntStream ints(String name);
+
+    /**
+     * {@return a stream of the values of the {@code long} element with the provided
+     *          {@code name}}
+     *
+     * @param name of the element (e.g. "time")
+     * @throws IllegalArgumentException if there is no {@code long} element with the name
+     */
+    LongStream longs(String name);
+
+    /**
+     * {@return a stream of the values of the {@code double} or {@code float} element
+     *          with the provided {@code name}}
+     *
+     * @param name of the element
+     * @throws IllegalArgumentException if there is no {@code double} or {@code float}
+     *                                  element with the name
+     */
+    DoubleStream doubles(String name);
+
+    /**
+     * {@return new zeroed columns for {@code length} records of the provided mapper,
+     *          allocated in the provided {@code arena}}
+     *
+     * @param mapper of the records
+     * @param length number of records
+     * @param arena  to allocate the columns in
+     * @param <T>    record type
+     * @throws IllegalArgumentException if the layout has other members than values and padding
+     */
+    static <T extends Record> RecordColumns<T> of(RecordMapper<T> mapper,
+                                                  long length,
+                                                  Arena arena) {
+        return new Impl<>(mapper, length, arena);
+    }
+
+    final class Impl<T extends Record> implements RecordColumns<T> {
+
+        private final RecordMapper<T> mapper;
+        private final long length;
+        private final MemorySegment scratch;   // One element with the layout of the mapper
+        private final Column[] columns;
+        private final Map<String, Column> byName = new LinkedHashMap<>();
+
+        // A value member at offset in the layout of the mapper
+        private record Column(ValueLayout member, long offset, ValueLayout element, MemorySegment segment) {}
+
+        public Impl(RecordMapper<T> mapper, long length, Arena arena) {
+            if (!(mapper.layout() instanceof StructLayout struct)) {
+                throw new IllegalArgumentException("Not a struct: " + mapper.layout());
+            }
+            if (length < 0) {
+                throw new IllegalArgumentException("length < 0: " + length);
+            }
+            this.mapper = mapper;
+            this.length = length;
+            this.scratch = arena.allocate(struct);
+            long offset = 0;
+            for (MemoryLayout member : struct.memberLayouts()) {
+                switch (member) {
+                    case PaddingLayout _ -> {}
+                    case ValueLayout value -> {
+                        ValueLayout element = value.withoutName().withOrder(ByteOrder.nativeOrder());
+                        MemorySegment segment = arena.allocate(element.byteSize() * length, element.byteAlignment());
+                        byName.put(value.name().orElse("#" + byName.size()),
+                                new Column(value.withoutName().withByteAlignment(1), offset, element, segment));
+                    }
+                    default -> throw new IllegalArgumentException("Unsupported member: " + member);
+                }
+                offset += member.byteSize();
+            }
+            this.columns = byName.values().toArray(new Column[0]);
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public T get(long index) {
+            Objects.checkIndex(index, length);
+            for (Column column : columns) {
+                MemorySegment.copy(column.segment, column.element, index * column.element.byteSize(),
+                        scratch, column.member, column.offset, 1);
+            }
+            return mapper.get(scratch);
+        }
+
+        @Override
+        public void set(long index, T value) {
+            Objects.checkIndex(index, length);
+            mapper.set(scratch, value);
+            for (Column column : columns) {
+                MemorySegment.copy(scratch, column.member, column.offset,
+                        column.segment, column.element, index * column.element.byteSize(), 1);
+            }
+        }
+
+        @Override
+        public MemorySegment column(String name) {
+            return column(name, ValueLayout.class, "value").segment;
+        }
+
+        @Override
+        public IntStream ints(String name) {
+            MemorySegment segment = column(name, ValueLayout.OfInt.class, "int").segment;
+            return LongStream.range(0, length)
+                    .mapToInt(i -> segment.getAtIndex(ValueLayout.JAVA_INT, i));
+        }
+
+        @Override
+        public LongStream longs(String name) {
+            MemorySegment segment = column(name, ValueLayout.OfLong.class, "long").segment;
+            return LongStream.range(0, length)
+                    .map(i -> segment.getAtIndex(ValueLayout.JAVA_LONG, i));
+        }
+
+        @Override
+        public DoubleStream doubles(String name) {
+            Column column = column(name, ValueLayout.class, "value");
+            MemorySegment segment = column.segment;
+            return switch (column.element) {
+                case ValueLayout.OfDouble _ -> LongStream.range(0, length)
+                        .mapToDouble(i -> segment.getAtIndex(ValueLayout.JAVA_DOUBLE, i));
+                case ValueLayout.OfFloat _ -> LongStream.range(0, length)
+                        .mapToDouble(i -> segment.getAtIndex(ValueLayout.JAVA_FLOAT, i));
+                default -> throw new IllegalArgumentException("Not a double or float element: " + name);
+            };
+        }
+
+        private Column column(String name, Class<? extends ValueLayout> type, String description) {
+            Column column = byName.get(name);
+            if (column == null) {
+                throw new IllegalArgumentException("No element named " + name + " in " + mapper.layout());
+            }
+            if (!type.isInstance(column.element)) {
+                throw new IllegalArgumentException("Not a " + description + " element: " + name);
+            }
+            return column;
+        }
+
+    }
+
+}
@@ -2,6 +2,11 @@ package org.minborg.panamadojo;
 
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
+import java.lang.reflect.Array;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 public interface RecordMapper<T extends Record> {
 
@@ -11,11 +16,130 @@ public interface RecordMapper<T extends Record> {
 
     MemoryLayout layout();
 
-    // To be JEPed...
+    Class<T> recordType();
+
+    /**
+     * {@return the element at the provided {@code offset} in the provided {@code segment}}
+     * <p>
+     * Mappers should override this method so that elements can be read without
+     * slicing the segment.
+     *
+     * @param segment to read from
+     * @param offset  of the element
+     */
+    default T get(MemorySegment segment, long offset) {
+        return get(segment.asSlice(offset, layout()));
+    }
+
+    /**
+     * Writes the provided {@code value} at the provided {@code offset} in the provided
+     * {@code segment}.
+     *
+     * @param segment to write to
+     * @param offset  of the element
+     * @param value   to write
+     * @see #get(MemorySegment, long)
+     */
+    default void set(MemorySegment segment, long offset, T value) {
+        set(segment.asSlice(offset, layout()), value);
+    }
+
+    /**
+     * {@return the element at the provided {@code index} in the provided {@code segment}
+     *          viewed as an array of elements}
+     *
+     * @param segment to read from
+     * @param index   of the element
+     */
+    default T getAtIndex(MemorySegment segment, long index) {
+        return get(segment, index * layout().byteSize());
+    }
+
+    /**
+     * {@return the {@code count} elements starting at {@code fromIndex} in the provided
+     *          {@code segment} viewed as an array of elements}
+     *
+     * @param segment   to read from
+     * @param fromIndex of the first element
+     * @param count     number of elements
+     * @throws IndexOutOfBoundsException if the elements are not all in the segment
+     */
+    @SuppressWarnings("unchecked")
+    default T[] getAll(MemorySegment segment, long fromIndex, int count) {
+        long size = layout().byteSize();
+        long offset = checkIndices(segment, fromIndex, count, size);
+        T[] values = (T[]) Array.newInstance(recordType(), count);
+        for (int i = 0; i < count; i++) {
+            values[i] = get(segment, offset);
+            offset += size;
+        }
+        return values;
+    }
+
+    /**
+     * Writes the provided {@code values} starting at {@code index} in the provided
+     * {@code segment} viewed as an array of elements.
+     *
+     * @param segment to write to
+     * @param index   of the first element
+     * @param values  to write
+     * @throws IndexOutOfBoundsException if the elements would not all be in the segment
+     */
+    default void setAll(MemorySegment segment, long index, List<? extends T> values) {
+        long size = layout().byteSize();
+        long offset = checkIndices(segment, index, values.size(), size);
+        for (T value : values) {
+            set(segment, offset, value);
+            offset += size;
+        }
+    }
+
+    /**
+     * {@return a stream of the elements of the provided {@code segment} viewed as an
+     *          array of elements}
+     * <p>
+     * Like {@link MemorySegment#elements(MemoryLayout)} but without creating a slice
+     * for each element.
+     *
+     * @param segment to read from
+     * @throws IllegalArgumentException if the size of the segment is not a multiple of
+     *                                  the size of the layout
+     */
+    default Stream<T> stream(MemorySegment segment) {
+        long size = layout().byteSize();
+        if (segment.byteSize() % size != 0) {
+            throw new IllegalArgumentException("Segment size " + segment.byteSize() +
+                    " is not a multiple of " + size);
+        }
+        return LongStream.range(0, segment.byteSize() / size)
+                .mapToObj(i -> get(segment, i * size));
+    }
+
+    /**
+     * {@return a new mapper between records of the provided {@code recordType} and
+     *          memory with the provided {@code layout}}
+     * <p>
+     * Each record component is mapped to the element of the layout with the same name
+     * and type. Elements without a component (e.g. padding) are ignored.
+     * <p>
+     * The mapper is a generated hidden class that reads and writes each element via a
+     * {@code static final} var handle and invokes the canonical constructor of the
+     * record. So, the JIT compiles it to the same code as a hand-written mapper like
+     * {@link Kata2_RecordMapper#MARKET_INFO_RECORD_MAPPER}.
+     *
+     * @param recordType the type of the records
+     * @param layout     of the memory
+     * @throws IllegalArgumentException if a component has no element of the same name and type
+     */
     static <T extends Record> RecordMapper<T> of(Class<T> recordType,
                                                  MemoryLayout layout) {
+        return MapperGenerator.generate(recordType, layout);
+    }
 
-        throw new UnsupportedOperationException("Coming soon to a JEP near you!");
+    // Checks all elements once rather than on each access and returns the first offset
+    private static long checkIndices(MemorySegment segment, long index, int count, long size) {
+        Objects.checkFromIndexSize(index, count, segment.byteSize() / size);
+        return index * size;
     }
 
 }
@@ -0,0 +1,207 @@
+package org.minborg.panamadojo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.MemoryLayout.paddingLayout;
+import static java.lang.foreign.MemoryLayout.structLayout;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static org.minborg.panamadojo.Kata5_AtomicOperations.*;
+
+/**
+ * The messages exchanged by a {@link QueueReplicator} and a {@link QueueFollower}.
+ * <p>
+ * Each message starts with its type and its size in bytes, including whatever
+ * follows the layout of the message. Sizes are padded to a multiple of 8 so that
+ * messages, and the entries they hold, stay aligned in the receive buffer. All
+ * fields are little endian, like the queue files, so entries are shipped exactly
+ * as they are laid out in the file.
+ */
+final class Replication {
+
+    private Replication() {}
+
+    // FOLLOWER -> LEADER: SUBSCRIBE, ACK, ACK, ...
+    // LEADER -> FOLLOWER: FILE, DATA, DATA, ..., FILE (rolled), DATA, ...
+
+    static final int FILE = 1;
+    static final int DATA = 2;
+    static final int SUBSCRIBE = 3;
+    static final int ACK = 4;
+
+    // Followed by the name of the file (UTF-8)
+    static final StructLayout FILE_MESSAGE = structLayout(
+            Util.JAVA_INT_LE.withName("type"),
+            Util.JAVA_INT_LE.withName("size"),
+            Util.JAVA_INT_LE.withName("slotSize"),
+            Util.JAVA_INT_LE.withName("nameLength"),
+            Util.JAVA_LONG_LE.withName("baseIndex"),
+            Util.JAVA_LONG_LE.withName("limit"),
+            Util.JAVA_LONG_LE.withName("rolledAt")  // Position of the ROLLED slot in the previous file or -1
+    ).withName("FileMessage");
+
+    // Followed by completed (or aborted) entries and padding
+    static final StructLayout DATA_MESSAGE = structLayout(
+            Util.JAVA_INT_LE.withName("type"),
+            Util.JAVA_INT_LE.withName("size"),
+            Util.JAVA_LONG_LE.withName("position"),  // Of the first entry in the file
+            Util.JAVA_LONG_LE.withName("sentNanos"), // Leader's nano time, echoed by the ACK
+            Util.JAVA_LONG_LE.withName("length")     // Of the entries, excluding the padding
+    ).withName("DataMessage");
+
+    // Followed by the name of the file to resume from (UTF-8), if any
+    static final StructLayout SUBSCRIBE_MESSAGE = structLayout(
+            Util.JAVA_INT_LE.withName("type"),
+            Util.JAVA_INT_LE.withName("size"),
+            Util.JAVA_LONG_LE.withName("position"),  // Of the first missing entry in the file
+            Util.JAVA_INT_LE.withName("nameLength"), // 0 to start from the first file
+            paddingLayout(4)
+    ).withName("SubscribeMessage");
+
+    static final StructLayout ACK_MESSAGE = structLayout(
+            Util.JAVA_INT_LE.withName("type"),
+            Util.JAVA_INT_LE.withName("size"),
+            Util.JAVA_LONG_LE.withName("received"),  // Total number of entry bytes written
+            Util.JAVA_LONG_LE.withName("sentNanos")  // Of the latest DATA message written
+    ).withName("AckMessage");
+
+    static final int MAX_NAME_LENGTH = 255;
+    static final long MAX_BATCH = MappedFile.OVERLAP; // Always fits in a single chunk
+    static final long MAX_MESSAGE = DATA_MESSAGE.byteSize() + MAX_BATCH;
+
+    // https://bugs.openjdk.org/browse/JDK-8331734
+
+    static final VarHandle INT = Util.JAVA_INT_LE.varHandle();
+    static final VarHandle LONG = Util.JAVA_LONG_LE.varHandle();
+    static final long TYPE_OFFSET = 0;
+    static final long SIZE_OFFSET = Util.JAVA_INT_LE.byteSize();
+    static final long SLOT_SIZE_OFFSET = FILE_MESSAGE.byteOffset(groupElement("slotSize"));
+    static final long FILE_NAME_LENGTH_OFFSET = FILE_MESSAGE.byteOffset(groupElement("nameLength"));
+    static final long SUBSCRIBE_NAME_LENGTH_OFFSET = SUBSCRIBE_MESSAGE.byteOffset(groupElement("nameLength"));
+    static final long BASE_INDEX_OFFSET = FILE_MESSAGE.byteOffset(groupElement("baseIndex"));
+    static final long LIMIT_OFFSET = FILE_MESSAGE.byteOffset(groupElement("limit"));
+    static final long ROLLED_AT_OFFSET = FILE_MESSAGE.byteOffset(groupElement("rolledAt"));
+    static final long POSITION_OFFSET = DATA_MESSAGE.byteOffset(groupElement("position"));
+    static final long SENT_NANOS_OFFSET = DATA_MESSAGE.byteOffset(groupElement("sentNanos"));
+    static final long LENGTH_OFFSET = DATA_MESSAGE.byteOffset(groupElement("length"));
+    static final long RECEIVED_OFFSET = ACK_MESSAGE.byteOffset(groupElement("received"));
+
+    static int type(MemorySegment segment, long offset) {
+        return (int) INT.get(segment, offset + TYPE_OFFSET);
+    }
+
+    static int size(MemorySegment segment, long offset) {
+        return (int) INT.get(segment, offset + SIZE_OFFSET);
+    }
+
+    /**
+     * {@return the size of the message, padded to a multiple of 8}
+     *
+     * @param segment holding the message
+     * @param type    of the message
+     * @param size    of the message
+     */
+    static int header(MemorySegment segment, int type, long size) {
+        int padded = Math.toIntExact((size + 7) & ~7L);
+        INT.set(segment, TYPE_OFFSET, type);
+        INT.set(segment, SIZE_OFFSET, padded);
+        return padded;
+    }
+
+    static int putName(MemorySegment segment, long offset, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Name too long: " + name);
+        }
+        MemorySegment.copy(bytes, 0, segment, JAVA_BYTE, offset, bytes.length);
+        return bytes.length;
+    }
+
+    static String getName(MemorySegment segment, long offset, long length) {
+        return new String(segment.asSlice(offset, length).toArray(JAVA_BYTE),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * {@return the size of the finished entry at the provided {@code offset}}
+     *
+     * @param segment  holding the entry
+     * @param offset   of the entry
+     * @param slotSize of the file the entry belongs to
+     */
+    static long entrySize(MemorySegment segment, long offset, int slotSize) {
+        return slotSize != QueueAppender.VARIABLE
+                ? slotSize
+                : FrameHeader.frameSize(FrameHeader.length(segment, offset));
+    }
+
+    /**
+     * {@return if the provided {@code flags} belong to an entry consumers are done
+     *          waiting for}
+     *
+     * @param flags of an entry
+     */
+    static boolean isFinished(int flags) {
+        return (flags & (Header.COMPLETED | Header.ABORTED)) != 0;
+    }
+
+    /**
+     * Writes all the provided {@code buffers}, spinning if the socket buffer of a
+     * non-blocking {@code channel} is full. Only used for small messages.
+     */
+    static void writeFully(SocketChannel channel, ByteBuffer... buffers) throws IOException {
+        while (buffers[buffers.length - 1].hasRemaining()) {
+            if (channel.write(buffers) == 0) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    static ServerSocketChannel bind(SocketAddress address) {
+        try {
+            ServerSocketChannel server = address instanceof UnixDomainSocketAddress
+                    ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                    : ServerSocketChannel.open();
+            server.bind(address);
+            server.configureBlocking(false);
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static SocketChannel connect(SocketAddress address) {
+        try {
+            return configure(SocketChannel.open(address));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static SocketChannel configure(SocketChannel channel) throws IOException {
+        noDelay(channel);
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    // Batches are already as large as they get so do not wait for more
+    private static void noDelay(NetworkChannel channel) throws IOException {
+        if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+    }
+
+}
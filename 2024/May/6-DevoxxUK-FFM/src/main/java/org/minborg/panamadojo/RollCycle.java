@@ -0,0 +1,72 @@
+package org.minborg.panamadojo;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+
+/**
+ * Determines how often a rolling queue starts a new file.
+ * <p>
+ * Cycles are aligned to UTC and name their files after the start of the cycle
+ * (e.g. {@code 20240508.queue} for a {@link #DAILY} cycle).
+ */
+public enum RollCycle {
+
+    MINUTELY("yyyyMMdd-HHmm", Duration.ofMinutes(1)),
+    HOURLY("yyyyMMdd-HH", Duration.ofHours(1)),
+    DAILY("yyyyMMdd", Duration.ofDays(1));
+
+    private final DateTimeFormatter formatter;
+    private final int nameLength;
+    private final long lengthMillis;
+
+    RollCycle(String pattern, Duration length) {
+        this.formatter = new DateTimeFormatterBuilder()
+                .appendPattern(pattern)
+                .parseDefaulting(ChronoField.HOUR_OF_DAY, 0)
+                .parseDefaulting(ChronoField.MINUTE_OF_HOUR, 0)
+                .toFormatter()
+                .withZone(ZoneOffset.UTC);
+        this.nameLength = pattern.length();
+        this.lengthMillis = length.toMillis();
+    }
+
+    /**
+     * {@return the name of the cycle holding the provided {@code epochMillis}}
+     *
+     * @param epochMillis to name
+     */
+    String name(long epochMillis) {
+        return formatter.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    /**
+     * {@return the epoch millis at which the cycle with the provided {@code name} ends}
+     *
+     * @param name of the cycle
+     */
+    long endMillis(String name) {
+        return Instant.from(formatter.parse(name)).toEpochMilli() + lengthMillis;
+    }
+
+    /**
+     * {@return if the provided {@code name} is a valid name of this cycle}
+     *
+     * @param name to test
+     */
+    boolean isName(String name) {
+        if (name.length() != nameLength) {
+            return false;
+        }
+        try {
+            formatter.parse(name);
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+}
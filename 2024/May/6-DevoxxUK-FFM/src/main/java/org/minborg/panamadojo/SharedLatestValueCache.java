@@ -0,0 +1,406 @@
+package org.minborg.panamadojo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.MemoryLayout.paddingLayout;
+import static java.lang.foreign.MemoryLayout.sequenceLayout;
+import static java.lang.foreign.MemoryLayout.structLayout;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A {@link LatestValueCache} in a mapped file that any number of threads and JVMs
+ * on the same machine can read and update, for example so pricing services can share
+ * the latest {@link MarketInfo} per symbol without each running its own consumer:
+ * <pre>{@code
+ * try (var latest = SharedLatestValueCache.of(MARKET_INFO_RECORD_MAPPER, "symbol", 1024, LATEST_PATH)) {
+ *     Optional<MarketInfo> orcl = latest.get(Util.symbolAsInt("ORCL"));
+ *     ...
+ * }
+ * }</pre>
+ * As in {@link Kata5_AtomicOperations.Header}, the entries are claimed with CAS
+ * operations that work across JVMs. Each entry's sequence number is a seqlock:
+ * writers acquire the entry by a CAS from an even to an odd sequence number, copy
+ * the element and release it by making the sequence number even again. Readers
+ * copy the element and retry if the sequence number was odd or changed meanwhile.
+ * <p>
+ * Keys are never removed. A writer that dies while holding an entry leaves the entry
+ * acquired. Readers and writers wait at most a timeout (1 second by default) for an
+ * acquired entry and then throw an {@code IllegalStateException}. As the element
+ * might be torn, such an entry stays unusable and the file must be recreated.
+ *
+ * @param <T> element type
+ */
+public interface SharedLatestValueCache<T extends Record> extends LatestValueCache<T>, AutoCloseable {
+
+    /**
+     * Unmaps the file. The entries stay in the file.
+     */
+    @Override
+    void close();
+
+    /**
+     * {@return a cache of elements of the provided {@code mapper} keyed by the {@code int}
+     *          element named {@code key}, in the provided {@code file} which is created
+     *          if it does not exist}
+     *
+     * @param mapper   of the elements
+     * @param key      the name of the {@code int} element of the layout to key by
+     *                 (e.g. "symbol")
+     * @param capacity the maximum number of keys
+     * @param file     holding the table
+     * @param <T>      element type
+     * @throws IllegalArgumentException if the layout has no {@code int} element named {@code key}
+     *                                  or if the capacity is not positive
+     * @throws IllegalStateException    if the file holds another kind of table
+     */
+    static <T extends Record> SharedLatestValueCache<T> of(RecordMapper<T> mapper,
+                                                           String key,
+                                                           int capacity,
+                                                           Path file) {
+        return of(mapper, key, capacity, file, Duration.ofSeconds(1));
+    }
+
+    /**
+     * {@return a cache of elements of the provided {@code mapper} keyed by the {@code int}
+     *          element named {@code key}, in the provided {@code file} which is created
+     *          if it does not exist, that waits at most {@code timeout} for an entry
+     *          held by another writer}
+     *
+     * @param mapper   of the elements
+     * @param key      the name of the {@code int} element of the layout to key by
+     *                 (e.g. "symbol")
+     * @param capacity the maximum number of keys
+     * @param file     holding the table
+     * @param timeout  after which a writer holding an entry is deemed dead
+     * @param <T>      element type
+     * @throws IllegalArgumentException if the layout has no {@code int} element named {@code key},
+     *                                  if the capacity is not positive or if the timeout
+     *                                  is not positive
+     * @throws IllegalStateException    if the file holds another kind of table or was
+     *                                  not initialized in time
+     */
+    static <T extends Record> SharedLatestValueCache<T> of(RecordMapper<T> mapper,
+                                                           String key,
+                                                           int capacity,
+                                                           Path file,
+                                                           Duration timeout) {
+        return new Impl<>(mapper, key, capacity, file, timeout);
+    }
+
+    final class Impl<T extends Record> implements SharedLatestValueCache<T> {
+
+        // TABLE FILE:
+        // TABLE_HEADER, ENTRY, ENTRY, ... (slots times)
+
+        static final StructLayout TABLE_HEADER = structLayout(
+                Util.JAVA_LONG_LE.withName("magic"),
+                Util.JAVA_INT_LE.withName("version"),
+                Util.JAVA_INT_LE.withName("elementSize"),
+                Util.JAVA_INT_LE.withName("keyOffset"),
+                Util.JAVA_INT_LE.withName("capacity"),
+                Util.JAVA_INT_LE.withName("size"),    // Reserved by writers before claiming an entry
+                paddingLayout(36)                     // Keep entries off the size's cache line
+        ).withName("TableHeader");
+
+        static final long MAGIC = 0x5453_4554_414C_4650L; // "PFLATEST" in little endian
+        static final long INITIALIZING = -1;              // Magic while the header is written
+        static final int VERSION = 1;
+
+        // https://bugs.openjdk.org/browse/JDK-8331734
+
+        private static final VarHandle LONG = Util.JAVA_LONG_LE.varHandle();
+        private static final VarHandle INT = Util.JAVA_INT_LE.varHandle();
+        private static final long MAGIC_OFFSET = TABLE_HEADER.byteOffset(groupElement("magic"));
+        private static final long VERSION_OFFSET = TABLE_HEADER.byteOffset(groupElement("version"));
+        private static final long ELEMENT_SIZE_OFFSET = TABLE_HEADER.byteOffset(groupElement("elementSize"));
+        private static final long KEY_OFFSET_OFFSET = TABLE_HEADER.byteOffset(groupElement("keyOffset"));
+        private static final long CAPACITY_OFFSET = TABLE_HEADER.byteOffset(groupElement("capacity"));
+        private static final long SIZE_OFFSET = TABLE_HEADER.byteOffset(groupElement("size"));
+
+        private static final long FREE = 0;
+        private static final long CLAIMED = 1; // The key and the first element are being written
+
+        private static final long NOT_WAITING = Long.MIN_VALUE;
+
+        private final RecordMapper<T> mapper;
+        private final long keyOffset;      // In an element
+        private final VarHandle keyHandle; // In the byte order of the element
+        private final long elementSize;
+        private final StructLayout entry;  // sequence, key and element
+        private final long sequenceOffset;
+        private final long entryKeyOffset;
+        private final long valueOffset;
+        private final int capacity;
+        private final int mask;
+        private final Path file;
+        private final long timeoutNanos;
+        private final Arena arena;
+        private final MemorySegment header;
+        private final MemorySegment table;
+        private final RawSlot slot;
+        private final Consumer<RawSlot> action = s -> update(s.segment(), s.offset());
+        private final ThreadLocal<MemorySegment> scratch;
+
+        public Impl(RecordMapper<T> mapper, String key, int capacity, Path file, Duration timeout) {
+            MemoryLayout layout = mapper.layout();
+            MemoryLayout selected;
+            try {
+                selected = layout.select(groupElement(key));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("No element named " + key + " in " + layout, e);
+            }
+            if (!(selected instanceof ValueLayout.OfInt)) {
+                throw new IllegalArgumentException("Not an int: " + selected);
+            }
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity <= 0: " + capacity);
+            }
+            if (timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException("Invalid timeout: " + timeout);
+            }
+            this.mapper = mapper;
+            this.keyOffset = layout.byteOffset(groupElement(key));
+            this.keyHandle = ((ValueLayout.OfInt) selected).withoutName().varHandle();
+            this.elementSize = layout.byteSize();
+            long valueSize = (elementSize + Long.BYTES - 1) & -Long.BYTES;
+            this.entry = structLayout(
+                    Util.JAVA_LONG_LE.withName("sequence"), // Odd while written, 0 if free
+                    Util.JAVA_INT_LE.withName("key"),
+                    paddingLayout(Integer.BYTES),
+                    sequenceLayout(valueSize, JAVA_BYTE).withName("value")
+            ).withName("Entry");
+            this.sequenceOffset = entry.byteOffset(groupElement("sequence"));
+            this.entryKeyOffset = entry.byteOffset(groupElement("key"));
+            this.valueOffset = entry.byteOffset(groupElement("value"));
+            this.capacity = capacity;
+            // At most half full so probe sequences stay short
+            int slots = Integer.highestOneBit(Math.max(1, capacity * 2 - 1)) << 1;
+            this.mask = slots - 1;
+            this.file = file;
+            this.timeoutNanos = timeout.toNanos();
+            this.arena = Arena.ofShared();
+            MemorySegment mapped;
+            try (var fc = FileChannel.open(file, CREATE, SPARSE, READ, WRITE)) {
+                mapped = fc.map(READ_WRITE, 0, TABLE_HEADER.byteSize() + entry.byteSize() * slots, arena);
+            } catch (IOException e) {
+                arena.close();
+                throw new UncheckedIOException(e);
+            }
+            this.header = mapped.asSlice(0, TABLE_HEADER.byteSize());
+            this.table = mapped.asSlice(TABLE_HEADER.byteSize());
+            try {
+                init();
+            } catch (IllegalStateException e) {
+                arena.close();
+                throw e;
+            }
+            this.slot = new RawSlot(layout);
+            this.scratch = ThreadLocal.withInitial(() -> Arena.ofAuto().allocate(layout));
+        }
+
+        @Override
+        public void update(MemorySegment segment, long offset) {
+            int key = (int) keyHandle.get(segment, offset + keyOffset);
+            long entry = find(key);
+            if (entry < 0 && (entry = claim(key, segment, offset)) < 0) {
+                // The element was written when the entry was claimed
+                return;
+            }
+            long sequence;
+            long waitStart = NOT_WAITING;
+            // Works across all threads/JVMs on the same machine
+            while (((sequence = (long) LONG.getAcquire(table, entry + sequenceOffset)) & 1) != 0 ||
+                    !LONG.compareAndSet(table, entry + sequenceOffset, sequence, sequence + 1)) {
+                // Another writer is updating the element
+                waitStart = await(waitStart, entry);
+            }
+            MemorySegment.copy(segment, offset, table, entry + valueOffset, elementSize);
+            LONG.setRelease(table, entry + sequenceOffset, sequence + 2);
+        }
+
+        @Override
+        public void update(T value) {
+            MemorySegment segment = scratch.get();
+            mapper.set(segment, value);
+            update(segment, 0);
+        }
+
+        @Override
+        public int update(QueueConsumer<T> consumer, int max) {
+            return consumer.drainTo(slot, action, max);
+        }
+
+        @Override
+        public boolean copyTo(int key, MemorySegment destination, long offset) {
+            long entry = find(key);
+            if (entry < 0) {
+                return false;
+            }
+            long waitStart = NOT_WAITING;
+            for (;;) {
+                long before = (long) LONG.getAcquire(table, entry + sequenceOffset);
+                if ((before & 1) == 0) {
+                    MemorySegment.copy(table, entry + valueOffset, destination, offset, elementSize);
+                    VarHandle.loadLoadFence(); // The element must be read before the sequence
+                    if ((long) LONG.getOpaque(table, entry + sequenceOffset) == before) {
+                        return true;
+                    }
+                }
+                // A writer is updating the element
+                waitStart = await(waitStart, entry);
+            }
+        }
+
+        @Override
+        public Optional<T> get(int key) {
+            MemorySegment copy = MemorySegment.ofArray(new long[(int) ((elementSize + Long.BYTES - 1) / Long.BYTES)]);
+            return copyTo(key, copy, 0)
+                    ? Optional.of(mapper.get(copy))
+                    : Optional.empty();
+        }
+
+        @Override
+        public int size() {
+            // Might briefly include a key that is being claimed
+            return Math.min(capacity, (int) INT.getVolatile(header, SIZE_OFFSET));
+        }
+
+        @Override
+        public int capacity() {
+            return capacity;
+        }
+
+        @Override
+        public void close() {
+            arena.close();
+        }
+
+        // Initializes the header unless another JVM already has. Only the JVM that
+        // wins the CAS writes the fields so the others validate against its arguments.
+        private void init() {
+            if (LONG.compareAndSet(header, MAGIC_OFFSET, 0L, INITIALIZING)) {
+                INT.set(header, VERSION_OFFSET, VERSION);
+                INT.set(header, ELEMENT_SIZE_OFFSET, (int) elementSize);
+                INT.set(header, KEY_OFFSET_OFFSET, (int) keyOffset);
+                INT.set(header, CAPACITY_OFFSET, capacity);
+                LONG.setRelease(header, MAGIC_OFFSET, MAGIC); // Publishes the fields above
+            }
+            long waitStart = NOT_WAITING;
+            while ((long) LONG.getAcquire(header, MAGIC_OFFSET) == INITIALIZING) {
+                // Another JVM is writing the header
+                if (waitStart != NOT_WAITING && System.nanoTime() - waitStart > timeoutNanos) {
+                    throw new IllegalStateException("Header not initialized in time: " + file);
+                }
+                waitStart = waitStart == NOT_WAITING ? System.nanoTime() : waitStart;
+                Thread.onSpinWait();
+            }
+            if ((long) LONG.getAcquire(header, MAGIC_OFFSET) != MAGIC ||
+                    (int) INT.get(header, VERSION_OFFSET) != VERSION) {
+                throw new IllegalStateException("Not a latest value table: " + file);
+            }
+            if ((int) INT.get(header, ELEMENT_SIZE_OFFSET) != elementSize ||
+                    (int) INT.get(header, KEY_OFFSET_OFFSET) != keyOffset ||
+                    (int) INT.get(header, CAPACITY_OFFSET) != capacity) {
+                throw new IllegalStateException("Table mismatch: " + file + " " + Util.toHex(header));
+            }
+        }
+
+        // The offset of the entry with the key or -1
+        private long find(int key) {
+            for (int i = Util.mix(key) & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+                long entry = i * this.entry.byteSize();
+                long sequence = awaitKey(entry);
+                if (sequence == FREE) {
+                    return -1;
+                }
+                if ((int) INT.get(table, entry + entryKeyOffset) == key) {
+                    return entry;
+                }
+            }
+            return -1;
+        }
+
+        // Adds the key with the element at the offset in the segment and returns -1 or,
+        // if another writer added the key first, the offset of the entry with the key
+        private long claim(int key, MemorySegment segment, long offset) {
+            for (int i = Util.mix(key) & mask; ; i = (i + 1) & mask) {
+                long entry = i * this.entry.byteSize();
+                long sequence = awaitKey(entry);
+                if (sequence == FREE) {
+                    if (LONG.compareAndSet(table, entry + sequenceOffset, FREE, CLAIMED)) {
+                        // Reserved after claiming the entry so a writer of the same key waits
+                        // for the key instead of seeing a table that is only full meanwhile
+                        if (!reserve()) {
+                            LONG.setRelease(table, entry + sequenceOffset, FREE);
+                            throw new IllegalStateException("Full: " + capacity + " keys");
+                        }
+                        INT.set(table, entry + entryKeyOffset, key);
+                        MemorySegment.copy(segment, offset, table, entry + valueOffset, elementSize);
+                        LONG.setRelease(table, entry + sequenceOffset, CLAIMED + 1); // Publishes the key
+                        return -1;
+                    }
+                    // Lost the race for the entry so check it again
+                    awaitKey(entry);
+                }
+                if ((int) INT.get(table, entry + entryKeyOffset) == key) {
+                    return entry;
+                }
+            }
+        }
+
+        // Reserves room for one more key across all writers unless full
+        private boolean reserve() {
+            int size;
+            do {
+                size = (int) INT.getVolatile(header, SIZE_OFFSET);
+                if (size >= capacity) {
+                    return false;
+                }
+            } while (!INT.compareAndSet(header, SIZE_OFFSET, size, size + 1));
+            return true;
+        }
+
+        // The sequence of the entry once its key can be read
+        private long awaitKey(long entry) {
+            long sequence;
+            long waitStart = NOT_WAITING;
+            while ((sequence = (long) LONG.getAcquire(table, entry + sequenceOffset)) == CLAIMED) {
+                // Another writer is about to write the key
+                waitStart = await(waitStart, entry);
+            }
+            return sequence;
+        }
+
+        // Spins once and returns when the wait for the entry started or throws if the
+        // writer holding the entry has done so for longer than the timeout
+        private long await(long waitStart, long entry) {
+            long now = System.nanoTime();
+            if (waitStart == NOT_WAITING) {
+                waitStart = now;
+            } else if (now - waitStart > timeoutNanos) {
+                throw new IllegalStateException("Entry " + entry / this.entry.byteSize() +
+                        " held for more than " + Duration.ofNanos(timeoutNanos) +
+                        " by a writer that probably died: " + file);
+            }
+            Thread.onSpinWait();
+            return waitStart;
+        }
+
+    }
+
+}
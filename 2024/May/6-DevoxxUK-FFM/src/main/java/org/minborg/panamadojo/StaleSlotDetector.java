@@ -0,0 +1,175 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.minborg.panamadojo.Kata5_AtomicOperations.*;
+
+/**
+ * Detects slots that were abandoned by producers that died (or hung) before
+ * completing them and marks them as aborted so that consumers skip them.
+ * <p>
+ * A slot is abandoned if it has been acquired by a producer whose process is no
+ * longer alive or if it has blocked the queue for longer than the timeout. Slots
+ * that were claimed but never acquired are aborted after the timeout. Should the
+ * producer that was about to roll the queue have died after recording the end of
+ * the file, the detector rolls it. Frames whose header was never written cannot be
+ * skipped and are left as is.
+ * <p>
+ * A single detector per queue should {@linkplain #scan() scan} periodically (e.g.
+ * once a second). Instances are not thread safe.
+ */
+public interface StaleSlotDetector extends AutoCloseable {
+
+    /**
+     * Scans the queue from where the previous scan stopped to the first slot that is
+     * still in progress and aborts abandoned slots on the way.
+     *
+     * @return the number of slots aborted (or rolled)
+     */
+    int scan();
+
+    @Override
+    void close();
+
+    static StaleSlotDetector of(Path path, Duration timeout) {
+        return new Impl(QueueFiles.of(path), timeout);
+    }
+
+    static StaleSlotDetector ofRolling(Path directory, RollCycle cycle, Duration timeout) {
+        return new Impl(QueueFiles.ofRolling(directory, cycle, Long.MAX_VALUE), timeout);
+    }
+
+    final class Impl implements StaleSlotDetector {
+
+        private final QueueFiles files;
+        private final long timeoutMillis;
+        private final Owner.Table owners;
+        private MappedFile file;    // mmap:ed in chunks
+        private MemorySegment head; // The FILE_HEADER of the file or null if not checked
+        private int slotSize;
+        private long position;
+        private long blockedPosition = -1;
+        private long blockedSince;
+
+        public Impl(QueueFiles files, Duration timeout) {
+            this.files = files;
+            this.timeoutMillis = timeout.toMillis();
+            this.owners = new Owner.Table(files.owners());
+        }
+
+        @Override
+        public int scan() {
+            int count = 0;
+            if (file == null) {
+                List<Path> all = files.all();
+                if (all.isEmpty()) {
+                    return 0; // No producer has started yet
+                }
+                open(all.getFirst());
+            }
+            for (;;) {
+                if (head == null && !check()) {
+                    return count;
+                }
+                long claim = position - FileHeader.SIZE;
+                if (claim >= FileHeader.tail(head)) {
+                    return count; // Nothing claimed beyond this point
+                }
+                MemorySegment chunk = file.chunkAt(position, HEADER.byteSize());
+                long offset = MappedFile.offsetInChunk(position);
+                int flags = Header.flags(chunk, offset);
+                if ((flags & (Header.COMPLETED | Header.ABORTED)) != 0) {
+                    position += size(offset);
+                    continue;
+                }
+                if ((flags & Header.ROLLED) != 0) {
+                    Optional<Path> following = files.following(file.path());
+                    if (following.isEmpty()) {
+                        return count;
+                    }
+                    open(following.get());
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                if (position != blockedPosition) {
+                    blockedPosition = position;
+                    blockedSince = now;
+                }
+                boolean stale = now - blockedSince >= timeoutMillis;
+                if ((flags & Header.ACQUIRED) != 0) {
+                    if (!stale && !owners.isAbandoned(flags, now - timeoutMillis)) {
+                        return count; // In progress
+                    }
+                    if (Header.abort(chunk, offset, flags)) {
+                        count++;
+                    }
+                    continue;
+                }
+                // Claimed but not acquired (yet)
+                if (!stale || slotSize == QueueAppender.VARIABLE) {
+                    return count;
+                }
+                if (claim == FileHeader.recordedEnd(head)) {
+                    // The producer that claimed across the limit never rolled the file
+                    if (roll(claim, chunk, offset)) {
+                        count++;
+                    }
+                } else if (claim + slotSize <= FileHeader.limit(head)) {
+                    if (Header.abort(chunk, offset, Header.FREE)) {
+                        count++;
+                    }
+                } else {
+                    return count; // The producer died before it recorded the end
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (file != null) {
+                file.close();
+            }
+            owners.close();
+        }
+
+        private long size(long offset) {
+            return slotSize != QueueAppender.VARIABLE
+                    ? slotSize
+                    : FrameHeader.frameSize(FrameHeader.length(file.chunkAt(position, FrameHeader.SIZE), offset));
+        }
+
+        private boolean roll(long claim, MemorySegment chunk, long offset) {
+            Path next = files.next(file.path(), System.currentTimeMillis());
+            FileHeader.create(next, slotSize, FileHeader.baseIndex(head) + claim / slotSize,
+                    FileHeader.limit(head));
+            return new Header(chunk.asSlice(offset, HEADER)).roll();
+        }
+
+        private void open(Path path) {
+            if (file != null) {
+                file.close();
+            }
+            file = MappedFile.ofWritable(path);
+            head = null;
+            position = 0;
+        }
+
+        private boolean check() {
+            MemorySegment candidate = file.prefix(FileHeader.SIZE);
+            if (!FileHeader.isInitialized(candidate)) {
+                return false;
+            }
+            slotSize = FileHeader.slotSize(candidate);
+            FileHeader.check(candidate, slotSize);
+            head = candidate;
+            position = FileHeader.SIZE;
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,236 @@
+package org.minborg.panamadojo;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Interns tickers of up to eight ASCII characters as a packed {@code long} and a
+ * dense {@code int} id (0, 1, 2, ...) so they can be used as array indices, for
+ * example by {@link BarAggregator}.
+ * <p>
+ * A ticker is packed with its first character in the lowest byte and zero padded.
+ * So, a packed ticker of up to four characters is the same as the {@code symbol}
+ * of a {@link MarketInfo} (see {@link Util#symbolAsInt(String)}).
+ * <pre>{@code
+ * long orcl = SymbolRegistry.pack("ORCL");   // 0x4c43524fL
+ * int id = registry.id(orcl);                // e.g. 0
+ * String name = registry.name(id);           // "ORCL" (the same instance each time)
+ * }</pre>
+ * Looking up ids, packed tickers and names does not allocate. Lookups may be made by
+ * any thread at any time while adding new tickers is serialized.
+ */
+public interface SymbolRegistry {
+
+    /**
+     * The maximum number of characters in a ticker.
+     */
+    int MAX_LENGTH = Long.BYTES;
+
+    /**
+     * {@return the id of the provided packed {@code symbol} which is added if it is new}
+     *
+     * @param symbol packed ticker
+     * @throws IllegalArgumentException if the symbol is zero
+     * @throws IllegalStateException    if the symbol is new and the registry is full
+     */
+    int id(long symbol);
+
+    /**
+     * {@return the id of the provided {@code ticker} which is added if it is new}
+     *
+     * @param ticker to look up
+     * @throws IllegalArgumentException if the ticker cannot be packed
+     * @throws IllegalStateException    if the ticker is new and the registry is full
+     * @see #pack(CharSequence)
+     */
+    int id(CharSequence ticker);
+
+    /**
+     * {@return the id of the provided packed {@code symbol} or -1 if it has not been added}
+     *
+     * @param symbol packed ticker
+     */
+    int find(long symbol);
+
+    /**
+     * {@return the packed ticker with the provided {@code id}}
+     *
+     * @param id of the ticker
+     * @throws IndexOutOfBoundsException if there is no ticker with the id
+     */
+    long symbol(int id);
+
+    /**
+     * {@return the ticker with the provided {@code id}}
+     *
+     * @param id of the ticker
+     * @throws IndexOutOfBoundsException if there is no ticker with the id
+     */
+    String name(int id);
+
+    /**
+     * {@return the number of tickers}
+     */
+    int size();
+
+    /**
+     * {@return the maximum number of tickers}
+     */
+    int capacity();
+
+    /**
+     * {@return a new empty registry for up to {@code capacity} tickers}
+     *
+     * @param capacity the maximum number of tickers
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    static SymbolRegistry of(int capacity) {
+        return new Impl(capacity);
+    }
+
+    /**
+     * {@return the provided {@code ticker} packed in a {@code long}}
+     *
+     * @param ticker to pack
+     * @throws IllegalArgumentException if the ticker is empty, has more than
+     *                                  {@link #MAX_LENGTH} characters or has characters
+     *                                  that are not ASCII or are zero
+     */
+    static long pack(CharSequence ticker) {
+        int length = ticker.length();
+        if (length == 0 || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Unable to pack " + ticker);
+        }
+        long symbol = 0;
+        for (int i = 0; i < length; i++) {
+            char c = ticker.charAt(i);
+            if (c == 0 || c > 0x7F) {
+                throw new IllegalArgumentException("Unable to pack " + ticker);
+            }
+            symbol |= (long) c << (i * Byte.SIZE);
+        }
+        return symbol;
+    }
+
+    /**
+     * {@return a new String of the provided packed {@code symbol} without the padding}
+     *
+     * @param symbol packed ticker
+     */
+    static String unpack(long symbol) {
+        int length = MAX_LENGTH - Long.numberOfLeadingZeros(symbol) / Byte.SIZE;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (symbol >>> (i * Byte.SIZE));
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    final class Impl implements SymbolRegistry {
+
+        // https://bugs.openjdk.org/browse/JDK-8331734
+
+        private static final VarHandle INT = JAVA_INT.varHandle();
+
+        private final int capacity;
+        private final int mask;
+        private final MemorySegment keys;    // Packed ticker per slot
+        private final MemorySegment ids;     // Id + 1 per slot, 0 if free
+        private final MemorySegment symbols; // Packed ticker per id
+        private final String[] names;        // Per id
+        private volatile int size;           // Published after the entries of an id
+
+        public Impl(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity <= 0: " + capacity);
+            }
+            this.capacity = capacity;
+            // At most half full so probe sequences stay short
+            int slots = Integer.highestOneBit(Math.max(1, capacity * 2 - 1)) << 1;
+            this.mask = slots - 1;
+            Arena arena = Arena.ofAuto();
+            this.keys = arena.allocate(JAVA_LONG, slots);
+            this.ids = arena.allocate(JAVA_INT, slots);
+            this.symbols = arena.allocate(JAVA_LONG, capacity);
+            this.names = new String[capacity];
+        }
+
+        @Override
+        public int id(long symbol) {
+            int id = find(symbol);
+            return id >= 0 ? id : add(symbol);
+        }
+
+        @Override
+        public int id(CharSequence ticker) {
+            return id(SymbolRegistry.pack(ticker));
+        }
+
+        @Override
+        public int find(long symbol) {
+            for (int i = Util.mix(hash(symbol)) & mask; ; i = (i + 1) & mask) {
+                int id = (int) INT.getAcquire(ids, i * JAVA_INT.byteSize()) - 1;
+                if (id < 0 || keys.getAtIndex(JAVA_LONG, i) == symbol) {
+                    return id;
+                }
+            }
+        }
+
+        @Override
+        public long symbol(int id) {
+            return symbols.getAtIndex(JAVA_LONG, Objects.checkIndex(id, size));
+        }
+
+        @Override
+        public String name(int id) {
+            return names[Objects.checkIndex(id, size)];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int capacity() {
+            return capacity;
+        }
+
+        private synchronized int add(long symbol) {
+            if (symbol == 0) {
+                throw new IllegalArgumentException("Not a symbol: 0");
+            }
+            for (int i = Util.mix(hash(symbol)) & mask; ; i = (i + 1) & mask) {
+                int id = (int) INT.getAcquire(ids, i * JAVA_INT.byteSize()) - 1;
+                if (id < 0) {
+                    if (size == capacity) {
+                        throw new IllegalStateException("Full: " + capacity + " symbols");
+                    }
+                    id = size;
+                    symbols.setAtIndex(JAVA_LONG, id, symbol);
+                    names[id] = SymbolRegistry.unpack(symbol);
+                    keys.setAtIndex(JAVA_LONG, i, symbol);
+                    INT.setRelease(ids, i * JAVA_INT.byteSize(), id + 1); // Publishes the entries above
+                    size = id + 1;
+                    return id;
+                }
+                if (keys.getAtIndex(JAVA_LONG, i) == symbol) {
+                    // Added by another thread meanwhile
+                    return id;
+                }
+            }
+        }
+
+        private static int hash(long symbol) {
+            return (int) (symbol ^ (symbol >>> 32));
+        }
+
+    }
+
+}
@@ -1,11 +1,11 @@
 package org.minborg.panamadojo;
 
+import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.StructLayout;
 import java.lang.foreign.ValueLayout;
 import java.lang.invoke.VarHandle;
 import java.nio.ByteOrder;
-import java.nio.charset.StandardCharsets;
 import java.util.HexFormat;
 
 import static java.lang.foreign.MemoryLayout.structLayout;
@@ -27,6 +27,12 @@ final class Util {
             JAVA_INT_LE.withName("low")
     ).withName("MarketInfo");
 
+    // The layout the accessors are derived from. Var handles of a value layout in
+    // native order compile to plain loads and stores and the others swap on each
+    // access (see ByteSwapper for converting up front). There are no alignment
+    // constraints so elements can be read at any offset, e.g. in a byte[] segment.
+    static final StructLayout MARKET_INFO_ACCESS = accessLayout(MARKET_INFO);
+
     static final VarHandle TIME = varHandle("time");
     static final VarHandle SYMBOL = varHandle("symbol");
     static final VarHandle HIGH = varHandle("high");
@@ -34,28 +40,43 @@ final class Util {
     static final VarHandle LOW = varHandle("low");
 
     private static VarHandle varHandle(String fieldName) {
-        return MARKET_INFO.varHandle(PathElement.groupElement(fieldName));
+        return MARKET_INFO_ACCESS.varHandle(PathElement.groupElement(fieldName));
+    }
+
+    static StructLayout accessLayout(StructLayout layout) {
+        return structLayout(layout.memberLayouts().stream()
+                .map(m -> m.withByteAlignment(1))
+                .toArray(MemoryLayout[]::new))
+                .withName(layout.name().orElse("Access"));
     }
 
     public enum Symbol {
         ORCL, AAPL, IBM, MSFT, GOOG;
     }
 
+    // Shared by all components so symbols are converted to Strings once
+    static final SymbolRegistry SYMBOLS = SymbolRegistry.of(4096);
+
+    static {
+        for (Symbol symbol : Symbol.values()) {
+            SYMBOLS.id(symbol.name());
+        }
+    }
+
+    // Up to four ASCII characters, zero padded (e.g. "IBM")
     static int symbolAsInt(String symbol) {
-        if (symbol.length() != 4) {
+        if (symbol.length() > Integer.BYTES) {
             throw new IllegalArgumentException("Unable to convert " + symbol + " to an int");
         }
-        byte[] bytes = symbol.getBytes(StandardCharsets.US_ASCII);
-        return (bytes[3] << 24) | (bytes[2] << 16) | (bytes[1] << 8) | (bytes[0] << 0);
+        return (int) SymbolRegistry.pack(symbol);
     }
 
     static String symbolAsString(int symbol) {
-        byte[] bytes = new byte[4];
-        bytes[3] = (byte) ((symbol >>> 24) & 0xFF);
-        bytes[2] = (byte) ((symbol >>> 16) & 0xFF);
-        bytes[1] = (byte) ((symbol >>> 8) & 0xFF);
-        bytes[0] = (byte) ((symbol >>> 0) & 0xFF);
-        return new String(bytes, StandardCharsets.US_ASCII);
+        long packed = Integer.toUnsignedLong(symbol);
+        int id = SYMBOLS.find(packed);
+        return id < 0
+                ? SymbolRegistry.unpack(packed)
+                : SYMBOLS.name(id);
     }
 
     static String toString(MarketInfo mi) {
@@ -68,6 +89,13 @@ final class Util {
                 "}";
     }
 
+    // Spreads the bits of a hash key over the low bits used to index open addressing
+    // tables. Symbols are ASCII so the low bits alone would cluster
+    static int mix(int key) {
+        int h = key * 0x9E37_79B9;
+        return h ^ (h >>> 16);
+    }
+
     static String toHex(MemorySegment seg) {
         var formatter = HexFormat.ofDelimiter(" ");
         return formatter.formatHex(seg.toArray(JAVA_BYTE));
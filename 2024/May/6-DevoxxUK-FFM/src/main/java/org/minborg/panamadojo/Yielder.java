@@ -1,5 +1,6 @@
 package org.minborg.panamadojo;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
 
 @FunctionalInterface
@@ -7,6 +8,12 @@ public interface Yielder {
 
     void yield();
 
+    /**
+     * Tells this yielder that there was work to do so that stateful yielders can
+     * start over with their shortest wait.
+     */
+    default void reset() {}
+
     static Yielder ofBusy() {
         return Thread::onSpinWait;
     }
@@ -19,4 +26,30 @@ public interface Yielder {
         return () -> LockSupport.parkNanos(nanos);
     }
 
+    /**
+     * {@return a new yielder that spins 1,000 times, yields 100 times and then parks
+     *          from 1 us doubling up to 1 ms until it is {@linkplain #reset() reset}}
+     * <p>
+     * The returned yielder is stateful and must not be shared between threads.
+     */
+    static Yielder ofAdaptive() {
+        return ofAdaptive(1_000, 100, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * {@return a new yielder that spins {@code spins} times, yields {@code yields}
+     *          times and then parks from 1 us doubling up to {@code maxParkNanos}
+     *          until it is {@linkplain #reset() reset}}
+     * <p>
+     * The returned yielder is stateful and must not be shared between threads.
+     *
+     * @param spins        number of busy spins
+     * @param yields       number of thread yields after the spins
+     * @param maxParkNanos max time to park
+     */
+    static Yielder ofAdaptive(int spins, int yields, long maxParkNanos) {
+        return new AdaptiveYielder(spins, yields, TimeUnit.MICROSECONDS.toNanos(1),
+                maxParkNanos, LockSupport::parkNanos);
+    }
+
 }
@@ -1,17 +1,31 @@
+import java.io.Serializable;
 import java.lang.foreign.GroupLayout;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SequenceLayout;
+import java.lang.foreign.ValueLayout;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SerializedLambda;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.SequencedCollection;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
-import java.util.function.ObjLongConsumer;
 
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
 import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
 
 public class Demo {
 
@@ -20,14 +34,80 @@ public class Demo {
         record Point(long x, long y) {
         }
 
-        var v = BigInteger.valueOf(1L << 40);
-
-        System.out.println(v);
+        var segment = MemorySegment.ofArray(new int[]{3, 4, 5, 6});
 
+        // int -> long when reading and long -> int (throwing if information is lost) when writing
         var mapper = Builder.ofRecord(Point.class, layout)
+                .withWidening()
+                .withExactNarrowing()
+                .toMapper();
+
+        System.out.println(mapper.get(segment));     // Point[x=3, y=4]
+        System.out.println(mapper.get(segment, 8));  // Point[x=5, y=6]
+        mapper.set(segment, 8, new Point(7, 8));
+        System.out.println(mapper.get(segment, 8));  // Point[x=7, y=8]
+        try {
+            mapper.set(segment, new Point(1L << 40, 0));
+        } catch (ArithmeticException e) {
+            System.out.println(e);                   // java.lang.ArithmeticException: integer overflow
+        }
+
+        var layoutLong = MemoryLayout.structLayout(JAVA_LONG.withName("x"), JAVA_LONG.withName("y"));
+        record BigPoint(BigInteger x, BigInteger y) {
+        }
+
+        var longs = MemorySegment.ofArray(new long[]{3, 4, 1L << 40, 2L << 40});
+
+        var unmarshaller = Builder.ofRecord(BigPoint.class, layoutLong)
                 .mapping(long.class, BigInteger.class, BigInteger::valueOf)
+                .toUnmarshaller();
+
+        System.out.println(unmarshaller.apply(longs));                // BigPoint[x=3, y=4]
+        System.out.println(unmarshaller.apply(longs.asSlice(16)));    // BigPoint[x=1099511627776, y=2199023255552]
+
+        // Names are also remapped
+        record NamedPoint(BigInteger xCoordinate, BigInteger yCoordinate) {
+        }
+
+        var namedMapper = Builder.ofRecord(NamedPoint.class, layoutLong)
+                .mapping(groupElement("x"), NamedPoint::xCoordinate, (Long l) -> BigInteger.valueOf(l))
+                .mapping(groupElement("y"), NamedPoint::yCoordinate, (Long l) -> BigInteger.valueOf(l))
+                .mapping(NamedPoint::xCoordinate, groupElement("x"), BigInteger::longValueExact)
+                .mapping(NamedPoint::yCoordinate, groupElement("y"), BigInteger::longValueExact)
                 .toMapper();
 
+        namedMapper.set(longs, new NamedPoint(BigInteger.TEN, BigInteger.TWO));
+        System.out.println(namedMapper.get(longs));                   // NamedPoint[xCoordinate=10, yCoordinate=2]
+
+        // Nested groups are mapped to nested records and sequences to arrays or lists
+        var lineLayout = MemoryLayout.structLayout(
+                layout.withName("from"),
+                layout.withName("to"),
+                MemoryLayout.sequenceLayout(2, JAVA_INT).withName("tags"),
+                MemoryLayout.sequenceLayout(2, layout).withName("via"));
+        record Line(Point from, Point to, List<Integer> tags, Point[] via) {
+        }
+
+        var lineMapper = Builder.ofRecord(Line.class, lineLayout)
+                .withWidening()
+                .withExactNarrowing()
+                .toMapper();
+
+        var lines = MemorySegment.ofArray(new int[10]);
+        lineMapper.set(lines, new Line(new Point(1, 2), new Point(3, 4), List.of(5, 6),
+                new Point[]{new Point(7, 8), new Point(9, 10)}));
+        System.out.println(Arrays.toString(lines.toArray(JAVA_INT))); // [1, 2, 3, 4, 5, 6, 7, 8, 9, 10]
+        System.out.println(lineMapper.get(lines).tags());            // [5, 6]
+        System.out.println(lineMapper.get(lines).via()[1]);          // Point[x=9, y=10]
+
+        record StringPoint(String x, String y) {
+        }
+
+        var strings = Builder.ofRecord(StringPoint.class, layout)
+                .withStringConversion()
+                .toUnmarshaller();
+
+        System.out.println(strings.apply(segment.asSlice(8)));         // StringPoint[x=7, y=8]
     }
 
     interface Builder<T extends Record> {
@@ -61,11 +141,11 @@ public class Demo {
         // Custom name and type mapping (`MethodHandle` overloads not shown for brevity)
         <R> Builder<T> mapping(MethodReference<T, R> recordComponentSource,
                                MemoryLayout.PathElement valueLayoutTarget,
-                               Function<? super T, ? extends R> mapper);
+                               Function<? super R, ?> mapper);
 
         <R> Builder<T> mapping(MethodReference<T, R> recordComponentSource,
                                SequencedCollection<MemoryLayout.PathElement> valueLayoutTarget,
-                               Function<? super T, ? extends R> mapper);
+                               Function<? super R, ?> mapper);
 
         <R> Builder<T> mapping(MemoryLayout.PathElement valueLayoutSource,
                                MethodReference<T, R> recordComponentTarget,
@@ -96,12 +176,145 @@ public class Demo {
 
     interface RecordMapper<T extends Record> {
 
+        T get(MemorySegment segment);
+
+        T get(MemorySegment segment, long offset);
+
+        void set(MemorySegment segment, T value);
+
+        void set(MemorySegment segment, long offset, T value);
+
+        GroupLayout layout();
+
+        Class<T> type();
+
+        // (MemorySegment, long)Record
+        MethodHandle getter();
+
+        // (MemorySegment, long, Record)void
+        MethodHandle setter();
+
+    }
+
+    // A record so that the JIT trusts the handles to be constants
+    private record MapperImpl<T extends Record>(Class<T> type,
+                                                GroupLayout layout,
+                                                MethodHandle getter,
+                                                MethodHandle setter) implements RecordMapper<T> {
+
+        @Override
+        public T get(MemorySegment segment) {
+            return get(segment, 0L);
+        }
+
+        @Override
+        public T get(MemorySegment segment, long offset) {
+            try {
+                return type.cast((Record) getter.invokeExact(segment, offset));
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        @Override
+        public void set(MemorySegment segment, T value) {
+            set(segment, 0L, value);
+        }
+
+        @Override
+        public void set(MemorySegment segment, long offset, T value) {
+            try {
+                setter.invokeExact(segment, offset, (Record) value);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        static RuntimeException rethrow(Throwable t) {
+            if (t instanceof RuntimeException r) {
+                throw r;
+            }
+            if (t instanceof Error e) {
+                throw e;
+            }
+            throw new IllegalStateException(t);
+        }
     }
 
     private static abstract class BuilderImpl<T extends Record> implements Builder<T> {
 
+        private static final MethodHandle APPLY;
+        private static final MethodHandle TO_STRING;
+        private static final MethodHandle FAIL_FLOATING;
+        private static final MethodHandle CHECK;
+        private static final MethodHandle ADD;
+        private static final MethodHandle READ_VALUES;
+        private static final MethodHandle WRITE_VALUES;
+        private static final MethodHandle READ_ELEMENTS;
+        private static final MethodHandle WRITE_ELEMENTS;
+        private static final MethodHandle AS_LIST;
+        private static final MethodHandle TO_ARRAY;
+
+        static {
+            try {
+                var lookup = MethodHandles.lookup();
+                APPLY = lookup.findVirtual(Function.class, "apply", MethodType.methodType(Object.class, Object.class));
+                TO_STRING = lookup.findStatic(String.class, "valueOf", MethodType.methodType(String.class, Object.class));
+                FAIL_FLOATING = lookup.findStatic(BuilderImpl.class, "failFloating", MethodType.methodType(void.class, double.class));
+                CHECK = lookup.findStatic(BuilderImpl.class, "check",
+                        MethodType.methodType(int.class, long.class, long.class, int.class));
+                ADD = lookup.findStatic(Long.class, "sum", MethodType.methodType(long.class, long.class, long.class));
+                READ_VALUES = lookup.findStatic(BuilderImpl.class, "readValues",
+                        MethodType.methodType(Object.class, ValueLayout.class, int.class, MemorySegment.class, long.class));
+                WRITE_VALUES = lookup.findStatic(BuilderImpl.class, "writeValues",
+                        MethodType.methodType(void.class, ValueLayout.class, int.class, MemorySegment.class, long.class, Object.class));
+                READ_ELEMENTS = lookup.findStatic(BuilderImpl.class, "readElements",
+                        MethodType.methodType(Object.class, MethodHandle.class, Class.class, int.class, long.class, MemorySegment.class, long.class));
+                WRITE_ELEMENTS = lookup.findStatic(BuilderImpl.class, "writeElements",
+                        MethodType.methodType(void.class, MethodHandle.class, int.class, long.class, MemorySegment.class, long.class, Object.class));
+                AS_LIST = lookup.findStatic(BuilderImpl.class, "asList", MethodType.methodType(List.class, Object.class));
+                TO_ARRAY = lookup.findStatic(BuilderImpl.class, "toArray", MethodType.methodType(Object.class, Class.class, List.class));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        // In JLS 5.1.2 order
+        private static final Map<Class<?>, List<Class<?>>> WIDENING = Map.of(
+                byte.class, List.of(short.class, int.class, long.class, float.class, double.class),
+                short.class, List.of(int.class, long.class, float.class, double.class),
+                char.class, List.of(int.class, long.class, float.class, double.class),
+                int.class, List.of(long.class, float.class, double.class),
+                long.class, List.of(float.class, double.class),
+                float.class, List.of(double.class)
+        );
+
+        // JLS 5.1.3
+        private static final Map<Class<?>, List<Class<?>>> NARROWING = Map.of(
+                short.class, List.of(byte.class, char.class),
+                char.class, List.of(byte.class, short.class),
+                int.class, List.of(byte.class, short.class, char.class),
+                long.class, List.of(byte.class, short.class, char.class, int.class),
+                float.class, List.of(byte.class, short.class, char.class, int.class, long.class),
+                double.class, List.of(byte.class, short.class, char.class, int.class, long.class, float.class)
+        );
+
         private final Class<T> type;
         private final GroupLayout layout;
+        private MethodHandles.Lookup lookup = MethodHandles.lookup();
+        private boolean widening;
+        private boolean narrowing;
+        private boolean exactNarrowing;
+        private boolean boxing;
+        private boolean unboxing;
+        private boolean stringConversion;
+        // (S)R handles by "S->R"
+        private final Map<String, MethodHandle> typeMappings = new HashMap<>();
+        // Component accessor -> path in the enclosing group
+        private final Map<Method, MemoryLayout.PathElement[]> paths = new HashMap<>();
+        // Component accessor -> (component)value or (value)component handles
+        private final Map<Method, MethodHandle> marshallers = new HashMap<>();
+        private final Map<Method, MethodHandle> unmarshallers = new HashMap<>();
 
         public BuilderImpl(Class<T> type, GroupLayout layout) {
             this.type = type;
@@ -110,102 +323,491 @@ public class Demo {
 
         @Override
         public <S, R> Builder<T> mapping(Class<S> sourceType, Class<R> targetType, Function<? super S, ? extends R> mapper) {
-            return null;
+            return mapping(sourceType, targetType, handle(mapper, sourceType, targetType));
         }
 
         @Override
         public RecordMapper<T> toMapper() {
-            return null;
+            return new MapperImpl<>(type, layout, getter(), setter());
         }
 
         @Override
         public Builder<T> withLookup(MethodHandles.Lookup lookup) {
-            return null;
+            this.lookup = Objects.requireNonNull(lookup);
+            return this;
         }
 
         @Override
         public Builder<T> withWidening() {
-            return null;
+            widening = true;
+            return this;
         }
 
         @Override
         public Builder<T> withNarrowing() {
-            return null;
+            narrowing = true;
+            return this;
         }
 
         @Override
         public Builder<T> withBoxing() {
-            return null;
+            boxing = true;
+            return this;
         }
 
         @Override
         public Builder<T> withUnboxing() {
-            return null;
+            unboxing = true;
+            return this;
         }
 
         @Override
         public Builder<T> withStringConversion() {
-            return null;
+            stringConversion = true;
+            return this;
         }
 
         @Override
         public Builder<T> withAllConversions() {
-            return null;
+            return withWidening()
+                    .withNarrowing()
+                    .withBoxing()
+                    .withUnboxing()
+                    .withStringConversion();
         }
 
         @Override
         public Builder<T> withExactNarrowing() {
-            return null;
+            exactNarrowing = true;
+            return this;
         }
 
         @Override
         public <S, R> Builder<T> mapping(Class<S> sourceType, Class<R> targetType, MethodHandle mapper) {
-            return null;
+            typeMappings.put(key(sourceType, targetType),
+                    mapper.asType(MethodType.methodType(targetType, sourceType)));
+            return this;
         }
 
         @Override
         public <R> Builder<T> matching(MethodReference<T, R> recordComponent, MemoryLayout.PathElement valueLayout) {
-            return null;
+            return matching(recordComponent, List.of(valueLayout));
         }
 
         @Override
         public <R> Builder<T> matching(MethodReference<T, R> recordComponent, SequencedCollection<MemoryLayout.PathElement> valueLayout) {
-            return null;
+            paths.put(recordComponent.method(), valueLayout.toArray(MemoryLayout.PathElement[]::new));
+            return this;
         }
 
         @Override
-        public <R> Builder<T> mapping(MethodReference<T, R> recordComponentSource, MemoryLayout.PathElement valueLayoutTarget, Function<? super T, ? extends R> mapper) {
-            return null;
+        public <R> Builder<T> mapping(MethodReference<T, R> recordComponentSource, MemoryLayout.PathElement valueLayoutTarget, Function<? super R, ?> mapper) {
+            return mapping(recordComponentSource, List.of(valueLayoutTarget), mapper);
         }
 
         @Override
-        public <R> Builder<T> mapping(MethodReference<T, R> recordComponentSource, SequencedCollection<MemoryLayout.PathElement> valueLayoutTarget, Function<? super T, ? extends R> mapper) {
-            return null;
+        public <R> Builder<T> mapping(MethodReference<T, R> recordComponentSource, SequencedCollection<MemoryLayout.PathElement> valueLayoutTarget, Function<? super R, ?> mapper) {
+            matching(recordComponentSource, valueLayoutTarget);
+            Method accessor = recordComponentSource.method();
+            marshallers.put(accessor, handle(mapper, accessor.getReturnType(), Object.class));
+            return this;
         }
 
         @Override
-        public <S, R> Builder<T> mapping(MemoryLayout.PathElement valueLayoutSource, MethodReference<T, R> recordComponentTarget, Function<?, ? extends R> mapper) {
-            return null;
+        public <R> Builder<T> mapping(MemoryLayout.PathElement valueLayoutSource, MethodReference<T, R> recordComponentTarget, Function<?, ? extends R> mapper) {
+            return mapping(List.of(valueLayoutSource), recordComponentTarget, mapper);
         }
 
         @Override
-        public <S, R> Builder<T> mapping(SequencedCollection<MemoryLayout.PathElement> valueLayoutSource, MethodReference<T, R> recordComponentTarget, Function<?, ? extends R> mapper) {
-            return null;
+        public <R> Builder<T> mapping(SequencedCollection<MemoryLayout.PathElement> valueLayoutSource, MethodReference<T, R> recordComponentTarget, Function<?, ? extends R> mapper) {
+            matching(recordComponentTarget, valueLayoutSource);
+            Method accessor = recordComponentTarget.method();
+            unmarshallers.put(accessor, handle(mapper, Object.class, accessor.getReturnType()));
+            return this;
         }
 
         @Override
         public Function<MemorySegment, T> toUnmarshaller() {
-            return null;
+            var mapper = new MapperImpl<>(type, layout, getter(), null);
+            return mapper::get;
         }
 
         @Override
         public BiConsumer<MemorySegment, T> toMarshaller() {
-            return null;
+            var mapper = new MapperImpl<>(type, layout, null, setter());
+            return mapper::set;
+        }
+
+        // (MemorySegment, long)Record
+        private MethodHandle getter() {
+            return getter(type, layout)
+                    .asType(MethodType.methodType(Record.class, MemorySegment.class, long.class));
+        }
+
+        // (MemorySegment, long, Record)void
+        private MethodHandle setter() {
+            return setter(type, layout)
+                    .asType(MethodType.methodType(void.class, MemorySegment.class, long.class, Record.class));
+        }
+
+        // (MemorySegment, long)R for a record of the provided type in a group at the offset
+        private MethodHandle getter(Class<?> recordType, GroupLayout group) {
+            RecordComponent[] components = recordType.getRecordComponents();
+            try {
+                MethodHandle constructor = privateLookup(recordType).findConstructor(recordType, MethodType.methodType(void.class,
+                        Arrays.stream(components).map(RecordComponent::getType).toArray(Class<?>[]::new)));
+                // (MemorySegment, long, ..., MemorySegment, long)R
+                MethodHandle getter = constructor;
+                for (int i = 0; i < components.length; i++) {
+                    getter = MethodHandles.collectArguments(getter, i * 2, reader(components[i], group));
+                }
+                int[] reorder = new int[components.length * 2];
+                for (int i = 0; i < reorder.length; i++) {
+                    reorder[i] = i % 2;
+                }
+                return MethodHandles.permuteArguments(getter,
+                        MethodType.methodType(recordType, MemorySegment.class, long.class), reorder);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Unable to access the canonical constructor of " + recordType, e);
+            }
+        }
+
+        // (MemorySegment, long, R)void for a record of the provided type in a group at the offset
+        private MethodHandle setter(Class<?> recordType, GroupLayout group) {
+            MethodHandle setter = MethodHandles.empty(
+                    MethodType.methodType(void.class, MemorySegment.class, long.class, recordType));
+            // Folded last to first so that components are written in declaration order
+            RecordComponent[] components = recordType.getRecordComponents();
+            for (int i = components.length - 1; i >= 0; i--) {
+                RecordComponent component = components[i];
+                MethodHandle accessor;
+                try {
+                    accessor = privateLookup(recordType).unreflect(component.getAccessor());
+                } catch (IllegalAccessException e) {
+                    throw new IllegalArgumentException("Unable to access " + component, e);
+                }
+                // (MemorySegment, long, R)void
+                MethodHandle write = MethodHandles.filterArguments(writer(component, group), 2, accessor);
+                setter = MethodHandles.foldArguments(setter, write);
+            }
+            return setter;
+        }
+
+        // (MemorySegment, long)C for a component of type C
+        private MethodHandle reader(RecordComponent component, GroupLayout group) {
+            MemoryLayout.PathElement[] path = path(component);
+            Class<?> type = component.getType();
+            return switch (select(group, path, component)) {
+                case ValueLayout value -> {
+                    VarHandle element = group.varHandle(path);
+                    MethodHandle conversion = unmarshallers.containsKey(component.getAccessor())
+                            ? unmarshallers.get(component.getAccessor()).asType(
+                                    MethodType.methodType(type, value.carrier()))
+                            : conversion(value.carrier(), type);
+                    yield MethodHandles.filterReturnValue(element.toMethodHandle(VarHandle.AccessMode.GET), conversion);
+                }
+                case GroupLayout nested when type.isRecord() -> at(getter(type, nested), group.byteOffset(path));
+                case SequenceLayout sequence -> at(sequenceReader(component, sequence), group.byteOffset(path));
+                case MemoryLayout other -> throw new IllegalArgumentException(
+                        "Unable to map " + other + " to " + component);
+            };
+        }
+
+        // (MemorySegment, long, C)void for a component of type C
+        private MethodHandle writer(RecordComponent component, GroupLayout group) {
+            MemoryLayout.PathElement[] path = path(component);
+            Class<?> type = component.getType();
+            return switch (select(group, path, component)) {
+                case ValueLayout value -> {
+                    VarHandle element = group.varHandle(path);
+                    MethodHandle conversion = marshallers.containsKey(component.getAccessor())
+                            ? marshallers.get(component.getAccessor()).asType(
+                                    MethodType.methodType(value.carrier(), type))
+                            : conversion(type, value.carrier());
+                    yield MethodHandles.filterArguments(element.toMethodHandle(VarHandle.AccessMode.SET), 2, conversion);
+                }
+                case GroupLayout nested when type.isRecord() -> at(setter(type, nested), group.byteOffset(path));
+                case SequenceLayout sequence -> at(sequenceWriter(component, sequence), group.byteOffset(path));
+                case MemoryLayout other -> throw new IllegalArgumentException(
+                        "Unable to map " + component + " to " + other);
+            };
+        }
+
+        // (MemorySegment, long)E[], (MemorySegment, long)e[] or (MemorySegment, long)List<E>
+        private MethodHandle sequenceReader(RecordComponent component, SequenceLayout sequence) {
+            Class<?> elementType = elementType(component);
+            int length = Math.toIntExact(sequence.elementCount());
+            long size = sequence.elementLayout().byteSize();
+            MethodHandle reader;
+            if (bulk(component, sequence)) {
+                ValueLayout value = (ValueLayout) sequence.elementLayout();
+                reader = MethodHandles.insertArguments(READ_VALUES, 0, value, length);
+            } else {
+                MethodHandle element = elementReader(component, elementType, sequence.elementLayout())
+                        .asType(MethodType.methodType(Object.class, MemorySegment.class, long.class));
+                reader = MethodHandles.insertArguments(READ_ELEMENTS, 0, element, elementType, length, size);
+            }
+            if (component.getType() == List.class) {
+                reader = MethodHandles.filterReturnValue(reader, AS_LIST);
+            }
+            return reader.asType(MethodType.methodType(component.getType(), MemorySegment.class, long.class));
+        }
+
+        // (MemorySegment, long, E[])void, (MemorySegment, long, e[])void or (MemorySegment, long, List<E>)void
+        private MethodHandle sequenceWriter(RecordComponent component, SequenceLayout sequence) {
+            Class<?> elementType = elementType(component);
+            int length = Math.toIntExact(sequence.elementCount());
+            long size = sequence.elementLayout().byteSize();
+            MethodHandle writer;
+            if (bulk(component, sequence)) {
+                ValueLayout value = (ValueLayout) sequence.elementLayout();
+                writer = MethodHandles.insertArguments(WRITE_VALUES, 0, value, length);
+            } else {
+                MethodHandle element = elementWriter(component, elementType, sequence.elementLayout())
+                        .asType(MethodType.methodType(void.class, MemorySegment.class, long.class, Object.class));
+                writer = MethodHandles.insertArguments(WRITE_ELEMENTS, 0, element, length, size);
+            }
+            if (component.getType() == List.class) {
+                writer = MethodHandles.filterArguments(writer, 2, TO_ARRAY.bindTo(bulk(component, sequence)
+                        ? ((ValueLayout) sequence.elementLayout()).carrier()
+                        : elementType));
+            }
+            return writer.asType(MethodType.methodType(void.class, MemorySegment.class, long.class, component.getType()));
+        }
+
+        // (MemorySegment, long)E for an element of a sequence
+        private MethodHandle elementReader(RecordComponent component, Class<?> elementType, MemoryLayout element) {
+            return switch (element) {
+                case ValueLayout value -> MethodHandles.filterReturnValue(
+                        value.varHandle().toMethodHandle(VarHandle.AccessMode.GET),
+                        conversion(value.carrier(), elementType));
+                case GroupLayout group when elementType.isRecord() -> getter(elementType, group);
+                default -> throw new IllegalArgumentException("Unable to map " + element + " to " + component);
+            };
+        }
+
+        // (MemorySegment, long, E)void for an element of a sequence
+        private MethodHandle elementWriter(RecordComponent component, Class<?> elementType, MemoryLayout element) {
+            return switch (element) {
+                case ValueLayout value -> MethodHandles.filterArguments(
+                        value.varHandle().toMethodHandle(VarHandle.AccessMode.SET),
+                        2, conversion(elementType, value.carrier()));
+                case GroupLayout group when elementType.isRecord() -> setter(elementType, group);
+                default -> throw new IllegalArgumentException("Unable to map " + component + " to " + element);
+            };
+        }
+
+        // If values can be copied in bulk to and from an e[] (that is then boxed for a List<E>)
+        private static boolean bulk(RecordComponent component, SequenceLayout sequence) {
+            Class<?> elementType = elementType(component);
+            return sequence.elementLayout() instanceof ValueLayout value &&
+                    (value.carrier() == elementType || component.getType() == List.class &&
+                            MethodType.methodType(value.carrier()).wrap().returnType() == elementType);
+        }
+
+        // The E in E[], e[] or List<E>
+        private static Class<?> elementType(RecordComponent component) {
+            Class<?> type = component.getType();
+            if (type.isArray()) {
+                return type.getComponentType();
+            }
+            if (type == List.class &&
+                    component.getGenericType() instanceof ParameterizedType parameterized &&
+                    parameterized.getActualTypeArguments()[0] instanceof Class<?> elementType) {
+                return elementType;
+            }
+            throw new IllegalArgumentException("Not an array or a List: " + component);
+        }
+
+        // Adds a fixed offset to the offset coordinate
+        private static MethodHandle at(MethodHandle handle, long offset) {
+            return offset == 0
+                    ? handle
+                    : MethodHandles.filterArguments(handle, 1, MethodHandles.insertArguments(ADD, 1, offset));
+        }
+
+        private MemoryLayout.PathElement[] path(RecordComponent component) {
+            return paths.getOrDefault(component.getAccessor(),
+                    new MemoryLayout.PathElement[]{groupElement(component.getName())});
+        }
+
+        private static MemoryLayout select(GroupLayout group, MemoryLayout.PathElement[] path, RecordComponent component) {
+            try {
+                return group.select(path);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unable to match " + component + " in " + group, e);
+            }
+        }
+
+        private static Object readValues(ValueLayout element, int length, MemorySegment segment, long offset) {
+            Object array = Array.newInstance(element.carrier(), length);
+            MemorySegment.copy(segment, element, offset, array, 0, length);
+            return array;
+        }
+
+        private static void writeValues(ValueLayout element, int length, MemorySegment segment, long offset, Object array) {
+            checkLength(Array.getLength(array), length);
+            MemorySegment.copy(array, 0, segment, element, offset, length);
+        }
+
+        private static Object readElements(MethodHandle element, Class<?> elementType, int length, long size,
+                                           MemorySegment segment, long offset) throws Throwable {
+            Object array = Array.newInstance(elementType, length);
+            for (int i = 0; i < length; i++) {
+                Array.set(array, i, (Object) element.invokeExact(segment, offset + i * size));
+            }
+            return array;
+        }
+
+        private static void writeElements(MethodHandle element, int length, long size,
+                                          MemorySegment segment, long offset, Object array) throws Throwable {
+            checkLength(Array.getLength(array), length);
+            for (int i = 0; i < length; i++) {
+                element.invokeExact(segment, offset + i * size, Array.get(array, i));
+            }
+        }
+
+        private static List<?> asList(Object array) {
+            Object[] elements = new Object[Array.getLength(array)];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = Array.get(array, i);
+            }
+            return List.of(elements);
+        }
+
+        private static Object toArray(Class<?> elementType, List<?> list) {
+            Object array = Array.newInstance(elementType, list.size());
+            for (int i = 0; i < list.size(); i++) {
+                Array.set(array, i, list.get(i));
+            }
+            return array;
+        }
+
+        private static void checkLength(int length, int expected) {
+            if (length != expected) {
+                throw new IllegalArgumentException("Expected " + expected + " elements but got " + length);
+            }
+        }
+
+        // (source)target
+        private MethodHandle conversion(Class<?> source, Class<?> target) {
+            if (source == target) {
+                return MethodHandles.identity(source);
+            }
+            MethodHandle custom = typeMappings.get(key(source, target));
+            if (custom != null) {
+                return custom;
+            }
+            if (source.isPrimitive() && target.isPrimitive()) {
+                if (widening && WIDENING.getOrDefault(source, List.of()).contains(target)) {
+                    return cast(source, target);
+                }
+                if (NARROWING.getOrDefault(source, List.of()).contains(target)) {
+                    if (exactNarrowing) {
+                        return exactNarrowing(source, target);
+                    }
+                    if (narrowing) {
+                        return cast(source, target);
+                    }
+                }
+            }
+            if (boxing && source.isPrimitive() && target == MethodType.methodType(source).wrap().returnType()) {
+                return MethodHandles.identity(source).asType(MethodType.methodType(target, source));
+            }
+            if (unboxing && !source.isPrimitive() && target.isPrimitive()) {
+                Class<?> primitive = MethodType.methodType(source).unwrap().returnType();
+                if (primitive.isPrimitive() && (primitive == target ||
+                        (widening && WIDENING.getOrDefault(primitive, List.of()).contains(target)))) {
+                    // Throws a NullPointerException for null like unboxing does
+                    return MethodHandles.identity(source).asType(MethodType.methodType(target, source));
+                }
+            }
+            if (stringConversion && target == String.class) {
+                return TO_STRING.asType(MethodType.methodType(String.class, source));
+            }
+            throw new IllegalArgumentException("No conversion from " + source.getName() + " to " + target.getName() +
+                    " (use a mapping or enable a conversion)");
+        }
+
+        // The same as a cast in the Java language
+        private static MethodHandle cast(Class<?> source, Class<?> target) {
+            return MethodHandles.explicitCastArguments(MethodHandles.identity(source),
+                    MethodType.methodType(target, source));
+        }
+
+        // Like Math.toIntExact for all integral narrowing conversions
+        private static MethodHandle exactNarrowing(Class<?> source, Class<?> target) {
+            if (source == float.class || source == double.class) {
+                // Always fails as such conversions are not reversible in general
+                return failing(source, target);
+            }
+            // (source)target that throws if the value changes when cast back
+            MethodHandle narrow = cast(source, target);
+            MethodHandle check = MethodHandles.explicitCastArguments(CHECK,
+                    MethodType.methodType(target, long.class, long.class, target));
+            // (source, target)target
+            MethodHandle checked = MethodHandles.filterArguments(check, 0,
+                    cast(source, long.class), cast(target, long.class));
+            return MethodHandles.foldArguments(
+                    MethodHandles.permuteArguments(checked, MethodType.methodType(target, target, source), 1, 0, 0),
+                    narrow);
+        }
+
+        private static MethodHandle failing(Class<?> source, Class<?> target) {
+            return MethodHandles.filterReturnValue(
+                    FAIL_FLOATING.asType(MethodType.methodType(void.class, source)),
+                    MethodHandles.zero(target));
+        }
+
+        private static void failFloating(double value) {
+            throw new ArithmeticException("Floating point values cannot be narrowed exactly: " + value);
+        }
+
+        private static int check(long original, long narrowed, int result) {
+            if (original != narrowed) {
+                throw new ArithmeticException("integer overflow");
+            }
+            return result;
+        }
+
+        // (source)target via Function::apply without reflection at call time
+        private static MethodHandle handle(Function<?, ?> function, Class<?> source, Class<?> target) {
+            return APPLY.bindTo(Objects.requireNonNull(function))
+                    .asType(MethodType.methodType(target, source));
+        }
+
+        private MethodHandles.Lookup privateLookup(Class<?> recordType) {
+            try {
+                return MethodHandles.privateLookupIn(recordType, lookup);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Unable to access " + recordType + " (use withLookup)", e);
+            }
+        }
+
+        private static String key(Class<?> source, Class<?> target) {
+            return source.getName() + "->" + target.getName();
         }
     }
 
-    interface MethodReference<T, R> extends Function<T, R> {
-        Method method();
+    // A method reference (e.g. Point::x) that knows what method it references
+    interface MethodReference<T, R> extends Function<T, R>, Serializable {
+
+        default Method method() {
+            try {
+                Method writeReplace = getClass().getDeclaredMethod("writeReplace");
+                writeReplace.setAccessible(true);
+                SerializedLambda lambda = (SerializedLambda) writeReplace.invoke(this);
+                Class<?> implClass = Class.forName(lambda.getImplClass().replace('/', '.'),
+                        false, getClass().getClassLoader());
+                return Arrays.stream(implClass.getDeclaredMethods())
+                        .filter(m -> m.getName().equals(lambda.getImplMethodName()))
+                        .filter(m -> m.getParameterCount() == 0)
+                        .findFirst()
+                        .orElseThrow();
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new IllegalArgumentException("Not a method reference: " + this, e);
+            }
+        }
     }
 
 